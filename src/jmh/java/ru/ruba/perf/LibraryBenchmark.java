@@ -0,0 +1,140 @@
+package ru.ruba.perf;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.dto.BookSearchView;
+import ru.ruba.dto.BookView;
+import ru.ruba.dto.LoanedBookView;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Замеры основных операций чтения и записи сервисного слоя на встроенной базе,
+ * заполненной {@link DataGenerator}. Размер базы задается параметром books (читателей в 10 раз меньше).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LibraryBenchmark {
+
+    private static final String[] PREFIXES = {"Война", "мир", "Мастер М", "горе уму", "Дон", "Анна Каренина 1"};
+
+    @Param({"10000", "100000", "1000000"})
+    public int books;
+
+    private AnnotationConfigWebApplicationContext context;
+
+    private BookService bookService;
+
+    private PeopleService peopleService;
+
+    private int people;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = LibraryContext.start();
+        people = Math.max(1, books / 10);
+        new DataGenerator(context.getBean(DataSource.class), 42).generate(books, people, 0.3, 30);
+        bookService = context.getBean(BookService.class);
+        peopleService = context.getBean(PeopleService.class);
+        bookService.rebuildTitleIndex();
+        peopleService.rebuildFioFilter();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<BookView> findWithPagination() {
+        int pages = books / 20;
+        return bookService.findWithPagination(ThreadLocalRandom.current().nextInt(pages), 20, true);
+    }
+
+    @Benchmark
+    public List<BookView> findWithKeyset() {
+        return bookService.findWithKeyset(ThreadLocalRandom.current().nextInt(books), null, 20, false).getContent();
+    }
+
+    @Benchmark
+    public List<BookSearchView> searchByTitle() {
+        return bookService.searchByTitle(PREFIXES[ThreadLocalRandom.current().nextInt(PREFIXES.length)]);
+    }
+
+    @Benchmark
+    public Book findOneBook() {
+        return bookService.findOneBook(1 + ThreadLocalRandom.current().nextInt(books));
+    }
+
+    @Benchmark
+    public List<LoanedBookView> getBooksByPersonId() {
+        return peopleService.getBooksByPersonId(1 + ThreadLocalRandom.current().nextInt(people));
+    }
+
+    @Benchmark
+    public boolean existsByFio() {
+        // как при регистрации новых читателей: ФИО почти всегда свободно
+        return peopleService.existsByFio("Новый Читатель " + ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    public boolean assignAndRelease() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(books);
+        Person reader = new Person();
+        reader.setId(1 + ThreadLocalRandom.current().nextInt(people));
+        boolean assigned = bookService.assign(id, reader);
+        return bookService.release(id) && assigned;
+    }
+
+    /**
+     * Изменение всех полей формы книги (название, автор, год). Год выбирается случайно, чтобы строка
+     * действительно изменялась, а не отсекалась проверкой на неизмененные поля.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean updateBook() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(books);
+        Book book = new Book();
+        book.setTitle("Обновленная книга " + id);
+        book.setAuthor("Автор Обновленный");
+        book.setYear(1800 + ThreadLocalRandom.current().nextInt(224));
+        return bookService.updateBook(id, book);
+    }
+
+    /**
+     * Изменение всех полей формы читателя при неизменном ФИО (самый частый случай - исправление email).
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public boolean updatePerson() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(people);
+        Person person = new Person(DataGenerator.fio(id), 1940 + ThreadLocalRandom.current().nextInt(70),
+                "reader" + id + "." + ThreadLocalRandom.current().nextInt(1000) + "@library.ru");
+        return peopleService.updatePerson(id, person);
+    }
+}
@@ -0,0 +1,106 @@
+package ru.ruba.perf;
+
+import ch.qos.logback.classic.AsyncAppender;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.joran.JoranConfigurator;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Задержка, которую запись журнала о вызове метода добавляет потоку запроса, при конфигурации из logback.xml:
+ * <ul>
+ *     <li>sync - файловый appender FILE подключен напрямую, поток ждет кодирования JSON и записи в файл;</li>
+ *     <li>async - как в приложении, через очередь ASYNC;</li>
+ *     <li>async_sampled - через очередь ASYNC с выборкой записей о вызове методов (LOG_SAMPLE_RATE=0.1).</li>
+ * </ul>
+ * Файл журнала пишется во временный каталог. При async поток запроса не ждет диска; если диск не успевает
+ * за потоком записей, очередь заполняется и записи INFO отбрасываются (см. logback.xml), поэтому замер
+ * показывает задержку потока запроса, а не пропускную способность записи в файл. Поток записи очереди занимает
+ * отдельное ядро: на машине с одним ядром он делит его с потоком запроса и разница между sync и async не видна.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoggingBenchmark {
+
+    @Param({"sync", "async", "async_sampled"})
+    public String logging;
+
+    private LoggerContext loggerContext;
+
+    private Logger logger;
+
+    private Path logDir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        logDir = Files.createTempDirectory("library-logging-benchmark");
+        loggerContext = new LoggerContext();
+        loggerContext.putProperty("LOG_DIR", logDir.toString());
+        loggerContext.putProperty("LOG_SAMPLE_RATE", "async_sampled".equals(logging) ? "0.1" : "1.0");
+        JoranConfigurator configurator = new JoranConfigurator();
+        configurator.setContext(loggerContext);
+        configurator.doConfigure(LoggingBenchmark.class.getResource("/logback.xml"));
+
+        if ("sync".equals(logging)) {
+            // очередь только отключается от корневого логгера: ее остановка остановила бы и файловый appender
+            Logger root = loggerContext.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME);
+            AsyncAppender async = (AsyncAppender) root.getAppender("ASYNC");
+            Appender<ILoggingEvent> file = async.getAppender("FILE");
+            root.detachAppender(async);
+            root.addAppender(file);
+        }
+        logger = loggerContext.getLogger("ru.ruba.services.BookService");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        loggerContext.stop();
+        try (Stream<Path> files = Files.walk(logDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Запись о вызове метода сервиса, как в начале BookService.findOneBook().
+     */
+    @Benchmark
+    public void logMethodEntry() {
+        logger.info("Метод findOneBook() вызван с параметром id = {}", ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    /**
+     * То же из нескольких потоков запросов одновременно: синхронный appender пишет в файл под блокировкой.
+     */
+    @Benchmark
+    @Threads(8)
+    public void logMethodEntryConcurrently() {
+        logger.info("Метод findOneBook() вызван с параметром id = {}", ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+}
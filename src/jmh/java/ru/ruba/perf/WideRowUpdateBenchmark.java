@@ -0,0 +1,149 @@
+package ru.ruba.perf;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.models.Book;
+import ru.ruba.repositories.BookRepository;
+import ru.ruba.services.BookService;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение частичного запроса UPDATE полей формы книги ({@link BookService#updateBook}) с прежним способом
+ * сохранения: чтение книги и слияние ({@code merge}) формы со всеми столбцами строки.
+ * При width = wide название и автор всех книг заполнены до предельной длины столбцов (100 символов),
+ * при width = narrow строки короткие, как у {@link DataGenerator}.
+ * Правка меняет только год, название и автор отправляются такими же, как в базе, - как при исправлении опечатки в году;
+ * форма передает исходные значения, поэтому частичный UPDATE записывает только год.
+ * Частичное обновление идет через сервис вместе с журналированием и обновлением кэшей,
+ * слияние - напрямую через EntityManager, поэтому сравнение не в пользу частичного обновления.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class WideRowUpdateBenchmark {
+
+    private static final int WIDE = 100;
+
+    @Param({"10000", "100000"})
+    public int books;
+
+    @Param({"narrow", "wide"})
+    public String width;
+
+    private AnnotationConfigWebApplicationContext context;
+
+    private BookService bookService;
+
+    private BookRepository bookRepository;
+
+    private EntityManager entityManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        context = LibraryContext.start();
+        DataSource dataSource = context.getBean(DataSource.class);
+        new DataGenerator(dataSource, 42).generate(books, Math.max(1, books / 10), 0.3, 30);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.executeUpdate("update book set title = " + column("'Книга ' || id") +
+                    ", author = " + column("'Автор ' || id"));
+        }
+        // строки изменены мимо Hibernate
+        EntityManagerFactory entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        entityManagerFactory.getCache().evictAll();
+        bookService = context.getBean(BookService.class);
+        bookRepository = context.getBean(BookRepository.class);
+        entityManager = SharedEntityManagerCreator.createSharedEntityManager(entityManagerFactory);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Один запрос UPDATE года без чтения книги: название и автор совпадают с исходными значениями формы.
+     */
+    @Benchmark
+    public boolean partialUpdate() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(books);
+        Book original = form(id);
+        original.setYear(0);
+        return bookService.updateBook(id, original, form(id));
+    }
+
+    /**
+     * Тот же запрос UPDATE напрямую через репозиторий, без журналирования и обновления кэшей сервиса:
+     * сравнивается со слиянием при равных условиях.
+     */
+    @Benchmark
+    public int partialUpdateQuery() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(books);
+        Book updatedBook = form(id);
+        return transactionTemplate.execute(status -> bookRepository.updateDetails(id, null, null,
+                updatedBook.getYear(), new Date()));
+    }
+
+    /**
+     * Прежний способ: книга читается, а форма сливается с ней, и UPDATE записывает все столбцы строки.
+     */
+    @Benchmark
+    public Book mergeUpdate() {
+        int id = 1 + ThreadLocalRandom.current().nextInt(books);
+        Book updatedBook = form(id);
+        return transactionTemplate.execute(status -> {
+            Book bookToBeUpdated = entityManager.find(Book.class, id);
+            updatedBook.setId(id);
+            updatedBook.setReader(bookToBeUpdated.getReader());
+            updatedBook.setTakenAt(bookToBeUpdated.getTakenAt());
+            updatedBook.setVersion(bookToBeUpdated.getVersion());
+            return entityManager.merge(updatedBook);
+        });
+    }
+
+    private Book form(int id) {
+        Book book = new Book();
+        book.setTitle(pad("Книга " + id));
+        book.setAuthor(pad("Автор " + id));
+        book.setYear(1800 + ThreadLocalRandom.current().nextInt(224));
+        return book;
+    }
+
+    private String column(String expression) {
+        return "wide".equals(width) ? "rpad(" + expression + ", " + WIDE + ", '.')" : expression;
+    }
+
+    private String pad(String value) {
+        if (!"wide".equals(width))
+            return value;
+        return value + ".".repeat(WIDE - value.length());
+    }
+}
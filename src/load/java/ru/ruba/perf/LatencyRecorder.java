@@ -0,0 +1,79 @@
+package ru.ruba.perf;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Накапливает все измерения одного сценария нагрузки и считает точные процентили.
+ */
+class LatencyRecorder {
+
+    private final String name;
+
+    private long[] nanos = new long[1024];
+
+    private int count;
+
+    private int errors;
+
+    LatencyRecorder(String name) {
+        this.name = name;
+    }
+
+    synchronized void record(long latencyNanos, boolean failed) {
+        if (count == nanos.length)
+            nanos = Arrays.copyOf(nanos, count * 2);
+        nanos[count++] = latencyNanos;
+        if (failed)
+            errors++;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    synchronized int getCount() {
+        return count;
+    }
+
+    synchronized int getErrors() {
+        return errors;
+    }
+
+    /**
+     * @param quantile Значение от 0 до 1.
+     * @return Процентиль задержки в миллисекундах или 0, если измерений нет.
+     */
+    synchronized double percentileMillis(double quantile) {
+        if (count == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf(nanos, count);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(count - 1, Math.ceil(quantile * count) - 1);
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    synchronized void merge(LatencyRecorder other) {
+        for (int i = 0; i < other.count; i++)
+            record(other.nanos[i], false);
+        errors += other.errors;
+    }
+
+    /**
+     * @param seconds Длительность замера.
+     * @return Строка отчета в формате JSON; пропускная способность считается только по успешным ответам.
+     */
+    String toJson(double seconds) {
+        return String.format(Locale.ROOT,
+                "{\"scenario\":\"%s\",\"requests\":%d,\"errors\":%d,\"throughput\":%.2f,"
+                        + "\"p50_ms\":%.3f,\"p99_ms\":%.3f,\"p999_ms\":%.3f,\"max_ms\":%.3f}",
+                name, getCount(), getErrors(), (getCount() - getErrors()) / seconds,
+                percentileMillis(0.5), percentileMillis(0.99), percentileMillis(0.999), percentileMillis(1));
+    }
+
+    String toRow(double seconds) {
+        return String.format(Locale.ROOT, "%-34s %9d %7d %10.1f %9.2f %9.2f %9.2f %9.2f",
+                name, getCount(), getErrors(), (getCount() - getErrors()) / seconds,
+                percentileMillis(0.5), percentileMillis(0.99), percentileMillis(0.999), percentileMillis(1));
+    }
+}
@@ -0,0 +1,245 @@
+package ru.ruba.perf;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.springframework.web.SpringServletContainerInitializer;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import ru.ruba.config.MySpringMvcDispatcherSerlvetIntitializer;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Нагрузочный прогон приложения во встроенном Tomcat: приложение запускается тем же
+ * {@link MySpringMvcDispatcherSerlvetIntitializer}, что и при развертывании war, база заполняется
+ * {@link DataGenerator}, затем запросы подаются с заданной частотой (открытая модель нагрузки).
+ * Задержка считается от запланированного момента отправки, поэтому очередь на стороне сервера
+ * не скрывает рост задержки. Результаты - пропускная способность и процентили p50/p99/p999 по сценариям.
+ * <p>
+ * С load.clients=N нагрузку создают N клиентов на виртуальных потоках, каждый ждет ответа перед следующим
+ * запросом (закрытая модель); так сравнивается пропускная способность при обработке запросов на потоках
+ * контейнера и на виртуальных потоках (load.virtual_threads) при одинаковом числе одновременных клиентов.
+ */
+public final class LoadTest {
+
+    private static final String[] SEARCH_PREFIXES = {"Война", "мир", "Мастер М", "горе уму", "Дон", "Анна Каренина 1"};
+
+    private final LoadSettings settings;
+
+    private final HttpClient client = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(10))
+            .build();
+
+    private final Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    private String baseUrl;
+
+    private LoadTest(LoadSettings settings) {
+        this.settings = settings;
+        for (String name : List.of("GET /book?page", "GET /book/{id}", "POST /book/search", "GET /people/{id}",
+                "PATCH /book/{id}/assign", "PATCH /book/{id}/release"))
+            recorders.put(name, new LatencyRecorder(name));
+    }
+
+    public static void main(String[] args) throws Exception {
+        LibraryContext.applySettings();
+        LoadSettings settings = LoadSettings.fromSystemProperties();
+        // на виртуальных потоках параллелизм ограничивает фильтр приложения, если его явно не выключили
+        if (settings.virtualThreads())
+            System.getProperties().putIfAbsent("web.concurrency_limit.enabled", "true");
+        new LoadTest(settings).run();
+    }
+
+    private void run() throws Exception {
+        Tomcat tomcat = startTomcat();
+        try {
+            if (settings.generate())
+                generateData(tomcat);
+            long measuredNanos = settings.clients() > 0 ? driveClients() : drive();
+            report(measuredNanos / 1e9);
+        } finally {
+            tomcat.stop();
+            tomcat.destroy();
+        }
+    }
+
+    private Tomcat startTomcat() throws Exception {
+        Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(Files.createDirectories(Path.of("target", "load-tomcat")).toString());
+        tomcat.setPort(settings.port());
+        // то же, что useVirtualThreads="true" у Connector в server.xml
+        tomcat.getConnector().setProperty("useVirtualThreads", String.valueOf(settings.virtualThreads()));
+        Context context = tomcat.addContext("", new File("src/main/webapp").getAbsolutePath());
+        context.addServletContainerInitializer(new SpringServletContainerInitializer(),
+                Set.of(MySpringMvcDispatcherSerlvetIntitializer.class));
+        tomcat.start();
+        baseUrl = "http://localhost:" + tomcat.getConnector().getLocalPort();
+        return tomcat;
+    }
+
+    private void generateData(Tomcat tomcat) throws Exception {
+        Context context = (Context) tomcat.getHost().findChild("");
+        WebApplicationContext applicationContext =
+                WebApplicationContextUtils.findWebApplicationContext(context.getServletContext());
+        new DataGenerator(applicationContext.getBean(DataSource.class), settings.seed())
+                .generate(settings.books(), settings.people(), settings.loanedShare(), settings.maxLoanDays());
+        // данные записаны в обход Hibernate: сбрасываем кэш второго уровня, перестраиваем индекс названий и фильтр ФИО
+        BookService bookService = applicationContext.getBean(BookService.class);
+        bookService.clearJpaMetadataCache();
+        bookService.rebuildTitleIndex();
+        applicationContext.getBean(PeopleService.class).rebuildFioFilter();
+    }
+
+    /**
+     * Подает запросы с частотой load.rate в течение прогрева и замера.
+     *
+     * @return Длительность замера в наносекундах (без прогрева).
+     */
+    private long drive() throws Exception {
+        Random random = new Random(settings.seed());
+        long interval = TimeUnit.SECONDS.toNanos(1) / settings.rate();
+        long warmupEnd = TimeUnit.SECONDS.toNanos(settings.warmupSeconds());
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(settings.durationSeconds());
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        long start = System.nanoTime();
+        for (long i = 0; ; i++) {
+            long offset = i * interval;
+            if (offset >= end)
+                break;
+            long intended = start + offset;
+            long wait = intended - System.nanoTime();
+            if (wait > 0)
+                LockSupport.parkNanos(wait);
+            pending.add(sendScenario(random, intended, offset >= warmupEnd));
+            if (pending.size() >= 10_000)
+                pending.removeIf(CompletableFuture::isDone);
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture[0])).get(2, TimeUnit.MINUTES);
+        return end - warmupEnd;
+    }
+
+    /**
+     * Запускает load.clients клиентов, каждый отправляет следующий запрос сразу после ответа на предыдущий.
+     * Задержка считается от момента отправки запроса.
+     *
+     * @return Длительность замера в наносекундах (без прогрева).
+     */
+    private long driveClients() throws Exception {
+        long start = System.nanoTime();
+        long warmupEnd = start + TimeUnit.SECONDS.toNanos(settings.warmupSeconds());
+        long end = warmupEnd + TimeUnit.SECONDS.toNanos(settings.durationSeconds());
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < settings.clients(); i++) {
+                Random random = new Random(settings.seed() + i);
+                clients.execute(() -> {
+                    for (long now = System.nanoTime(); now < end; now = System.nanoTime())
+                        sendScenario(random, now, now >= warmupEnd).join();
+                });
+            }
+        }
+        return end - warmupEnd;
+    }
+
+    private CompletableFuture<?> sendScenario(Random random, long intended, boolean measured) {
+        int roll = random.nextInt(100);
+        int bookId = 1 + random.nextInt(settings.books());
+        if (roll < 20)
+            return send("GET /book?page", get("/book?page=" + random.nextInt(Math.max(1, settings.books() / 20))
+                    + "&books_per_page=20"), intended, measured);
+        if (roll < 50)
+            return send("GET /book/{id}", get("/book/" + bookId), intended, measured);
+        if (roll < 65)
+            return send("POST /book/search", form("/book/search",
+                    "query=" + encode(SEARCH_PREFIXES[random.nextInt(SEARCH_PREFIXES.length)])), intended, measured);
+        if (roll < 85)
+            return send("GET /people/{id}", get("/people/" + (1 + random.nextInt(settings.people()))), intended, measured);
+        // выдача и возврат одной книги подряд, как это делает библиотекарь
+        HttpRequest assign = form("/book/" + bookId + "/assign",
+                "_method=patch&id=" + (1 + random.nextInt(settings.people())));
+        HttpRequest release = form("/book/" + bookId + "/release", "_method=patch");
+        return send("PATCH /book/{id}/assign", assign, intended, measured)
+                .thenCompose(ignored -> send("PATCH /book/{id}/release", release, System.nanoTime(), measured));
+    }
+
+    private CompletableFuture<?> send(String scenario, HttpRequest request, long intended, boolean measured) {
+        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .handle((response, error) -> {
+                    inFlight.decrementAndGet();
+                    if (measured) {
+                        boolean failed = error != null || response.statusCode() >= 400;
+                        recorders.get(scenario).record(System.nanoTime() - intended, failed);
+                    }
+                    return null;
+                });
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(60)).GET().build();
+    }
+
+    private HttpRequest form(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+
+    private void report(double seconds) throws Exception {
+        LatencyRecorder total = new LatencyRecorder("total");
+        StringBuilder json = new StringBuilder();
+        json.append("{\"settings\":{\"books\":").append(settings.books()).append(",\"people\":").append(settings.people())
+                .append(",\"rate\":").append(settings.rate()).append(",\"clients\":").append(settings.clients())
+                .append(",\"virtual_threads\":").append(settings.virtualThreads())
+                .append(",\"duration_s\":").append(settings.durationSeconds())
+                .append("},\"max_in_flight\":").append(maxInFlight.get()).append(",\"scenarios\":[");
+        System.out.printf("%-34s %9s %7s %10s %9s %9s %9s %9s%n",
+                "scenario", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (LatencyRecorder recorder : recorders.values()) {
+            System.out.println(recorder.toRow(seconds));
+            json.append(recorder.toJson(seconds)).append(',');
+            total.merge(recorder);
+        }
+        System.out.println(total.toRow(seconds));
+        System.out.println("max in flight: " + maxInFlight.get());
+        json.append(total.toJson(seconds)).append("]}");
+        Path result = Path.of(settings.result());
+        if (result.getParent() != null)
+            Files.createDirectories(result.getParent());
+        Files.writeString(result, json);
+        System.out.println("Результаты сохранены в " + result.toAbsolutePath());
+    }
+}
@@ -2,10 +2,14 @@ package ru.ruba.config;
 
 import jakarta.servlet.DispatcherType;
 import jakarta.servlet.FilterRegistration;
+import jakarta.servlet.MultipartConfigElement;
 import jakarta.servlet.ServletContext;
 import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRegistration;
 import org.springframework.web.filter.CharacterEncodingFilter;
+import org.springframework.web.filter.DelegatingFilterProxy;
 import org.springframework.web.filter.HiddenHttpMethodFilter;
+import org.springframework.web.servlet.FrameworkServlet;
 import org.springframework.web.servlet.support.AbstractAnnotationConfigDispatcherServletInitializer;
 import java.util.EnumSet;
 
@@ -26,6 +30,17 @@ public class MySpringMvcDispatcherSerlvetIntitializer extends AbstractAnnotation
         return new String[]{"/"};
     }
 
+    /**
+     * Включает прием multipart-запросов (загрузка файлов для массового импорта).
+     * Загружаемый файл сохраняется во временный каталог контейнера и читается потоково.
+     *
+     * @param registration Регистрация DispatcherServlet.
+     */
+    @Override
+    protected void customizeRegistration(ServletRegistration.Dynamic registration) {
+        registration.setMultipartConfig(new MultipartConfigElement("", -1, -1, 1024 * 1024));
+    }
+
     /**
      * Вызывается при запуске приложения. Регистрирует фильтры и настраивает контекст сервлета.
      *
@@ -35,10 +50,25 @@ public class MySpringMvcDispatcherSerlvetIntitializer extends AbstractAnnotation
     @Override
     public void onStartup(ServletContext aServletContext) throws ServletException {
         super.onStartup(aServletContext);
+        registerConcurrencyLimitFilter(aServletContext);
         registerCharacterEncodingFilter(aServletContext);
         registerHiddenFieldFilter(aServletContext);
     }
 
+    /**
+     * Регистрирует первым в цепочке фильтр, ограничивающий число одновременно обрабатываемых запросов.
+     * Сам фильтр - бин {@link SpringConfig#concurrencyLimitFilter()}: корневого контекста нет, поэтому прокси
+     * ищет его в контексте DispatcherServlet (контекст создается позже, прокси получает бин при первом запросе).
+     *
+     * @param aContext Контекст сервлета, в котором выполняется регистрация фильтра.
+     */
+    private void registerConcurrencyLimitFilter(ServletContext aContext) {
+        DelegatingFilterProxy concurrencyLimitFilter = new DelegatingFilterProxy("concurrencyLimitFilter");
+        concurrencyLimitFilter.setContextAttribute(FrameworkServlet.SERVLET_CONTEXT_PREFIX + getServletName());
+        aContext.addFilter("concurrencyLimitFilter", concurrencyLimitFilter)
+                .addMappingForUrlPatterns(EnumSet.of(DispatcherType.REQUEST), false, "/*");
+    }
+
     /**
      * Регистрирует фильтр скрытых HTTP-методов для приложения.
      *
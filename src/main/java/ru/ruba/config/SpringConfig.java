@@ -1,32 +1,67 @@
 package ru.ruba.config;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.MethodMatcher;
+import org.springframework.aop.support.ComposablePointcut;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
+import org.springframework.context.annotation.Primary;
 import org.springframework.context.annotation.PropertySource;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.Ordered;
 import org.springframework.core.env.Environment;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.data.repository.Repository;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.orm.jpa.JpaTransactionManager;
 import org.springframework.orm.jpa.LocalContainerEntityManagerFactoryBean;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
+import org.springframework.stereotype.Service;
 import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.EnableTransactionManagement;
+import org.springframework.validation.beanvalidation.LocalValidatorFactoryBean;
+import org.springframework.web.multipart.MultipartResolver;
+import org.springframework.web.multipart.support.StandardServletMultipartResolver;
 import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.ViewResolverRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 import org.thymeleaf.spring6.SpringTemplateEngine;
 import org.thymeleaf.spring6.templateresolver.SpringResourceTemplateResolver;
 import org.thymeleaf.spring6.view.ThymeleafViewResolver;
+import ru.ruba.services.CatalogueVersion;
+import ru.ruba.util.ConcurrencyLimitFilter;
+import ru.ruba.util.FragmentCache;
+import ru.ruba.util.LoanHistoryPartitions;
+import ru.ruba.util.MethodMetrics;
+import ru.ruba.util.MetricsInterceptor;
+import ru.ruba.util.PoolMetricsTrackerFactory;
+import ru.ruba.util.ReadYourWritesInterceptor;
+import ru.ruba.util.ReplicaCacheModeJpaDialect;
+import ru.ruba.util.ReplicaRoutingDataSource;
+import ru.ruba.util.SchemaMigrator;
+import ru.ruba.util.SqlStatementCounter;
+import ru.ruba.util.TimedMethodInterceptor;
 
 import javax.sql.DataSource;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Properties;
 
 @Configuration
 @ComponentScan("ru.ruba")
-@PropertySource("classpath:hibernate.properties")
+// файла может не быть, если все настройки заданы системными свойствами (например, при замерах из src/perf)
+@PropertySource(value = "classpath:hibernate.properties", ignoreResourceNotFound = true)
 @EnableTransactionManagement
 @EnableJpaRepositories("ru.ruba.repositories")
 @EnableWebMvc
@@ -60,25 +95,189 @@ public class SpringConfig implements WebMvcConfigurer {
         return templateEngine;
     }
 
-    @Override
-    public void configureViewResolvers(ViewResolverRegistry registry) {
+    @Bean
+    public ThymeleafViewResolver thymeleafViewResolver() {
         ThymeleafViewResolver resolver = new ThymeleafViewResolver();
         resolver.setTemplateEngine(templateEngine());
         resolver.setCharacterEncoding("UTF-8");
+        // страница пишется в ответ по мере обработки шаблона, а не собирается целиком в памяти
+        resolver.setProducePartialOutputWhileProcessing(true);
+        return resolver;
+    }
+
+    @Override
+    public void configureViewResolvers(ViewResolverRegistry registry) {
+        registry.viewResolver(thymeleafViewResolver());
+    }
 
-        registry.viewResolver(resolver);
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // methodMetrics() статический, поэтому берем общий экземпляр из контекста, а не вызываем метод напрямую
+        registry.addInterceptor(new MetricsInterceptor(applicationContext.getBean(MethodMetrics.class)));
+        if (!routingDataSource().getReplicas().isEmpty())
+            registry.addInterceptor(new ReadYourWritesInterceptor(
+                    env.getProperty("datasource.replicas.sticky_window_ms", Long.class, 5000L)));
     }
 
     @Bean
+    public static MethodMetrics methodMetrics() {
+        return new MethodMetrics();
+    }
+
+    /**
+     * Замеряет время вызова методов сервисов. Советник инфраструктурный, поэтому его применяет тот же механизм
+     * автопроксирования, что и @Transactional; при этом замер охватывает и фиксацию транзакции.
+     *
+     * @param methodMetrics Реестр таймеров.
+     * @return Советник для классов с аннотацией @Service.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor serviceMetricsAdvisor(MethodMetrics methodMetrics) {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(new AnnotationMatchingPointcut(Service.class, true),
+                new TimedMethodInterceptor(methodMetrics, "service"));
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+
+    /**
+     * Замеряет время вызова методов репозиториев Spring Data.
+     *
+     * @param methodMetrics Реестр таймеров.
+     * @return Советник для репозиториев.
+     */
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor repositoryMetricsAdvisor(MethodMetrics methodMetrics) {
+        DefaultPointcutAdvisor advisor = new DefaultPointcutAdvisor(
+                new ComposablePointcut(Repository.class::isAssignableFrom, MethodMatcher.TRUE),
+                new TimedMethodInterceptor(methodMetrics, "repository"));
+        advisor.setOrder(Ordered.HIGHEST_PRECEDENCE);
+        return advisor;
+    }
+
+    @Bean
+    public LocalValidatorFactoryBean validator() {
+        return new LocalValidatorFactoryBean();
+    }
+
+    @Bean
+    public MultipartResolver multipartResolver() {
+        return new StandardServletMultipartResolver();
+    }
+
+    @Bean
+    public PoolMetricsTrackerFactory poolMetricsTrackerFactory() {
+        return new PoolMetricsTrackerFactory();
+    }
+
+    /**
+     * Создает пул соединений HikariCP вместо открытия нового физического соединения на каждую транзакцию.
+     * Соединение запрашивается у пула только при первом SQL-запросе транзакции (транзакция, обслуженная
+     * кэшем второго уровня, соединение не занимает), а его выбор между основной базой и репликами
+     * выполняет {@link ReplicaRoutingDataSource}.
+     *
+     * @return Источник данных приложения.
+     */
+    @Bean
+    @Primary
     public DataSource dataSource() {
-        DriverManagerDataSource dataSource = new DriverManagerDataSource();
+        return new LazyConnectionDataSourceProxy(routingDataSource());
+    }
 
-        dataSource.setDriverClassName(env.getRequiredProperty("hibernate.driver_class"));
-        dataSource.setUrl(env.getRequiredProperty("hibernate.connection.url"));
-        dataSource.setUsername(env.getRequiredProperty("hibernate.connection.username"));
-        dataSource.setPassword(env.getRequiredProperty("hibernate.connection.password"));
+    /**
+     * Создает пулы основной базы и реплик (ключи datasource.replicas и datasource.replica.&lt;имя&gt;.*).
+     * Размер пула, время жизни соединений, проверка и обнаружение утечек настраиваются в hibernate.properties
+     * (ключи datasource.pool.*), метрики пулов собирает {@link PoolMetricsTrackerFactory}.
+     *
+     * @return Источник данных, направляющий читающие транзакции в реплики.
+     */
+    @Bean(destroyMethod = "close")
+    public ReplicaRoutingDataSource routingDataSource() {
+        // Hibernate сам читает hibernate.properties и при наличии hibernate.connection.username/password
+        // запрашивает соединение через getConnection(user, password), которое пул не поддерживает,
+        // поэтому параметры подключения хранятся под собственными ключами datasource.*
+        String username = env.getRequiredProperty("datasource.username");
+        String password = env.getRequiredProperty("datasource.password");
+        HikariConfig primary = poolConfig("library-primary", env.getRequiredProperty("datasource.url"), username, password);
+
+        Map<String, HikariDataSource> replicas = new LinkedHashMap<>();
+        for (String name : env.getProperty("datasource.replicas", String[].class, new String[0])) {
+            if (name.isBlank())
+                continue;
+            String prefix = "datasource.replica." + name.strip() + '.';
+            HikariConfig replica = poolConfig("library-replica-" + name.strip(), env.getRequiredProperty(prefix + "url"),
+                    env.getProperty(prefix + "username", username), env.getProperty(prefix + "password", password));
+            // недоступная реплика не должна мешать запуску и надолго задерживать переключение на другие базы
+            replica.setInitializationFailTimeout(-1);
+            replica.setConnectionTimeout(env.getProperty("datasource.replicas.connection_timeout_ms", Long.class, 1000L));
+            replicas.put(name.strip(), new HikariDataSource(replica));
+        }
+
+        return new ReplicaRoutingDataSource(new HikariDataSource(primary), replicas,
+                ReplicaRoutingDataSource.Strategy.valueOf(
+                        env.getProperty("datasource.replicas.strategy", "round_robin").toUpperCase(Locale.ROOT)),
+                env.getProperty("datasource.replicas.health_check_interval_ms", Long.class, 5000L));
+    }
+
+    private HikariConfig poolConfig(String poolName, String url, String username, String password) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(poolName);
+
+        config.setDriverClassName(env.getRequiredProperty("datasource.driver_class"));
+        config.setJdbcUrl(url);
+        config.setUsername(username);
+        config.setPassword(password);
+
+        config.setMaximumPoolSize(maximumPoolSize());
+        config.setMinimumIdle(env.getProperty("datasource.pool.minimum_idle", Integer.class, 5));
+        config.setConnectionTimeout(env.getProperty("datasource.pool.connection_timeout_ms", Long.class, 30000L));
+        config.setIdleTimeout(env.getProperty("datasource.pool.idle_timeout_ms", Long.class, 600000L));
+        config.setMaxLifetime(env.getProperty("datasource.pool.max_lifetime_ms", Long.class, 1800000L));
+        config.setValidationTimeout(env.getProperty("datasource.pool.validation_timeout_ms", Long.class, 5000L));
+        config.setLeakDetectionThreshold(env.getProperty("datasource.pool.leak_detection_threshold_ms", Long.class, 60000L));
+
+        String testQuery = env.getProperty("datasource.pool.connection_test_query");
+        if (testQuery != null && !testQuery.isBlank())
+            config.setConnectionTestQuery(testQuery);
+
+        config.setMetricsTrackerFactory(poolMetricsTrackerFactory());
+        config.setRegisterMbeans(true);
+        return config;
+    }
+
+    private int maximumPoolSize() {
+        return env.getProperty("datasource.pool.maximum_pool_size", Integer.class, 20);
+    }
+
+    /**
+     * Создает фильтр, ограничивающий число одновременно обрабатываемых запросов (web.concurrency_limit.*).
+     * Нужен при обработке запросов на виртуальных потоках, чтобы тысячи запросов не выстраивались в очередь
+     * за соединением и не упирались в таймаут пула. По умолчанию пропускает два запроса на соединение пула:
+     * часть времени запрос тратит на отрисовку страницы, не удерживая соединение.
+     *
+     * @return Фильтр, зарегистрированный в {@link MySpringMvcDispatcherSerlvetIntitializer}.
+     */
+    @Bean
+    public ConcurrencyLimitFilter concurrencyLimitFilter() {
+        return new ConcurrencyLimitFilter(
+                env.getProperty("web.concurrency_limit.enabled", Boolean.class, false),
+                env.getProperty("web.concurrency_limit.max_requests", Integer.class, 2 * maximumPoolSize()),
+                env.getProperty("web.concurrency_limit.acquire_timeout_ms", Long.class, 5000L));
+    }
 
-        return dataSource;
+    /**
+     * Создает кэш отрисованных фрагментов страниц (view.fragment_cache.*): списка книг и книг читателя.
+     * Фрагменты действительны, пока не изменилась версия данных каталога.
+     *
+     * @param catalogueVersion Версия данных каталога.
+     * @return Кэш фрагментов.
+     */
+    @Bean
+    public FragmentCache fragmentCache(CatalogueVersion catalogueVersion) {
+        return new FragmentCache(templateEngine(), catalogueVersion::current,
+                env.getProperty("view.fragment_cache.enabled", Boolean.class, true),
+                env.getProperty("view.fragment_cache.max_chars", Long.class, 8_000_000L));
     }
 
     private Properties hibernateProperties() {
@@ -86,15 +285,65 @@ public class SpringConfig implements WebMvcConfigurer {
         properties.put("hibernate.dialect", env.getRequiredProperty("hibernate.dialect"));
         properties.put("hibernate.show_sql", env.getRequiredProperty("hibernate.show_sql"));
 
+        // кэш второго уровня (Ehcache через JCache): регионы, размер и TTL описаны в ehcache.xml
+        properties.put("hibernate.cache.use_second_level_cache", env.getProperty("hibernate.cache.use_second_level_cache", "true"));
+        properties.put("hibernate.cache.use_query_cache", env.getProperty("hibernate.cache.use_query_cache", "true"));
+        properties.put("hibernate.cache.region.factory_class", "jcache");
+        properties.put("hibernate.javax.cache.provider", "org.ehcache.jsr107.EhcacheCachingProvider");
+        properties.put("hibernate.javax.cache.uri", env.getProperty("hibernate.javax.cache.uri", "ehcache.xml"));
+        properties.put("hibernate.javax.cache.missing_cache_strategy", "create-warn");
+        // сброс закэшированной коллекции Person.books при изменении Book.reader
+        properties.put("hibernate.cache.auto_evict_collection_cache", "true");
+        // статистика собирается на каждую сессию и запрос, поэтому включается только там, где нужны серии hibernate_*
+        // в /metrics и отчет /admin/cache
+        properties.put("hibernate.generate_statistics", env.getProperty("hibernate.generate_statistics", "false"));
+        // подсчет SQL-запросов на один HTTP-запрос для /metrics
+        properties.put("hibernate.session_factory.statement_inspector", new SqlStatementCounter());
+
+        // пакетная вставка и обновление строк
+        properties.put("hibernate.jdbc.batch_size", env.getProperty("hibernate.jdbc.batch_size", "50"));
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+
         return properties;
     }
 
+    /**
+     * Создает компонент версионных миграций схемы (schema.migrations.*) и применяет новые скрипты из
+     * db/migration до создания фабрики менеджера сущностей. Скрипты выполняются в основной базе.
+     *
+     * @return Компонент миграций схемы.
+     */
+    @Bean(initMethod = "migrate")
+    public SchemaMigrator schemaMigrator() {
+        // вне транзакции источник данных выдает соединения основной базы
+        return new SchemaMigrator(routingDataSource(),
+                env.getProperty("schema.migrations.location", "db/migration"),
+                env.getProperty("schema.migrations.enabled", Boolean.class, true));
+    }
+
+    /**
+     * Создает компонент обслуживания секций журнала выдач (loan_history.*): секции создаются при запуске
+     * после миграций схемы и затем раз в loan_history.maintenance_interval_hours часов.
+     *
+     * @return Компонент обслуживания секций журнала выдач.
+     */
+    @Bean(initMethod = "start", destroyMethod = "close")
+    @DependsOn("schemaMigrator")
+    public LoanHistoryPartitions loanHistoryPartitions() {
+        return new LoanHistoryPartitions(routingDataSource(),
+                env.getProperty("loan_history.partitions_ahead", Integer.class, 3),
+                env.getProperty("loan_history.retention_months", Integer.class, 24),
+                env.getProperty("loan_history.maintenance_interval_hours", Long.class, 24L));
+    }
+
     /**
      * Создает и настраивает фабрику менеджера сущностей для работы с базой данных.
      *
      * @return Фабрика менеджера сущностей, настроенная для использования указанного источника данных и сканирования пакета "ru.ruba.models".
      */
     @Bean
+    @DependsOn("schemaMigrator")
     public LocalContainerEntityManagerFactoryBean entityManagerFactory() {
         final LocalContainerEntityManagerFactoryBean em = new LocalContainerEntityManagerFactoryBean();
         em.setDataSource(dataSource());
@@ -102,6 +351,7 @@ public class SpringConfig implements WebMvcConfigurer {
 
         final HibernateJpaVendorAdapter vendorAdapter = new HibernateJpaVendorAdapter();
         em.setJpaVendorAdapter(vendorAdapter);
+        em.setJpaDialect(new ReplicaCacheModeJpaDialect(routingDataSource()));
         em.setJpaProperties(hibernateProperties());
 
         return em;
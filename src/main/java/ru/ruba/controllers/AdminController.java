@@ -0,0 +1,189 @@
+package ru.ruba.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.ResponseBody;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+import ru.ruba.util.LatencyHistogram;
+import ru.ruba.util.LoanHistoryPartitions;
+import ru.ruba.util.PoolMetricsTrackerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+
+@Controller
+@RequestMapping("/admin")
+public class AdminController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdminController.class);
+
+    private final PoolMetricsTrackerFactory poolMetrics;
+
+    private final BookService bookService;
+
+    private final PeopleService peopleService;
+
+    private final LoanHistoryPartitions loanHistoryPartitions;
+
+    @Autowired
+    public AdminController(PoolMetricsTrackerFactory poolMetrics, BookService bookService, PeopleService peopleService,
+                           LoanHistoryPartitions loanHistoryPartitions) {
+        this.poolMetrics = poolMetrics;
+        this.bookService = bookService;
+        this.peopleService = peopleService;
+        this.loanHistoryPartitions = loanHistoryPartitions;
+    }
+
+    /**
+     * Обработчик GET-запроса для получения текущего состояния пулов соединений.
+     *
+     * @return Текстовый отчет: активные, простаивающие и ожидающие соединения, а также время получения соединения.
+     */
+    @GetMapping(value = "/pool", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String pool() {
+        logger.info("Метод pool() вызван");
+        StringBuilder report = new StringBuilder();
+        for (PoolMetricsTrackerFactory.PoolMetrics pool : poolMetrics.getPools()) {
+            LatencyHistogram acquire = pool.getAcquireTime();
+            report.append(String.format(Locale.ROOT,
+                    "pool=%s active=%d idle=%d total=%d max=%d pending=%d timeouts=%d%n",
+                    pool.getPoolName(), pool.getActiveConnections(), pool.getIdleConnections(),
+                    pool.getTotalConnections(), pool.getMaxConnections(), pool.getPendingThreads(),
+                    pool.getTimeouts()));
+            report.append(String.format(Locale.ROOT,
+                    "  acquire: count=%d p50=%.3fms p99=%.3fms p999=%.3fms%n",
+                    acquire.getCount(), acquire.estimateQuantileMillis(0.5),
+                    acquire.estimateQuantileMillis(0.99), acquire.estimateQuantileMillis(0.999)));
+            appendBuckets(report, acquire);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Обработчик GET-запроса для получения статистики кэша второго уровня.
+     *
+     * @return Текстовый отчет о попаданиях и промахах по регионам кэша.
+     */
+    @GetMapping(value = "/cache", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String cache() {
+        logger.info("Метод cache() вызван");
+        return bookService.getCacheStatistics();
+    }
+
+    /**
+     * Обработчик POST-запроса для очистки кэша второго уровня и кэша запросов.
+     *
+     * @return Статистика кэша на момент очистки.
+     */
+    @PostMapping(value = "/cache/evict", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String evictCache() {
+        logger.info("Метод evictCache() вызван");
+        return bookService.clearJpaMetadataCache();
+    }
+
+    /**
+     * Обработчик GET-запроса для получения отчета об индексе названий книг.
+     *
+     * @return Количество записей и оценка занимаемой индексом памяти.
+     */
+    @GetMapping(value = "/title-index", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String titleIndex() {
+        logger.info("Метод titleIndex() вызван");
+        return bookService.getTitleIndexReport();
+    }
+
+    /**
+     * Обработчик POST-запроса для перестройки индекса названий книг по данным из базы.
+     *
+     * @return Отчет о размере перестроенного индекса.
+     */
+    @PostMapping(value = "/title-index/rebuild", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String rebuildTitleIndex() {
+        logger.info("Метод rebuildTitleIndex() вызван");
+        return bookService.rebuildTitleIndex();
+    }
+
+    /**
+     * Обработчик GET-запроса для получения отчета о фильтре ФИО читателей.
+     *
+     * @return Емкость, количество ФИО и расчетная доля ложноположительных ответов фильтра.
+     */
+    @GetMapping(value = "/fio-filter", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String fioFilter() {
+        logger.info("Метод fioFilter() вызван");
+        return peopleService.getFioFilterReport();
+    }
+
+    /**
+     * Обработчик POST-запроса для перестройки фильтра ФИО по данным из базы.
+     *
+     * @return Отчет о перестроенном фильтре.
+     */
+    @PostMapping(value = "/fio-filter/rebuild", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String rebuildFioFilter() {
+        logger.info("Метод rebuildFioFilter() вызван");
+        return peopleService.rebuildFioFilter();
+    }
+
+    /**
+     * Обработчик POST-запроса для удаления неактивных читателей порциями в отдельных транзакциях.
+     *
+     * @param inactiveDays Сколько дней читатель без книг на руках не должен изменяться, брать и возвращать книги
+     *                     (по умолчанию 365).
+     * @return Количество удаленных читателей, порций и время удаления.
+     */
+    @PostMapping(value = "/people/delete-inactive", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String deleteInactivePeople(@RequestParam(value = "inactive_days", defaultValue = "365") int inactiveDays) {
+        logger.info("Метод deleteInactivePeople() вызван с параметром inactiveDays = {}", inactiveDays);
+        return peopleService.deleteInactivePeople(inactiveDays);
+    }
+
+    /**
+     * Обработчик GET-запроса для получения отчета о секциях журнала выдач.
+     *
+     * @return Секции журнала с оценкой количества строк.
+     */
+    @GetMapping(value = "/loan-history", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String loanHistory() {
+        logger.info("Метод loanHistory() вызван");
+        return loanHistoryPartitions.getReport();
+    }
+
+    /**
+     * Обработчик POST-запроса для внепланового обслуживания секций журнала выдач: создания секций на следующие
+     * месяцы и отсоединения секций старше срока хранения.
+     *
+     * @return Созданные и отсоединенные секции.
+     */
+    @PostMapping(value = "/loan-history/maintain", produces = MediaType.TEXT_PLAIN_VALUE)
+    @ResponseBody
+    public String maintainLoanHistory() {
+        logger.info("Метод maintainLoanHistory() вызван");
+        return loanHistoryPartitions.maintain();
+    }
+
+    private void appendBuckets(StringBuilder report, LatencyHistogram histogram) {
+        double[] bounds = LatencyHistogram.getBucketBoundsSeconds();
+        long[] counts = histogram.getCumulativeCounts();
+        report.append("  buckets(le, cumulative):");
+        for (int i = 0; i < bounds.length; i++)
+            report.append(String.format(Locale.ROOT, " %ss=%d", bounds[i], counts[i]));
+        report.append(" +Inf=").append(counts[counts.length - 1]).append(System.lineSeparator());
+    }
+}
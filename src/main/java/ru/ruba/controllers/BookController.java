@@ -1,18 +1,40 @@
 package ru.ruba.controllers;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import org.springframework.web.servlet.View;
+import org.springframework.web.servlet.mvc.support.RedirectAttributes;
+import org.thymeleaf.spring6.view.ThymeleafViewResolver;
+import ru.ruba.dto.BookLoanCountView;
+import ru.ruba.dto.BookView;
+import ru.ruba.dto.LoanHistoryPage;
+import ru.ruba.dto.OverdueBookView;
+import ru.ruba.dto.ResourceVersion;
 import ru.ruba.models.Book;
 import ru.ruba.models.Person;
 import ru.ruba.services.BookService;
-import ru.ruba.services.PeopleService;
+import ru.ruba.services.LoanHistoryService;
+import ru.ruba.util.FragmentCache;
+import ru.ruba.util.HttpCaching;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
 @Controller
 @RequestMapping("/book")
 public class BookController {
@@ -21,59 +43,182 @@ public class BookController {
 
     private final BookService bookService;
 
-    private final PeopleService peopleService;
+    private final ThymeleafViewResolver thymeleafViewResolver;
+
+    private final FragmentCache fragmentCache;
+
+    private final LoanHistoryService loanHistoryService;
 
 
     @Autowired
-    public BookController(BookService bookService, PeopleService peopleService) {
+    public BookController(BookService bookService, ThymeleafViewResolver thymeleafViewResolver,
+                          FragmentCache fragmentCache, LoanHistoryService loanHistoryService) {
         this.bookService = bookService;
-        this.peopleService = peopleService;
+        this.thymeleafViewResolver = thymeleafViewResolver;
+        this.fragmentCache = fragmentCache;
+        this.loanHistoryService = loanHistoryService;
     }
 
     /**
      * Обработчик GET-запроса для отображения списка книг с пагинацией и сортировкой.
+     * Если у клиента актуальная версия списка (If-None-Match), отвечает 304 без загрузки книг и отрисовки.
      *
      * @param model        Модель Spring, используемая для передачи данных в представление.
      * @param page         Номер страницы (необязательный параметр) для пагинации списка книг.
      * @param booksPerPage Количество книг на странице (необязательный параметр) для пагинации списка книг.
      * @param sortByYear   Флаг для указания сортировки списка книг по году (true - сортировать, false - не сортировать).
-     * @return Имя представления для отображения списка книг.
+     * @param afterId      Идентификатор последней книги предыдущей страницы (необязательный параметр).
+     *                     Вместе с books_per_page включает keyset-пагинацию; 0 - первая страница.
+     * @param afterYear    Год последней книги предыдущей страницы при keyset-пагинации с сортировкой по году
+     *                     (необязательный параметр).
+     * @param webRequest   Текущий запрос для проверки If-None-Match.
+     * @return Имя представления для отображения списка книг или null, если весь список уже отрисован потоково
+     *         или клиенту отправлен ответ 304.
      */
     @GetMapping()
     public String index(Model model,
                         @RequestParam(value = "page", required = false) Integer page,
                         @RequestParam(value = "books_per_page", required = false) Integer booksPerPage,
-                        @RequestParam(value = "sort_by_year", required = false) boolean sortByYear) {
-        logger.info("Метод index() вызван с параметрами: page = {}, booksPerPage = {}, sortByYear = {}", page, booksPerPage, sortByYear);
-        if(page==null || booksPerPage==null) {
-            model.addAttribute("books", bookService.findAllBooks(sortByYear));
+                        @RequestParam(value = "sort_by_year", required = false) boolean sortByYear,
+                        @RequestParam(value = "after_id", required = false) Integer afterId,
+                        @RequestParam(value = "after_year", required = false) Integer afterYear,
+                        HttpServletRequest request, HttpServletResponse response, Locale locale,
+                        ServletWebRequest webRequest) throws Exception {
+        logger.info("Метод index() вызван с параметрами: page = {}, booksPerPage = {}, sortByYear = {}, afterId = {}, afterYear = {}",
+                page, booksPerPage, sortByYear, afterId, afterYear);
+        if(afterId != null && booksPerPage != null) {
+            ResourceVersion version = bookService.getKeysetVersion(afterId, afterYear, booksPerPage, sortByYear);
+            if(HttpCaching.checkNotModified(webRequest, version))
+                return null;
+            model.addAttribute("rows", fragmentCache.render(request, response, "book/rows",
+                    "after_id=" + afterId + "&after_year=" + afterYear + "&books_per_page=" + booksPerPage + "&sort_by_year=" + sortByYear
+                            + "&etag=" + version.getEtag(),
+                    () -> findKeysetRows(afterId, afterYear, booksPerPage, sortByYear)));
+        }
+        else if(page==null || booksPerPage==null) {
+            if(HttpCaching.checkNotModified(webRequest, bookService.getAllBooksVersion()))
+                return null;
+            // весь каталог отрисовывается потоково внутри транзакции чтения
+            View view = thymeleafViewResolver.resolveViewName("book/index", locale);
+            bookService.processAllBooks(sortByYear, books -> {
+                try {
+                    view.render(Map.of("books", books), request, response);
+                } catch (Exception e) {
+                    throw new IllegalStateException("Не удалось отрисовать список книг", e);
+                }
+            });
+            return null;
         }
         else {
-            model.addAttribute("books", bookService.findWithPagination(page, booksPerPage, sortByYear));
+            ResourceVersion version = bookService.getPageVersion(page, booksPerPage, sortByYear);
+            if(HttpCaching.checkNotModified(webRequest, version))
+                return null;
+            model.addAttribute("rows", fragmentCache.render(request, response, "book/rows",
+                    "page=" + page + "&books_per_page=" + booksPerPage + "&sort_by_year=" + sortByYear + "&etag=" + version.getEtag(),
+                    () -> Map.of("books", bookService.findWithPagination(page, booksPerPage, sortByYear))));
         }
         return "book/index";
     }
 
+    private Map<String, Object> findKeysetRows(int afterId, Integer afterYear, int booksPerPage, boolean sortByYear) {
+        Slice<BookView> slice = bookService.findWithKeyset(afterId, afterYear, booksPerPage, sortByYear);
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("books", slice.getContent());
+        if(slice.hasNext()) {
+            BookView last = slice.getContent().get(slice.getNumberOfElements() - 1);
+            variables.put("nextAfterId", last.getId());
+            variables.put("nextAfterYear", sortByYear ? last.getYear() : null);
+            variables.put("booksPerPage", booksPerPage);
+            variables.put("sortByYear", sortByYear);
+        }
+        return variables;
+    }
+
+    /**
+     * Обработчик GET-запроса для отображения отчета о просроченных книгах всех читателей.
+     *
+     * @param model        Модель Spring, используемая для передачи данных в представление.
+     * @param page         Номер страницы отчета (по умолчанию 0).
+     * @param booksPerPage Количество книг на странице отчета (по умолчанию 50).
+     * @return Имя представления для отображения отчета.
+     */
+    @GetMapping("/overdue")
+    public String overdue(Model model,
+                          @RequestParam(value = "page", defaultValue = "0") int page,
+                          @RequestParam(value = "books_per_page", defaultValue = "50") int booksPerPage) {
+        logger.info("Метод overdue() вызван с параметрами: page = {}, booksPerPage = {}", page, booksPerPage);
+        Slice<OverdueBookView> slice = bookService.findOverdueBooks(page, booksPerPage);
+        model.addAttribute("books", slice.getContent());
+        model.addAttribute("page", page);
+        model.addAttribute("booksPerPage", booksPerPage);
+        model.addAttribute("hasNext", slice.hasNext());
+        return "book/overdue";
+    }
+
+    /**
+     * Обработчик GET-запроса для получения отчета о самых востребованных книгах по журналу выдач.
+     *
+     * @param from  Первый день периода в формате ГГГГ-ММ-ДД (необязательный параметр, по умолчанию за месяц до to).
+     * @param to    День после периода (необязательный параметр, по умолчанию завтра).
+     * @param limit Количество книг в отчете (по умолчанию 20, не больше search.max_results).
+     * @return Отчет в формате JSON: [{"bookId": ..., "title": ..., "loans": ...}].
+     */
+    @GetMapping(value = "/most-borrowed", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public List<BookLoanCountView> mostBorrowed(
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate to,
+            @RequestParam(value = "limit", defaultValue = "20") int limit) {
+        logger.info("Метод mostBorrowed() вызван с параметрами: from = {}, to = {}, limit = {}", from, to, limit);
+        return loanHistoryService.findMostBorrowed(from, to, limit);
+    }
+
+    /**
+     * Обработчик GET-запроса для получения истории выдач книги от новых записей к старым.
+     *
+     * @param id       Идентификатор книги.
+     * @param from     Первый день интервала в формате ГГГГ-ММ-ДД (необязательный параметр,
+     *                 по умолчанию loan_history.query_days дней до before).
+     * @param before   Параметр nextBefore предыдущей страницы (необязательный параметр, по умолчанию - текущий момент).
+     * @param beforeId Параметр nextBeforeId предыдущей страницы (необязательный параметр).
+     * @param size     Количество записей на странице (по умолчанию 20, не больше search.max_results).
+     * @return История в формате JSON: {"items": [...], "hasNext": ..., "nextBefore": ..., "nextBeforeId": ...}.
+     */
+    @GetMapping(value = "/{id}/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public LoanHistoryPage history(@PathVariable("id") int id,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "before_id", required = false) Long beforeId,
+            @RequestParam(value = "size", defaultValue = "20") int size) {
+        logger.info("Метод history() вызван с параметрами: id = {}, from = {}, before = {}, beforeId = {}",
+                id, from, before, beforeId);
+        return loanHistoryService.getBookHistory(id, from, before, beforeId, size);
+    }
+
     /**
      * Обработчик GET-запроса для отображения информации о книге с заданным идентификатором.
      *
-     * @param id    Идентификатор книги, информацию о которой необходимо отобразить.
-     * @param model Модель Spring, используемая для передачи данных в представление.
-     * @param person Объект Person, связанный с книгой (необязательный параметр).
-     * @return Имя представления для отображения информации о книге.
+     * Книга и ее читатель загружаются одним запросом; читатель для выдачи свободной книги подбирается на странице
+     * по началу ФИО (GET /people/search). Если у клиента актуальная версия страницы (If-None-Match),
+     * отвечает 304 без загрузки книги и отрисовки.
+     *
+     * @param id         Идентификатор книги, информацию о которой необходимо отобразить.
+     * @param model      Модель Spring, используемая для передачи данных в представление.
+     * @param webRequest Текущий запрос для проверки If-None-Match.
+     * @return Имя представления для отображения информации о книге или null, если клиенту отправлен ответ 304.
      */
     @GetMapping("/{id}")
-    public String show(@PathVariable ("id") int id, Model model,
-                       @ModelAttribute("person") Person person) {
+    public String show(@PathVariable ("id") int id, Model model, ServletWebRequest webRequest) {
         logger.info("Метод show() вызван с параметром id = {}", id);
-        model.addAttribute("book", bookService.findOneBook(id));
-
-        Person bookReader = bookService.getBookReader(id);
-
-        if(bookReader != null)
-            model.addAttribute("reader", bookReader);
-        else
-            model.addAttribute("people", peopleService.findAllPeople());
+        // сообщение о конфликте показывается один раз, поэтому такую страницу нельзя подтверждать как неизмененную
+        ResourceVersion version = model.containsAttribute("conflict") ? null : bookService.getBookPageVersion(id);
+        if(version != null && HttpCaching.checkNotModified(webRequest, version))
+            return null;
+        Book book = bookService.findBookWithReader(id);
+        model.addAttribute("book", book);
+        if(book != null && book.getReader() != null)
+            model.addAttribute("reader", book.getReader());
 
         return "book/show";
     }
@@ -126,20 +271,29 @@ public class BookController {
     /**
      * Обработчик PATCH-запроса для обновления информации о книге.
      *
-     * @param book          Обновленная информация о книге.
-     * @param bindingResult Результаты валидации данных книги.
-     * @param id            Идентификатор книги, которую необходимо обновить.
+     * @param book           Обновленная информация о книге.
+     * @param bindingResult  Результаты валидации данных книги.
+     * @param id             Идентификатор книги, которую необходимо обновить.
+     * @param originalTitle  Название, с которым форма была открыта (скрытое поле формы).
+     * @param originalAuthor Автор, с которым форма была открыта.
+     * @param originalYear   Год, с которым форма была открыта.
      * @return Перенаправление на страницу списка книг после успешного обновления или страницу редактирования в случае ошибок.
      */
     @PatchMapping("/{id}")
     public String update(
             @ModelAttribute("books") @Valid Book book,
-            BindingResult bindingResult, @PathVariable("id") int id) {
+            BindingResult bindingResult, @PathVariable("id") int id,
+            @RequestParam(value = "original_title", required = false) String originalTitle,
+            @RequestParam(value = "original_author", required = false) String originalAuthor,
+            @RequestParam(value = "original_year", required = false) Integer originalYear) {
         logger.info("Метод update() вызван с параметрами: id = {}, book = {}", id, book);
         if (bindingResult.hasErrors())
             return "book/edit";
 
-        bookService.updateBook(id, book);
+        // без исходных значений (старая форма, другой клиент) записываются все поля
+        Book original = originalTitle == null || originalAuthor == null || originalYear == null ? null
+                : new Book(originalTitle, originalAuthor, originalYear);
+        bookService.updateBook(id, original, book);
         return "redirect:/book";
     }
 
@@ -159,13 +313,15 @@ public class BookController {
     /**
      * Обработчик PATCH-запроса для освобождения книги от читателя.
      *
-     * @param id Идентификатор книги, которую необходимо освободить.
-     * @return Перенаправление на страницу книги после успешного освобождения.
+     * @param id                 Идентификатор книги, которую необходимо освободить.
+     * @param redirectAttributes Атрибуты для передачи сообщения о конфликте на страницу книги.
+     * @return Перенаправление на страницу книги.
      */
     @PatchMapping("/{id}/release")
-    public String release(@PathVariable("id") int id) {
+    public String release(@PathVariable("id") int id, RedirectAttributes redirectAttributes) {
         logger.info("Метод release() вызван с параметром id = {}", id);
-        bookService.release(id);
+        if (!bookService.release(id))
+            redirectAttributes.addFlashAttribute("conflict", "Книга уже была освобождена");
         return "redirect:/book/" + id;
     }
 
@@ -175,13 +331,16 @@ public class BookController {
      * @param id             Идентификатор книги, которую необходимо назначить читателю.
      * @param selectedPerson Объект Person, представляющий выбранного читателя для назначения книги.
      *                       Может содержать только поле id, остальные поля - null.
-     * @return Перенаправление на страницу книги после успешного назначения.
+     * @param redirectAttributes Атрибуты для передачи сообщения о конфликте на страницу книги.
+     * @return Перенаправление на страницу книги.
      */
     @PatchMapping("/{id}/assign")
-    public String assign(@PathVariable("id") int id, @ModelAttribute("person") Person selectedPerson) {
+    public String assign(@PathVariable("id") int id, @ModelAttribute("person") Person selectedPerson,
+                         RedirectAttributes redirectAttributes) {
         logger.info("Метод assign() вызван с параметрами: id = {}, selectedPerson = {}", id, selectedPerson);
         // у selectedPerson назначено только поле id, остальные поля - null
-        bookService.assign(id, selectedPerson);
+        if (!bookService.assign(id, selectedPerson))
+            redirectAttributes.addFlashAttribute("conflict", "Книга уже выдана другому читателю");
         return "redirect:/book/" + id;
     }
 
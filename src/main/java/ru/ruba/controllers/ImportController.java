@@ -0,0 +1,79 @@
+package ru.ruba.controllers;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.multipart.MultipartFile;
+import ru.ruba.dto.ImportReport;
+import ru.ruba.services.ImportService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+@Controller
+@RequestMapping("/import")
+public class ImportController {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportController.class);
+
+    private final ImportService importService;
+
+    @Autowired
+    public ImportController(ImportService importService) {
+        this.importService = importService;
+    }
+
+    /**
+     * Обработчик GET-запроса для отображения формы загрузки файла импорта.
+     *
+     * @return Имя представления с формой загрузки.
+     */
+    @GetMapping()
+    public String importPage() {
+        logger.info("Метод importPage() вызван");
+        return "import/index";
+    }
+
+    /**
+     * Обработчик POST-запроса для массового импорта книг или читателей из CSV- или JSON-файла.
+     * Формат определяется по расширению файла (.json - JSON, иначе CSV).
+     *
+     * @param model Модель Spring, используемая для передачи отчета в представление.
+     * @param file  Загружаемый файл.
+     * @param type  Что импортируется: books - книги, people - читатели; другое значение отклоняется
+     *              ответом 400 с формой загрузки.
+     * @return Имя представления с отчетом об импорте.
+     * @throws IOException Если не удалось прочитать файл.
+     */
+    @PostMapping()
+    public String makeImport(Model model, @RequestParam("file") MultipartFile file,
+                             @RequestParam(value = "type", defaultValue = "books") String type,
+                             HttpServletResponse response) throws IOException {
+        logger.info("Метод makeImport() вызван с параметрами: file = {}, size = {}, type = {}",
+                file.getOriginalFilename(), file.getSize(), type);
+        if (!"books".equals(type) && !"people".equals(type)) {
+            logger.warn("Отклонен импорт неизвестного типа {}", type);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            model.addAttribute("error", "Неизвестный тип импорта: " + type + " (ожидается books или people)");
+            return "import/index";
+        }
+        String fileName = file.getOriginalFilename();
+        boolean json = fileName != null && fileName.toLowerCase(Locale.ROOT).endsWith(".json");
+
+        ImportReport report;
+        try (InputStream input = file.getInputStream()) {
+            report = "people".equals(type) ? importService.importPeople(input, json) : importService.importBooks(input, json);
+        }
+        model.addAttribute("report", report);
+        model.addAttribute("type", type);
+        return "import/report";
+    }
+}
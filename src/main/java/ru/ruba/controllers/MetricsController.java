@@ -0,0 +1,30 @@
+package ru.ruba.controllers;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import ru.ruba.services.MetricsService;
+
+@Controller
+public class MetricsController {
+
+    private final MetricsService metricsService;
+
+    @Autowired
+    public MetricsController(MetricsService metricsService) {
+        this.metricsService = metricsService;
+    }
+
+    /**
+     * Обработчик GET-запроса Prometheus для получения метрик приложения.
+     * Вызов не журналируется, так как выполняется по расписанию каждые несколько секунд.
+     *
+     * @return Метрики в текстовом формате Prometheus.
+     */
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        return metricsService.scrape();
+    }
+}
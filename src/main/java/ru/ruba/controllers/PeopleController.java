@@ -1,17 +1,37 @@
 package ru.ruba.controllers;
 
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Slice;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.ruba.dto.LoanHistoryPage;
+import ru.ruba.dto.PersonListView;
+import ru.ruba.dto.ReaderSuggestions;
+import ru.ruba.dto.ResourceVersion;
 import ru.ruba.models.Person;
+import ru.ruba.services.BookService;
+import ru.ruba.services.LoanHistoryService;
 import ru.ruba.services.PeopleService;
+import ru.ruba.util.FragmentCache;
+import ru.ruba.util.HttpCaching;
 import ru.ruba.util.PersonValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
 @Controller
 @RequestMapping("/people")
 public class PeopleController {
@@ -19,24 +39,54 @@ public class PeopleController {
     private static final Logger logger = LoggerFactory.getLogger(PeopleController.class);
     private final PeopleService peopleService;
     private final PersonValidator personValidator;
+    private final BookService bookService;
+    private final FragmentCache fragmentCache;
+    private final LoanHistoryService loanHistoryService;
+    private final int maxBatchSize;
 
     @Autowired
-    public PeopleController(PeopleService peopleService, PersonValidator personValidator) {
+    public PeopleController(PeopleService peopleService, PersonValidator personValidator, BookService bookService,
+                            FragmentCache fragmentCache, LoanHistoryService loanHistoryService,
+                            @Value("${library.loans.max_batch_size:100}") int maxBatchSize) {
         this.peopleService = peopleService;
 
         this.personValidator = personValidator;
+        this.bookService = bookService;
+        this.fragmentCache = fragmentCache;
+        this.loanHistoryService = loanHistoryService;
+        this.maxBatchSize = maxBatchSize;
     }
 
     /**
-     * Обработчик GET-запроса для отображения главной страницы со списком людей.
+     * Обработчик GET-запроса для отображения списка людей порциями (keyset-пагинация) с количеством выданных книг.
      *
-     * @param model Объект модели, используемый для передачи данных в представление.
+     * @param model         Объект модели, используемый для передачи данных в представление.
+     * @param query         Начало ФИО или email для поиска без учета регистра (необязательный параметр).
+     * @param afterId       Идентификатор последнего человека предыдущей порции (по умолчанию 0 - первая порция).
+     * @param afterFio      ФИО последнего человека предыдущей порции при сортировке по ФИО (необязательный параметр).
+     * @param peoplePerPage Количество людей в порции (по умолчанию 50).
+     * @param sortById      Флаг сортировки по id вместо ФИО.
      * @return Имя представления (шаблона), которое будет отображаться.
      */
     @GetMapping()
-    public String index(Model model) {
-        logger.info("Вызван метод index()");
-        model.addAttribute("people", peopleService.findAllPeople());
+    public String index(Model model,
+                        @RequestParam(value = "query", required = false) String query,
+                        @RequestParam(value = "after_id", defaultValue = "0") int afterId,
+                        @RequestParam(value = "after_fio", required = false) String afterFio,
+                        @RequestParam(value = "people_per_page", defaultValue = "50") int peoplePerPage,
+                        @RequestParam(value = "sort_by_id", required = false) boolean sortById) {
+        logger.info("Вызван метод index() с query = {}, afterId = {}, afterFio = {}, peoplePerPage = {}, sortById = {}",
+                query, afterId, afterFio, peoplePerPage, sortById);
+        Slice<PersonListView> slice = peopleService.findPeople(query, afterFio, afterId, peoplePerPage, sortById);
+        model.addAttribute("people", slice.getContent());
+        model.addAttribute("query", query);
+        model.addAttribute("peoplePerPage", peoplePerPage);
+        model.addAttribute("sortById", sortById);
+        if (slice.hasNext()) {
+            PersonListView last = slice.getContent().get(slice.getNumberOfElements() - 1);
+            model.addAttribute("nextAfterId", last.getId());
+            model.addAttribute("nextAfterFio", sortById ? null : last.getFio());
+        }
 
         return "people/index";
     }
@@ -44,19 +94,72 @@ public class PeopleController {
     /**
      * Обработчик GET-запроса для отображения информации о конкретном человеке по его идентификатору.
      *
-     * @param id    Идентификатор человека.
-     * @param model Объект модели, используемый для передачи данных в представление.
-     * @return Имя представления (шаблона), которое будет отображаться.
+     * Таблица книг человека берется из кэша фрагментов. Если у клиента актуальная версия страницы
+     * (If-None-Match), отвечает 304 без загрузки человека и отрисовки.
+     *
+     * @param id         Идентификатор человека.
+     * @param model      Объект модели, используемый для передачи данных в представление.
+     * @param request    Текущий запрос.
+     * @param response   Текущий ответ.
+     * @param webRequest Текущий запрос для проверки If-None-Match.
+     * @return Имя представления (шаблона), которое будет отображаться, или null, если клиенту отправлен ответ 304.
      */
     @GetMapping({"/{id}"})
-    public String show(@PathVariable("id") int id, Model model) {
+    public String show(@PathVariable("id") int id, Model model,
+                       HttpServletRequest request, HttpServletResponse response, ServletWebRequest webRequest) {
         logger.info("Вызван метод show() с id = {}", id);
+        ResourceVersion version = peopleService.getPersonPageVersion(id);
+        if (version != null && HttpCaching.checkNotModified(webRequest, version))
+            return null;
         model.addAttribute("person", peopleService.findOnePerson(id));
-        model.addAttribute("books", peopleService.getBooksByPersonId(id));
+        // версия страницы учитывает и количество просроченных книг, поэтому таблица с прежним выделением
+        // просрочки не будет взята из кэша
+        model.addAttribute("booksTable", fragmentCache.render(request, response, "people/books",
+                "id=" + id + "&etag=" + (version == null ? null : version.getEtag()),
+                () -> Map.of("personId", id, "books", peopleService.getBooksByPersonId(id))));
 
         return "people/show";
     }
 
+    /**
+     * Обработчик GET-запроса подсказок при выборе читателя: страница людей, ФИО которых начинается с query.
+     *
+     * @param query Начало ФИО (без учета регистра).
+     * @param page  Номер страницы подсказок (по умолчанию 0).
+     * @param size  Количество подсказок на странице (по умолчанию 20, не больше search.max_results).
+     * @return Подсказки в формате JSON: {"items": [{"id": ..., "fio": ...}], "hasNext": ...}.
+     */
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public ReaderSuggestions search(@RequestParam("query") String query,
+                                    @RequestParam(value = "page", defaultValue = "0") int page,
+                                    @RequestParam(value = "size", defaultValue = "20") int size) {
+        logger.info("Вызван метод search() с query = {}, page = {}, size = {}", query, page, size);
+        return peopleService.suggestReaders(query, page, size);
+    }
+
+    /**
+     * Обработчик GET-запроса для получения истории выдач читателя от новых записей к старым.
+     *
+     * @param id       Идентификатор читателя.
+     * @param from     Первый день интервала в формате ГГГГ-ММ-ДД (необязательный параметр,
+     *                 по умолчанию loan_history.query_days дней до before).
+     * @param before   Параметр nextBefore предыдущей страницы (необязательный параметр, по умолчанию - текущий момент).
+     * @param beforeId Параметр nextBeforeId предыдущей страницы (необязательный параметр).
+     * @param size     Количество записей на странице (по умолчанию 20, не больше search.max_results).
+     * @return История в формате JSON: {"items": [...], "hasNext": ..., "nextBefore": ..., "nextBeforeId": ...}.
+     */
+    @GetMapping(value = "/{id}/history", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ResponseBody
+    public LoanHistoryPage history(@PathVariable("id") int id,
+            @RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) LocalDate from,
+            @RequestParam(value = "before", required = false) Long before,
+            @RequestParam(value = "before_id", required = false) Long beforeId,
+            @RequestParam(value = "size", defaultValue = "20") int size) {
+        logger.info("Вызван метод history() с id = {}, from = {}, before = {}, beforeId = {}", id, from, before, beforeId);
+        return loanHistoryService.getPersonHistory(id, from, before, beforeId, size);
+    }
+
     /**
      * Обработчик GET-запроса для создания новой записи о человеке.
      *
@@ -84,7 +187,13 @@ public class PeopleController {
             return "people/new";
         }
 
-        peopleService.savePerson(person);
+        try {
+            peopleService.savePerson(person);
+        } catch (DataIntegrityViolationException e) {
+            // ФИО заняли одновременно с этой регистрацией, уникальный индекс не дал создать дубликат
+            bindingResult.rejectValue("fio", "", "Человек с таким ФИО уже существует");
+            return "people/new";
+        }
         return "redirect:/people";
     }
 
@@ -105,20 +214,34 @@ public class PeopleController {
     /**
      * Обработчик PATCH-запроса для обновления данных о человеке по его идентификатору.
      *
-     * @param person         Объект Person с обновленными данными о человеке.
-     * @param bindingResult  Результат валидации данных в объекте Person.
-     * @param id             Идентификатор человека, данные которого нужно обновить.
+     * @param person              Объект Person с обновленными данными о человеке.
+     * @param bindingResult       Результат валидации данных в объекте Person.
+     * @param id                  Идентификатор человека, данные которого нужно обновить.
+     * @param originalFio         ФИО, с которым форма была открыта (скрытое поле формы).
+     * @param originalYearOfBirth Год рождения, с которым форма была открыта.
+     * @param originalEmail       Email, с которым форма была открыта.
      * @return Имя представления или URL-адрес для перенаправления после обновления данных.
      */
     @PatchMapping("/{id}")
     public String update(
             @ModelAttribute("person") @Valid Person person,
-            BindingResult bindingResult, @PathVariable("id") int id) {
+            BindingResult bindingResult, @PathVariable("id") int id,
+            @RequestParam(value = "original_fio", required = false) String originalFio,
+            @RequestParam(value = "original_year_of_birth", required = false) Integer originalYearOfBirth,
+            @RequestParam(value = "original_email", required = false) String originalEmail) {
         logger.info("Вызван метод update() с id = {} и объектом Person: {}", id, person);
         if (bindingResult.hasErrors())
             return "people/edit";
 
-        peopleService.updatePerson(id, person);
+        // без исходных значений (старая форма, другой клиент) записываются все поля
+        Person original = originalFio == null || originalYearOfBirth == null || originalEmail == null ? null
+                : new Person(originalFio, originalYearOfBirth, originalEmail);
+        try {
+            peopleService.updatePerson(id, original, person);
+        } catch (DataIntegrityViolationException e) {
+            bindingResult.rejectValue("fio", "", "Человек с таким ФИО уже существует");
+            return "people/edit";
+        }
         return "redirect:/people";
     }
 
@@ -128,11 +251,78 @@ public class PeopleController {
      * @param id Идентификатор человека, которого нужно удалить.
      * @return Имя представления или URL-адрес для перенаправления после удаления человека.
      */
-    @DeleteMapping
+    @DeleteMapping("/{id}")
     public String delete(@PathVariable ("id") int id){
         logger.info("Вызван метод delete() с id = {}", id);
         peopleService.deletePerson(id);
         return "redirect:/people";
     }
 
+    /**
+     * Обработчик PATCH-запроса для выдачи человеку сразу нескольких книг в одной транзакции.
+     *
+     * @param id      Идентификатор человека.
+     * @param bookIds  Идентификаторы выдаваемых книг (список или строка через запятую, не больше
+     *                 library.loans.max_batch_size).
+     * @param model    Модель для передачи результата выдачи в представление.
+     * @param response Ответ: код 400, если книг больше допустимого.
+     * @return Страница с результатом выдачи по каждой книге.
+     */
+    @PatchMapping("/{id}/assign")
+    public String assignBooks(@PathVariable("id") int id,
+                              @RequestParam(value = "book_ids", required = false) List<Integer> bookIds, Model model,
+                              HttpServletResponse response) {
+        logger.info("Вызван метод assignBooks() с id = {} и bookIds = {}", id, bookIds);
+        Person person = peopleService.findOnePerson(id);
+        if (person == null || bookIds == null)
+            return "redirect:/people/" + id;
+
+        model.addAttribute("person", person);
+        if (tooManyBooks(bookIds, model, response))
+            return "people/loans";
+        model.addAttribute("results", bookService.assignAll(bookIds, person));
+        return "people/loans";
+    }
+
+    /**
+     * Обработчик PATCH-запроса для возврата сразу нескольких книг человека в одной транзакции.
+     *
+     * @param id      Идентификатор человека.
+     * @param bookIds  Идентификаторы возвращаемых книг (список или строка через запятую, не больше
+     *                 library.loans.max_batch_size).
+     * @param model    Модель для передачи результата возврата в представление.
+     * @param response Ответ: код 400, если книг больше допустимого.
+     * @return Страница с результатом возврата по каждой книге.
+     */
+    @PatchMapping("/{id}/release")
+    public String releaseBooks(@PathVariable("id") int id,
+                               @RequestParam(value = "book_ids", required = false) List<Integer> bookIds, Model model,
+                               HttpServletResponse response) {
+        logger.info("Вызван метод releaseBooks() с id = {} и bookIds = {}", id, bookIds);
+        Person person = peopleService.findOnePerson(id);
+        if (person == null || bookIds == null)
+            return "redirect:/people/" + id;
+
+        model.addAttribute("person", person);
+        if (tooManyBooks(bookIds, model, response))
+            return "people/loans";
+        model.addAttribute("results", bookService.releaseAll(bookIds, id));
+        return "people/loans";
+    }
+
+    /**
+     * Отклоняет массовую выдачу или возврат, если книг больше library.loans.max_batch_size: все книги
+     * блокируются в одной транзакции, и слишком длинный список надолго задержал бы другие выдачи.
+     *
+     * @return true, если запрос отклонен, а сообщение об ошибке добавлено в модель.
+     */
+    private boolean tooManyBooks(List<Integer> bookIds, Model model, HttpServletResponse response) {
+        if (bookIds.size() <= maxBatchSize)
+            return false;
+        logger.warn("Отклонена массовая операция над {} книгами, допустимо не больше {}", bookIds.size(), maxBatchSize);
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        model.addAttribute("error", "За один раз можно выдать или вернуть не больше " + maxBatchSize + " книг");
+        model.addAttribute("results", Map.of());
+        return true;
+    }
 }
@@ -0,0 +1,15 @@
+package ru.ruba.dto;
+
+import java.util.Date;
+
+/**
+ * Проекция текущего держателя книги: идентификатор читателя (null, если книга свободна) и дата выдачи.
+ */
+public interface BookHolderView {
+
+    int getId();
+
+    Integer getReaderId();
+
+    Date getTakenAt();
+}
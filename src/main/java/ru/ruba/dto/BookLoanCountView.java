@@ -0,0 +1,13 @@
+package ru.ruba.dto;
+
+/**
+ * Проекция строки отчета о самых востребованных книгах: книга и количество выдач за период.
+ */
+public interface BookLoanCountView {
+
+    int getBookId();
+
+    String getTitle();
+
+    long getLoans();
+}
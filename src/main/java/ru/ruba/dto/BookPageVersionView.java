@@ -0,0 +1,19 @@
+package ru.ruba.dto;
+
+import java.util.Date;
+
+/**
+ * Версии всего, что выводится на странице книги: самой книги и ее читателя.
+ */
+public interface BookPageVersionView {
+
+    int getVersion();
+
+    Date getUpdatedAt();
+
+    Integer getReaderId();
+
+    Integer getReaderVersion();
+
+    Date getReaderUpdatedAt();
+}
@@ -0,0 +1,12 @@
+package ru.ruba.dto;
+
+/**
+ * Проекция книги для страницы поиска: поля книги и ФИО текущего читателя, полученные одним запросом.
+ */
+public interface BookSearchView extends BookView {
+
+    /**
+     * @return ФИО читателя, у которого находится книга, или null, если книга свободна.
+     */
+    String getReaderFio();
+}
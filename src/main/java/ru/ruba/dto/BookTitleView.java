@@ -0,0 +1,11 @@
+package ru.ruba.dto;
+
+/**
+ * Проекция книги для построения индекса названий: только идентификатор и название.
+ */
+public interface BookTitleView {
+
+    int getId();
+
+    String getTitle();
+}
@@ -0,0 +1,15 @@
+package ru.ruba.dto;
+
+import java.util.Date;
+
+/**
+ * Проекция версии книги для вычисления ETag страницы списка: без названия, автора и читателя.
+ */
+public interface BookVersionView {
+
+    int getId();
+
+    int getVersion();
+
+    Date getUpdatedAt();
+}
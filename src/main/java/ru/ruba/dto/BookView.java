@@ -0,0 +1,16 @@
+package ru.ruba.dto;
+
+/**
+ * Проекция книги для списков: только те поля, которые выводятся на странице,
+ * без загрузки сущности и её читателя.
+ */
+public interface BookView {
+
+    int getId();
+
+    String getTitle();
+
+    String getAuthor();
+
+    int getYear();
+}
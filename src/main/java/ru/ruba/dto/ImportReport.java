@@ -0,0 +1,96 @@
+package ru.ruba.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Результат массового импорта: количество прочитанных и сохраненных строк, ошибки по строкам и скорость импорта.
+ */
+public class ImportReport {
+
+    /**
+     * Ошибки хранятся не для всех строк, чтобы отчет по файлу с массовыми ошибками не занимал много памяти.
+     */
+    public static final int MAX_REPORTED_ERRORS = 1000;
+
+    private final List<RowError> errors = new ArrayList<>();
+
+    private int rowsRead;
+
+    private int rowsImported;
+
+    private int errorCount;
+
+    private long elapsedMillis;
+
+    public void rowRead() {
+        rowsRead++;
+    }
+
+    public void rowImported() {
+        rowsImported++;
+    }
+
+    /**
+     * Регистрирует ошибку в строке файла.
+     *
+     * @param row     Номер строки (для CSV - номер строки файла, для JSON - порядковый номер объекта).
+     * @param message Описание ошибки.
+     */
+    public void addError(int row, String message) {
+        errorCount++;
+        if (errors.size() < MAX_REPORTED_ERRORS)
+            errors.add(new RowError(row, message));
+    }
+
+    public List<RowError> getErrors() {
+        return errors;
+    }
+
+    public int getRowsRead() {
+        return rowsRead;
+    }
+
+    public int getRowsImported() {
+        return rowsImported;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    public void setElapsedMillis(long elapsedMillis) {
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return Количество сохраненных строк в секунду.
+     */
+    public long getRowsPerSecond() {
+        return elapsedMillis == 0 ? rowsImported : rowsImported * 1000L / elapsedMillis;
+    }
+
+    public static class RowError {
+
+        private final int row;
+
+        private final String message;
+
+        public RowError(int row, String message) {
+            this.row = row;
+            this.message = message;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package ru.ruba.dto;
+
+import ru.ruba.models.LoanEvent;
+
+import java.util.Date;
+
+/**
+ * Проекция записи журнала выдач с названием книги и ФИО читателя (null, если книга или читатель удалены).
+ */
+public interface LoanEventView {
+
+    long getId();
+
+    int getBookId();
+
+    String getTitle();
+
+    int getPersonId();
+
+    String getFio();
+
+    LoanEvent.Type getType();
+
+    Date getEventAt();
+}
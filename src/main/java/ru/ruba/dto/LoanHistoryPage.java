@@ -0,0 +1,43 @@
+package ru.ruba.dto;
+
+import java.util.List;
+
+/**
+ * Страница журнала выдач книги или читателя, от новых записей к старым (ответ в формате JSON).
+ */
+public class LoanHistoryPage {
+
+    private final List<LoanEventView> items;
+
+    private final boolean hasNext;
+
+    public LoanHistoryPage(List<LoanEventView> items, boolean hasNext) {
+        this.items = items;
+        this.hasNext = hasNext;
+    }
+
+    public List<LoanEventView> getItems() {
+        return items;
+    }
+
+    /**
+     * @return true, если есть следующая страница.
+     */
+    public boolean isHasNext() {
+        return hasNext;
+    }
+
+    /**
+     * @return Время последней записи страницы (мс) - параметр before для следующей страницы, или null.
+     */
+    public Long getNextBefore() {
+        return hasNext ? items.get(items.size() - 1).getEventAt().getTime() : null;
+    }
+
+    /**
+     * @return Идентификатор последней записи страницы - параметр before_id для следующей страницы, или null.
+     */
+    public Long getNextBeforeId() {
+        return hasNext ? items.get(items.size() - 1).getId() : null;
+    }
+}
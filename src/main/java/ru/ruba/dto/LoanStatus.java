@@ -0,0 +1,23 @@
+package ru.ruba.dto;
+
+/**
+ * Результат выдачи или возврата одной книги при массовой операции.
+ */
+public enum LoanStatus {
+
+    ASSIGNED("Выдана"),
+    RELEASED("Возвращена"),
+    ALREADY_TAKEN("Уже выдана"),
+    NOT_HELD("Не у этого читателя"),
+    MISSING("Не найдена");
+
+    private final String description;
+
+    LoanStatus(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,13 @@
+package ru.ruba.dto;
+
+import java.util.Date;
+
+/**
+ * Проекция книги, выданной читателю: поля книги, дата выдачи и признак просрочки, вычисленный в запросе.
+ */
+public interface LoanedBookView extends BookView {
+
+    Date getTakenAt();
+
+    boolean isExpired();
+}
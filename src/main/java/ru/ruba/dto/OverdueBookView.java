@@ -0,0 +1,15 @@
+package ru.ruba.dto;
+
+import java.util.Date;
+
+/**
+ * Проекция просроченной книги для отчета: поля книги, дата выдачи и читатель.
+ */
+public interface OverdueBookView extends BookView {
+
+    Date getTakenAt();
+
+    int getReaderId();
+
+    String getReaderFio();
+}
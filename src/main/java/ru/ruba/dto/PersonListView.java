@@ -0,0 +1,18 @@
+package ru.ruba.dto;
+
+/**
+ * Проекция человека для списка людей: выводимые поля и количество выданных ему книг,
+ * подсчитанное в том же запросе без загрузки коллекции книг.
+ */
+public interface PersonListView {
+
+    int getId();
+
+    String getFio();
+
+    int getYearOfBirth();
+
+    String getEmail();
+
+    long getLoanCount();
+}
@@ -0,0 +1,11 @@
+package ru.ruba.dto;
+
+/**
+ * Проекция человека для выбора читателя: только идентификатор и ФИО.
+ */
+public interface PersonOptionView {
+
+    int getId();
+
+    String getFio();
+}
@@ -0,0 +1,20 @@
+package ru.ruba.dto;
+
+import java.util.Date;
+
+/**
+ * Версии всего, что выводится на странице читателя: самого читателя и выданных ему книг, включая
+ * количество просроченных (оно меняется со временем без изменения строк).
+ */
+public interface PersonPageVersionView {
+
+    int getVersion();
+
+    Date getUpdatedAt();
+
+    long getBookCount();
+
+    Date getBooksUpdatedAt();
+
+    long getOverdueCount();
+}
@@ -0,0 +1,29 @@
+package ru.ruba.dto;
+
+import java.util.List;
+
+/**
+ * Страница подсказок при выборе читателя по началу ФИО (ответ в формате JSON).
+ */
+public class ReaderSuggestions {
+
+    private final List<PersonOptionView> items;
+
+    private final boolean hasNext;
+
+    public ReaderSuggestions(List<PersonOptionView> items, boolean hasNext) {
+        this.items = items;
+        this.hasNext = hasNext;
+    }
+
+    public List<PersonOptionView> getItems() {
+        return items;
+    }
+
+    /**
+     * @return true, если есть следующая страница подсказок.
+     */
+    public boolean isHasNext() {
+        return hasNext;
+    }
+}
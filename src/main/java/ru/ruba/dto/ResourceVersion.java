@@ -0,0 +1,55 @@
+package ru.ruba.dto;
+
+import org.springframework.util.DigestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Версия представления страницы: строгий ETag (хеш версий всех выводимых строк) и время последнего изменения.
+ */
+public final class ResourceVersion {
+
+    private final String etag;
+
+    private final long lastModified;
+
+    private ResourceVersion(String etag, long lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param lastModified Время последнего изменения выводимых строк или null, если оно неизвестно.
+     * @param parts        Версии, от которых зависит содержимое страницы; одинаковые версии дают одинаковый ETag.
+     * @return Версия представления.
+     */
+    public static ResourceVersion of(Date lastModified, Object... parts) {
+        String digest = DigestUtils.md5DigestAsHex(Arrays.deepToString(parts).getBytes(StandardCharsets.UTF_8));
+        return new ResourceVersion('"' + digest + '"', lastModified == null ? -1 : lastModified.getTime());
+    }
+
+    /**
+     * @return Наибольшее из переданных значений времени, пропуская null.
+     */
+    public static Date latest(Date... dates) {
+        Date latest = null;
+        for (Date date : dates) {
+            if (date != null && (latest == null || date.after(latest)))
+                latest = date;
+        }
+        return latest;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return Время последнего изменения в миллисекундах от эпохи или -1, если оно неизвестно.
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -2,16 +2,26 @@ package ru.ruba.models;
 
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
 
 import java.util.Date;
 
 @Entity
-@Table(name = "Book")
+// индекс по читателю: книги читателя и количество выданных книг в списке людей находятся без полного просмотра таблицы
+@Table(name = "Book", indexes = @Index(name = "book_person_id_idx", columnList = "person_id"))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Book {
 
     @Id
     @Column(name = "id")
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // идентификаторы выделяются из последовательности блоками по 50 (pooled-оптимизатор),
+    // что позволяет Hibernate объединять вставки в пакеты
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "book_seq")
+    @SequenceGenerator(name = "book_seq", sequenceName = "book_seq", allocationSize = 50)
     private int id;
 
     @Column(name = "title")
@@ -28,7 +38,7 @@ public class Book {
     @Min(value = 1100, message = "Год написания не должен быть раньше чем 1100 год")
     private int year;
 
-    @ManyToOne
+    @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "person_id", referencedColumnName = "id")
     private Person reader;
 
@@ -36,8 +46,18 @@ public class Book {
     @Temporal(TemporalType.TIMESTAMP)
     private Date takenAt;
 
-    @Transient
-    private boolean expired; //переменная просрочки книги
+    // версия и время изменения строки: из них складываются ETag и Last-Modified страниц с книгой;
+    // условные запросы UPDATE в BookRepository увеличивают их явно
+    @Version
+    @Column(name = "version", nullable = false)
+    @ColumnDefault("0")
+    private int version;
+
+    @Column(name = "updated_at")
+    @ColumnDefault("current_timestamp")
+    @Temporal(TemporalType.TIMESTAMP)
+    @UpdateTimestamp
+    private Date updatedAt;
 
     public Book(){}
     public Book(String title, String author, int year) {
@@ -94,11 +114,16 @@ public class Book {
         this.takenAt = takenAt;
     }
 
-    public boolean isExpired() {
-        return expired;
+    public int getVersion() {
+        return version;
     }
-    public void setExpired(boolean expired) {
-        this.expired = expired;
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
     }
 
 }
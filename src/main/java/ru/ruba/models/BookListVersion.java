@@ -0,0 +1,52 @@
+package ru.ruba.models;
+
+import jakarta.persistence.*;
+
+import java.util.Date;
+
+/**
+ * Версия полного списка книг: единственная строка, номер которой увеличивается в той же транзакции, что и
+ * добавление, изменение или удаление книги. Из нее складываются ETag и Last-Modified страницы /book, поэтому проверка
+ * If-None-Match стоит одного чтения строки по первичному ключу, а не агрегата по всей таблице книг.
+ * <p>
+ * Выдача и возврат книг список не меняют (в нем только название, автор и год) и версию не увеличивают.
+ * Сущность не кэшируется: версия должна читаться из базы.
+ */
+@Entity
+@Table(name = "book_list_version")
+public class BookListVersion {
+
+    public static final int ID = 1;
+
+    @Id
+    @Column(name = "id")
+    private int id;
+
+    @Column(name = "version", nullable = false)
+    private long version;
+
+    @Column(name = "updated_at", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date updatedAt;
+
+    public BookListVersion() {
+    }
+
+    public BookListVersion(long version, Date updatedAt) {
+        this.id = ID;
+        this.version = version;
+        this.updatedAt = updatedAt;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+}
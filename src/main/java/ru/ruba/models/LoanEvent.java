@@ -0,0 +1,72 @@
+package ru.ruba.models;
+
+import jakarta.persistence.*;
+
+import java.util.Date;
+
+/**
+ * Запись журнала выдач: выдача или возврат книги. Записи только добавляются и не изменяются.
+ * <p>
+ * Книга и читатель хранятся идентификаторами без внешних ключей: история остается после удаления книги или
+ * читателя и после отсоединения старых секций таблицы (см. LoanHistoryPartitions).
+ */
+@Entity
+@Table(name = "loan_event")
+public class LoanEvent {
+
+    public enum Type {
+        CHECKOUT,
+        RETURN
+    }
+
+    @Id
+    @Column(name = "id")
+    // блоки по 50 идентификаторов позволяют Hibernate объединять вставки записей в пакеты
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "loan_event_seq")
+    @SequenceGenerator(name = "loan_event_seq", sequenceName = "loan_event_seq", allocationSize = 50)
+    private long id;
+
+    @Column(name = "book_id", nullable = false)
+    private int bookId;
+
+    @Column(name = "person_id", nullable = false)
+    private int personId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "event_type", nullable = false, length = 10)
+    private Type type;
+
+    @Column(name = "event_at", nullable = false)
+    @Temporal(TemporalType.TIMESTAMP)
+    private Date eventAt;
+
+    public LoanEvent() {
+    }
+
+    public LoanEvent(int bookId, int personId, Type type, Date eventAt) {
+        this.bookId = bookId;
+        this.personId = personId;
+        this.type = type;
+        this.eventAt = eventAt;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public int getBookId() {
+        return bookId;
+    }
+
+    public int getPersonId() {
+        return personId;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public Date getEventAt() {
+        return eventAt;
+    }
+}
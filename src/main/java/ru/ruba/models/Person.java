@@ -2,15 +2,26 @@ package ru.ruba.models;
 
 import jakarta.persistence.*;
 import jakarta.validation.constraints.*;
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.ColumnDefault;
+import org.hibernate.annotations.UpdateTimestamp;
 
+import java.util.Date;
 import java.util.List;
 
 @Entity
-@Table(name = "Person")
+// уникальный индекс по ФИО: проверка свободного ФИО не загружает сущность, а одновременные регистрации не создают дубликатов
+@Table(name = "Person", indexes = @Index(name = "person_fio_idx", columnList = "fio", unique = true))
+@Cacheable
+@Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
 public class Person {
     @Id
     @Column(name = "id")
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // идентификаторы выделяются из последовательности блоками по 50 (pooled-оптимизатор),
+    // что позволяет Hibernate объединять вставки в пакеты
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "person_seq")
+    @SequenceGenerator(name = "person_seq", sequenceName = "person_seq", allocationSize = 50)
     private int id;
 
     @Column(name = "fio")
@@ -27,8 +38,21 @@ public class Person {
     private String email;
 
     @OneToMany(mappedBy = "reader")
+    @Cache(usage = CacheConcurrencyStrategy.READ_WRITE)
     private List<Book> books;
 
+    // версия и время изменения строки: из них складываются ETag и Last-Modified страниц с читателем
+    @Version
+    @Column(name = "version", nullable = false)
+    @ColumnDefault("0")
+    private int version;
+
+    @Column(name = "updated_at")
+    @ColumnDefault("current_timestamp")
+    @Temporal(TemporalType.TIMESTAMP)
+    @UpdateTimestamp
+    private Date updatedAt;
+
     public Person(String fio, int year_of_birth, String email) {
         this.fio = fio;
         this.year_of_birth = year_of_birth;
@@ -79,4 +103,16 @@ public class Person {
         this.books = books;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
 }
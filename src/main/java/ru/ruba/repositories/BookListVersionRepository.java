@@ -0,0 +1,38 @@
+package ru.ruba.repositories;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.ruba.models.BookListVersion;
+
+import java.util.Date;
+
+/**
+ * Версия полного списка книг ({@link BookListVersion}).
+ */
+@Repository
+public interface BookListVersionRepository extends JpaRepository<BookListVersion, Integer> {
+
+    /**
+     * Увеличивает версию списка книг в текущей транзакции. Строка остается заблокированной до конца транзакции,
+     * поэтому одновременные изменения каталога увеличивают версию по очереди и ни одно не теряется.
+     * Запрос JPQL, а не SQL: Hibernate сбрасывает только кэш этой сущности, а не весь кэш второго уровня.
+     *
+     * @param updatedAt Время изменения.
+     * @return 1, если версия увеличена, 0, если строки версии нет.
+     */
+    @Modifying
+    @Query("update BookListVersion v set v.version = v.version + 1, v.updatedAt = :updatedAt where v.id = " + BookListVersion.ID)
+    int bump(@Param("updatedAt") Date updatedAt);
+
+    /**
+     * Увеличивает версию списка книг; если схема создана без миграций и строки версии нет, создает ее.
+     */
+    default void increment() {
+        Date now = new Date();
+        if (bump(now) == 0)
+            save(new BookListVersion(1, now));
+    }
+}
@@ -1,19 +1,290 @@
 package ru.ruba.repositories;
 
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.ruba.dto.BookHolderView;
+import ru.ruba.dto.BookPageVersionView;
+import ru.ruba.dto.BookSearchView;
+import ru.ruba.dto.BookTitleView;
+import ru.ruba.dto.BookVersionView;
+import ru.ruba.dto.BookView;
+import ru.ruba.dto.LoanedBookView;
+import ru.ruba.dto.OverdueBookView;
 import ru.ruba.models.Book;
+import ru.ruba.models.Person;
 
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface BookRepository extends JpaRepository<Book, Integer> {
+public interface BookRepository extends JpaRepository<Book, Integer>, BookRepositoryCustom {
 
     /**
-     * Находит список книг, названия которых начинаются с указанной строки.
+     * Количество строк, которое JDBC-драйвер получает из базы за одно обращение при потоковом чтении.
+     */
+    int STREAM_FETCH_SIZE = 500;
+
+    /**
+     * Находит книги, названия которых начинаются с указанной строки без учета регистра, вместе с ФИО читателя одним
+     * запросом, в порядке названия. В PostgreSQL условие обслуживается индексом book_title_lower_prefix_idx
+     * по lower(title) text_pattern_ops.
+     *
+     * @param prefix   Начало названия в нижнем регистре.
+     * @param pageable Количество книг (без сортировки).
+     * @return Книги, названия которых начинаются с указанной строки.
+     */
+    @Query("select b.id as id, b.title as title, b.author as author, b.year as year, r.fio as readerFio " +
+            "from Book b left join b.reader r " +
+            "where lower(b.title) like ?#{escape([0])}% escape ?#{escapeCharacter()} order by lower(b.title), b.id")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
+    List<BookSearchView> findByTitleStartingWith(String prefix, Pageable pageable);
+
+    /**
+     * Получает книги с указанными идентификаторами вместе с ФИО читателя одним запросом.
+     *
+     * @param ids Идентификаторы книг.
+     * @return Список найденных книг (порядок не гарантируется).
+     */
+    @Query("select b.id as id, b.title as title, b.author as author, b.year as year, r.fio as readerFio " +
+            "from Book b left join b.reader r where b.id in :ids")
+    List<BookSearchView> findSearchViewsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Получает все книги в виде проекции для списка.
+     *
+     * @param sort Порядок сортировки книг.
+     * @return Список книг.
+     */
+    List<BookView> findAllBy(Sort sort);
+
+    /**
+     * Получает страницу книг в виде проекции для списка без подсчета общего количества книг.
+     *
+     * @param pageable Номер и размер страницы, порядок сортировки.
+     * @return Страница книг.
+     */
+    Slice<BookView> findAllBy(Pageable pageable);
+
+    /**
+     * Получает книги, выданные читателю, с признаком просрочки, вычисленным в запросе.
+     *
+     * @param personId      Идентификатор читателя.
+     * @param overdueBefore Книги, взятые раньше этого момента, считаются просроченными.
+     * @return Список книг читателя.
+     */
+    @Query("select b.id as id, b.title as title, b.author as author, b.year as year, b.takenAt as takenAt, " +
+            "case when b.takenAt < :overdueBefore then true else false end as expired " +
+            "from Book b where b.reader.id = :personId order by b.takenAt")
+    List<LoanedBookView> findLoanedByPersonId(@Param("personId") int personId, @Param("overdueBefore") Date overdueBefore);
+
+    /**
+     * Находит просроченные книги всех читателей одним запросом по дате выдачи.
+     *
+     * @param overdueBefore Книги, взятые раньше этого момента, считаются просроченными.
+     * @param pageable      Номер и размер страницы отчета.
+     * @return Страница просроченных книг, начиная с самых давно взятых.
+     */
+    @Query("select b.id as id, b.title as title, b.author as author, b.year as year, b.takenAt as takenAt, " +
+            "r.id as readerId, r.fio as readerFio " +
+            "from Book b join b.reader r where b.takenAt < :overdueBefore order by b.takenAt, b.id")
+    Slice<OverdueBookView> findOverdue(@Param("overdueBefore") Date overdueBefore, Pageable pageable);
+
+    /**
+     * Находит следующую порцию книг после указанного идентификатора (keyset-пагинация без запроса COUNT).
+     *
+     * @param id       Идентификатор последней книги предыдущей страницы.
+     * @param pageable Размер порции; сортировка должна быть по id.
+     * @return Порция книг с признаком наличия следующей порции.
+     */
+    Slice<BookView> findByIdGreaterThan(int id, Pageable pageable);
+
+    /**
+     * Находит следующую порцию книг в порядке (год, id) после указанной позиции (keyset-пагинация без запроса COUNT).
+     * Сравнение строк (year, id) > (:year, :id) PostgreSQL превращает в условие индекса book_year_id_idx, а условие
+     * year >= :year позволяет начать диапазон индекса и базам, не умеющим этого (H2), в отличие от условия с OR.
+     *
+     * @param year     Год последней книги предыдущей страницы.
+     * @param id       Идентификатор последней книги предыдущей страницы.
+     * @param pageable Размер порции; сортировка должна быть по year, затем по id.
+     * @return Порция книг с признаком наличия следующей порции.
+     */
+    @Query("select b.id as id, b.title as title, b.author as author, b.year as year from Book b " +
+            "where b.year >= :year and (b.year, b.id) > (:year, :id)")
+    Slice<BookView> findNextByYear(@Param("year") int year, @Param("id") int id, Pageable pageable);
+
+    /**
+     * Потоково читает все книги в виде проекции для списка. Строки подгружаются порциями по {@link #STREAM_FETCH_SIZE}.
+     * Проекции не являются сущностями: они не попадают в контекст персистентности и в кэш второго уровня.
+     * Поток должен использоваться и закрываться внутри транзакции. Транзакция и ее соединение из пула остаются
+     * занятыми, пока поток не дочитан, то есть при потоковой отрисовке - все время передачи ответа клиенту.
+     *
+     * @param sort Порядок сортировки книг.
+     * @return Поток книг.
+     */
+    @Query("select b.id as id, b.title as title, b.author as author, b.year as year from Book b")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    Stream<BookView> streamAll(Sort sort);
+
+    /**
+     * Потоково читает идентификаторы и названия всех книг для построения индекса названий.
+     * Поток должен использоваться и закрываться внутри транзакции.
+     *
+     * @return Поток пар (id, название).
+     */
+    @Query("select b.id as id, b.title as title from Book b")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "" + STREAM_FETCH_SIZE))
+    Stream<BookTitleView> streamAllTitles();
+
+    /**
+     * Выдает книгу читателю одним условным запросом UPDATE: книга выдается, только если она сейчас свободна.
+     * Из двух одновременных выдач одной книги успешной будет ровно одна.
+     *
+     * @param id      Идентификатор книги.
+     * @param reader  Читатель, которому выдается книга.
+     * @param takenAt Момент выдачи книги.
+     * @return 1, если книга выдана, 0, если книга не найдена или уже выдана.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Book b set b.reader = :reader, b.takenAt = :takenAt, b.version = b.version + 1, b.updatedAt = :takenAt " +
+            "where b.id = :id and b.reader is null")
+    int assignIfFree(@Param("id") int id, @Param("reader") Person reader, @Param("takenAt") Date takenAt);
+
+    /**
+     * Освобождает книгу одним условным запросом UPDATE, если она сейчас выдана.
+     *
+     * @param id         Идентификатор книги.
+     * @param releasedAt Момент освобождения книги.
+     * @return 1, если книга освобождена, 0, если книга не найдена или уже свободна.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Book b set b.reader = null, b.takenAt = null, b.version = b.version + 1, b.updatedAt = :releasedAt " +
+            "where b.id = :id and b.reader is not null")
+    int releaseIfTaken(@Param("id") int id, @Param("releasedAt") Date releasedAt);
+
+    /**
+     * Выдает читателю все свободные книги из списка одним запросом UPDATE.
+     *
+     * @param ids     Идентификаторы книг.
+     * @param reader  Читатель, которому выдаются книги.
+     * @param takenAt Момент выдачи книг.
+     * @return Количество выданных книг.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Book b set b.reader = :reader, b.takenAt = :takenAt, b.version = b.version + 1, b.updatedAt = :takenAt " +
+            "where b.id in :ids and b.reader is null")
+    int assignAllIfFree(@Param("ids") Collection<Integer> ids, @Param("reader") Person reader,
+                        @Param("takenAt") Date takenAt);
+
+    /**
+     * Освобождает одним запросом UPDATE все книги из списка, которые сейчас находятся у указанного читателя.
+     *
+     * @param ids        Идентификаторы книг.
+     * @param personId   Идентификатор читателя.
+     * @param releasedAt Момент освобождения книг.
+     * @return Количество освобожденных книг.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Book b set b.reader = null, b.takenAt = null, b.version = b.version + 1, b.updatedAt = :releasedAt " +
+            "where b.id in :ids and b.reader.id = :personId")
+    int releaseAllHeldBy(@Param("ids") Collection<Integer> ids, @Param("personId") int personId,
+                         @Param("releasedAt") Date releasedAt);
+
+    /**
+     * Освобождает одним запросом UPDATE все книги, которые сейчас находятся у указанного читателя
+     * (перед удалением читателя).
+     *
+     * @param personId   Идентификатор читателя.
+     * @param releasedAt Момент освобождения книг.
+     * @return Количество освобожденных книг.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("update Book b set b.reader = null, b.takenAt = null, b.version = b.version + 1, b.updatedAt = :releasedAt " +
+            "where b.reader.id = :personId")
+    int releaseAllOfPerson(@Param("personId") int personId, @Param("releasedAt") Date releasedAt);
+
+    /**
+     * Получает текущих держателей книг и блокирует строки книг до конца транзакции (SELECT ... FOR UPDATE).
+     * Следующий за ним запрос UPDATE изменит именно тех держателей, которые записываются в журнал выдач.
+     * Строки блокируются в порядке идентификаторов, чтобы две массовые операции с пересекающимися списками
+     * не заблокировали друг друга взаимно.
+     *
+     * @param ids Идентификаторы книг.
+     * @return Держатели найденных книг в порядке идентификаторов.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b.id as id, b.reader.id as readerId, b.takenAt as takenAt from Book b where b.id in :ids order by b.id")
+    List<BookHolderView> findHoldersForUpdateByIdIn(@Param("ids") Collection<Integer> ids);
+
+    /**
+     * Получает книги читателя и блокирует их строки до конца транзакции (SELECT ... FOR UPDATE).
+     *
+     * @param personId Идентификатор читателя.
+     * @return Книги, выданные читателю.
+     */
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("select b.id as id, b.reader.id as readerId, b.takenAt as takenAt from Book b where b.reader.id = :personId")
+    List<BookHolderView> findHoldersForUpdateByReaderId(@Param("personId") int personId);
+
+    /**
+     * Получает версии книг страницы списка (тот же порядок и размер, что у {@link #findAllBy(Pageable)}).
+     *
+     * @param pageable Номер и размер страницы, порядок сортировки.
+     * @return Версии книг страницы.
+     */
+    Slice<BookVersionView> findVersionsBy(Pageable pageable);
+
+    /**
+     * Получает версии книг порции после указанного идентификатора (как {@link #findByIdGreaterThan}).
+     *
+     * @param id       Идентификатор последней книги предыдущей страницы.
+     * @param pageable Размер порции; сортировка должна быть по id.
+     * @return Версии книг порции с признаком наличия следующей порции.
+     */
+    Slice<BookVersionView> findVersionsByIdGreaterThan(int id, Pageable pageable);
+
+    /**
+     * Получает версии книг порции в порядке (год, id) после указанной позиции (как {@link #findNextByYear}).
+     *
+     * @param year     Год последней книги предыдущей страницы.
+     * @param id       Идентификатор последней книги предыдущей страницы.
+     * @param pageable Размер порции; сортировка должна быть по year, затем по id.
+     * @return Версии книг порции с признаком наличия следующей порции.
+     */
+    @Query("select b.id as id, b.version as version, b.updatedAt as updatedAt from Book b " +
+            "where b.year >= :year and (b.year, b.id) > (:year, :id)")
+    Slice<BookVersionView> findNextVersionsByYear(@Param("year") int year, @Param("id") int id, Pageable pageable);
+
+    /**
+     * Находит книгу вместе с читателем одним запросом (left join fetch), без отдельной загрузки читателя.
+     *
+     * @param id Идентификатор книги.
+     * @return Книга с загруженным читателем или пустой Optional, если книга не найдена.
+     */
+    @Query("select b from Book b left join fetch b.reader where b.id = :id")
+    Optional<Book> findWithReaderById(@Param("id") int id);
+
+    /**
+     * Получает одним запросом версии книги и ее читателя.
      *
-     * @param title Начальная строка, с которой должны начинаться названия книг.
-     * @return Список книг, названия которых начинаются с указанной строки.
+     * @param id Идентификатор книги.
+     * @return Версии или пустой Optional, если книга не найдена.
      */
-    List<Book> findByTitleStartingWith(String title);
+    @Query("select b.version as version, b.updatedAt as updatedAt, " +
+            "r.id as readerId, r.version as readerVersion, r.updatedAt as readerUpdatedAt " +
+            "from Book b left join b.reader r where b.id = :id")
+    Optional<BookPageVersionView> findPageVersionById(@Param("id") int id);
 }
@@ -0,0 +1,23 @@
+package ru.ruba.repositories;
+
+import java.util.Date;
+
+/**
+ * Запросы {@link BookRepository}, которые строятся во время выполнения.
+ */
+public interface BookRepositoryCustom {
+
+    /**
+     * Изменяет поля книги из формы редактирования одним запросом UPDATE без предварительного чтения книги.
+     * В SET попадают только переданные поля; читатель и дата выдачи не затрагиваются. Если переданные поля
+     * не отличаются от значений в базе, строка не обновляется и версия не растет.
+     *
+     * @param id        Идентификатор книги.
+     * @param title     Новое название; null - название не изменялось.
+     * @param author    Новый автор; null - автор не изменялся.
+     * @param year      Новый год написания; null - год не изменялся.
+     * @param updatedAt Момент изменения книги.
+     * @return 1, если книга изменена, 0, если книга не найдена или поля не изменились.
+     */
+    int updateDetails(int id, String title, String author, Integer year, Date updatedAt);
+}
@@ -0,0 +1,27 @@
+package ru.ruba.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.transaction.annotation.Transactional;
+import ru.ruba.models.Book;
+
+import java.util.Date;
+
+/**
+ * Реализация {@link BookRepositoryCustom}, которую Spring Data подключает к {@link BookRepository}.
+ */
+class BookRepositoryCustomImpl implements BookRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public int updateDetails(int id, String title, String author, Integer year, Date updatedAt) {
+        return new DetailsUpdate<>(entityManager, Book.class)
+                .set("title", title)
+                .set("author", author)
+                .set("year", year)
+                .execute(id, updatedAt);
+    }
+}
@@ -0,0 +1,82 @@
+package ru.ruba.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaUpdate;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Условный запрос UPDATE полей формы редактирования, в котором SET содержит только переданные (измененные) поля.
+ * Строка обновляется, только если хотя бы одно переданное поле отличается от значения в базе; тогда же
+ * увеличиваются версия и время изменения строки. Запрос выполняется как массовое изменение Hibernate, поэтому
+ * кэш второго уровня сбрасывается только для региона сущности, а контекст персистентности очищается, как у
+ * {@code @Modifying(flushAutomatically = true, clearAutomatically = true)}.
+ *
+ * @param <T> Тип сущности с атрибутами id, version и updatedAt.
+ */
+final class DetailsUpdate<T> {
+
+    private final EntityManager entityManager;
+
+    private final CriteriaBuilder builder;
+
+    private final CriteriaUpdate<T> update;
+
+    private final Root<T> root;
+
+    private final List<Predicate> changed = new ArrayList<>();
+
+    DetailsUpdate(EntityManager entityManager, Class<T> type) {
+        this.entityManager = entityManager;
+        this.builder = entityManager.getCriteriaBuilder();
+        this.update = builder.createCriteriaUpdate(type);
+        this.root = update.from(type);
+    }
+
+    /**
+     * @param attribute Атрибут сущности.
+     * @param value     Новое значение; null - поле не изменялось и в SET не попадает.
+     */
+    DetailsUpdate<T> set(String attribute, String value) {
+        if (value != null) {
+            update.set(root.<String>get(attribute), value);
+            changed.add(builder.notEqual(builder.coalesce(root.<String>get(attribute), ""), value));
+        }
+        return this;
+    }
+
+    /**
+     * @param attribute Атрибут сущности.
+     * @param value     Новое значение; null - поле не изменялось и в SET не попадает.
+     */
+    DetailsUpdate<T> set(String attribute, Integer value) {
+        if (value != null) {
+            update.set(root.<Integer>get(attribute), value);
+            changed.add(builder.notEqual(root.<Integer>get(attribute), value));
+        }
+        return this;
+    }
+
+    /**
+     * @param id        Идентификатор строки.
+     * @param updatedAt Момент изменения.
+     * @return 1, если строка изменена, 0, если она не найдена, поля не изменились или не передано ни одно поле
+     * (тогда запрос не выполняется).
+     */
+    int execute(int id, Date updatedAt) {
+        if (changed.isEmpty())
+            return 0;
+        update.set(root.<Integer>get("version"), builder.sum(root.<Integer>get("version"), 1));
+        update.set(root.<Date>get("updatedAt"), updatedAt);
+        update.where(builder.equal(root.get("id"), id), builder.or(changed.toArray(new Predicate[0])));
+        entityManager.flush();
+        int count = entityManager.createQuery(update).executeUpdate();
+        entityManager.clear();
+        return count;
+    }
+}
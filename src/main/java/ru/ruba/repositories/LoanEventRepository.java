@@ -0,0 +1,75 @@
+package ru.ruba.repositories;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.ruba.dto.BookLoanCountView;
+import ru.ruba.dto.LoanEventView;
+import ru.ruba.models.LoanEvent;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Журнал выдач. Все запросы ограничены интервалом времени события: в PostgreSQL таблица секционирована
+ * по месяцам event_at, и запрос читает только секции, пересекающиеся с интервалом.
+ */
+@Repository
+public interface LoanEventRepository extends JpaRepository<LoanEvent, Long> {
+
+    String VIEW_SELECT = "select e.id as id, e.bookId as bookId, b.title as title, e.personId as personId, " +
+            "p.fio as fio, e.type as type, e.eventAt as eventAt " +
+            "from LoanEvent e left join Book b on b.id = e.bookId left join Person p on p.id = e.personId ";
+
+    // условие e.eventAt <= :before повторяет keyset-условие, чтобы отсечение секций не зависело от разбора OR
+    String BEFORE = "and e.eventAt >= :from and e.eventAt <= :before " +
+            "and (e.eventAt < :before or (e.eventAt = :before and e.id < :beforeId)) " +
+            "order by e.eventAt desc, e.id desc";
+
+    /**
+     * Получает записи журнала по книге с keyset-пагинацией от новых к старым.
+     *
+     * @param bookId   Идентификатор книги.
+     * @param from     Начало интервала (включительно).
+     * @param before   Время последней записи предыдущей страницы (для первой страницы - конец интервала).
+     * @param beforeId Идентификатор последней записи предыдущей страницы (для первой страницы - Long.MAX_VALUE).
+     * @param pageable Размер страницы (номер страницы всегда 0).
+     * @return Срез записей.
+     */
+    @Query(VIEW_SELECT + "where e.bookId = :bookId " + BEFORE)
+    Slice<LoanEventView> findBookHistory(@Param("bookId") int bookId, @Param("from") Date from,
+                                         @Param("before") Date before, @Param("beforeId") long beforeId,
+                                         Pageable pageable);
+
+    /**
+     * Получает записи журнала по читателю с keyset-пагинацией от новых к старым.
+     *
+     * @param personId Идентификатор читателя.
+     * @param from     Начало интервала (включительно).
+     * @param before   Время последней записи предыдущей страницы (для первой страницы - конец интервала).
+     * @param beforeId Идентификатор последней записи предыдущей страницы (для первой страницы - Long.MAX_VALUE).
+     * @param pageable Размер страницы (номер страницы всегда 0).
+     * @return Срез записей.
+     */
+    @Query(VIEW_SELECT + "where e.personId = :personId " + BEFORE)
+    Slice<LoanEventView> findPersonHistory(@Param("personId") int personId, @Param("from") Date from,
+                                           @Param("before") Date before, @Param("beforeId") long beforeId,
+                                           Pageable pageable);
+
+    /**
+     * Находит книги с наибольшим количеством выдач за период.
+     *
+     * @param from     Начало периода (включительно).
+     * @param to       Конец периода (не включительно).
+     * @param pageable Количество книг в отчете.
+     * @return Книги по убыванию количества выдач.
+     */
+    @Query("select e.bookId as bookId, b.title as title, count(e) as loans " +
+            "from LoanEvent e left join Book b on b.id = e.bookId " +
+            "where e.type = CHECKOUT and e.eventAt >= :from and e.eventAt < :to " +
+            "group by e.bookId, b.title order by count(e) desc, e.bookId")
+    List<BookLoanCountView> findMostBorrowed(@Param("from") Date from, @Param("to") Date to, Pageable pageable);
+}
@@ -1,18 +1,190 @@
 package ru.ruba.repositories;
 
+import jakarta.persistence.QueryHint;
+import org.hibernate.jpa.HibernateHints;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.ruba.dto.PersonListView;
+import ru.ruba.dto.PersonOptionView;
+import ru.ruba.dto.PersonPageVersionView;
 import ru.ruba.models.Person;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
-public interface PeopleRepository extends JpaRepository<Person, Integer> {
+public interface PeopleRepository extends JpaRepository<Person, Integer>, PeopleRepositoryCustom {
+
+    /**
+     * Общая часть запросов списка людей: выводимые поля и количество выданных книг, подсчитанное подзапросом
+     * по индексу book_person_id_idx.
+     */
+    String LIST_SELECT = "select p.id as id, p.fio as fio, p.year_of_birth as yearOfBirth, p.email as email, " +
+            "(select count(b) from Book b where b.reader = p) as loanCount from Person p ";
+
+    /**
+     * Keyset-условие порядка (lower(fio), id). Сравнение строк PostgreSQL превращает в условие индекса
+     * person_fio_order_idx, а условие lower(fio) >= lower(:afterFio) позволяет начать диапазон индекса
+     * и без разбора сравнения строк, в отличие от условия с OR.
+     */
+    String AFTER_FIO = "lower(p.fio) >= lower(:afterFio) and (lower(p.fio), p.id) > (lower(:afterFio), :afterId)";
+
+    /**
+     * Условие неактивности человека, общее для выборки порции и удаления: нет книг на руках, данные не изменялись
+     * и в журнале выдач нет его выдач и возвратов начиная с :before. Выдача и возврат не изменяют строку
+     * человека, поэтому последняя активность берется из журнала (индекс loan_event_person_idx, в PostgreSQL
+     * читаются только секции начиная с :before).
+     */
+    String INACTIVE = "p.updatedAt < :before and not exists (select b.id from Book b where b.reader = p) " +
+            "and not exists (select e.id from LoanEvent e where e.personId = p.id and e.eventAt >= :before)";
+
     /**
      * Находит человека в репозитории по указанному ФИО (Фамилия, Имя, Отчество).
      *
      * @param fio ФИО (Фамилия, Имя, Отчество) человека, которого нужно найти.
      * @return Optional, содержащий найденного человека, если человек с указанным ФИО существует, иначе пустой Optional.
      */
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_CACHEABLE, value = "true"))
     Optional<Person> findByFio(String fio);
+
+    /**
+     * Проверяет, есть ли человек с указанным ФИО, не загружая сущность (запрос по уникальному индексу person_fio_idx).
+     *
+     * @param fio ФИО (Фамилия, Имя, Отчество) человека.
+     * @return true, если человек с указанным ФИО существует.
+     */
+    boolean existsByFio(String fio);
+
+    /**
+     * Находит страницу людей, ФИО которых начинается с указанной строки без учета регистра, в порядке ФИО.
+     * В PostgreSQL условие обслуживается индексом person_fio_prefix_idx по lower(fio) text_pattern_ops.
+     *
+     * @param prefix   Начало ФИО в нижнем регистре.
+     * @param pageable Номер и размер страницы (без сортировки).
+     * @return Страница людей с признаком наличия следующей страницы.
+     */
+    @Query("select p.id as id, p.fio as fio from Person p " +
+            "where lower(p.fio) like ?#{escape([0])}% escape ?#{escapeCharacter()} order by lower(p.fio), p.id")
+    Slice<PersonOptionView> findOptionsByFioPrefix(String prefix, Pageable pageable);
+
+    /**
+     * Находит следующую порцию списка людей в порядке (lower(fio), id) после указанной позиции
+     * (keyset-пагинация без запроса COUNT). В PostgreSQL обслуживается индексом person_fio_order_idx.
+     *
+     * @param afterFio ФИО последнего человека предыдущей порции; пустая строка - первая порция.
+     * @param afterId  Идентификатор последнего человека предыдущей порции.
+     * @param pageable Размер порции (без сортировки).
+     * @return Порция людей с признаком наличия следующей порции.
+     */
+    @Query(LIST_SELECT + "where " + AFTER_FIO + " order by lower(p.fio), p.id")
+    Slice<PersonListView> findListAfterFio(@Param("afterFio") String afterFio, @Param("afterId") int afterId,
+                                           Pageable pageable);
+
+    /**
+     * Находит следующую порцию списка людей в порядке id после указанного идентификатора.
+     *
+     * @param afterId  Идентификатор последнего человека предыдущей порции; 0 - первая порция.
+     * @param pageable Размер порции (без сортировки).
+     * @return Порция людей с признаком наличия следующей порции.
+     */
+    @Query(LIST_SELECT + "where p.id > :afterId order by p.id")
+    Slice<PersonListView> findListAfterId(@Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * Как {@link #findListAfterFio}, но только люди, ФИО или email которых начинается с указанной строки
+     * без учета регистра (индексы person_fio_prefix_idx и person_email_prefix_idx).
+     *
+     * @param prefix   Начало ФИО или email в нижнем регистре.
+     * @param afterFio ФИО последнего человека предыдущей порции; пустая строка - первая порция.
+     * @param afterId  Идентификатор последнего человека предыдущей порции.
+     * @param pageable Размер порции (без сортировки).
+     * @return Порция людей с признаком наличия следующей порции.
+     */
+    @Query(LIST_SELECT + "where (lower(p.fio) like :#{escape(#prefix)}% escape :#{escapeCharacter()} " +
+            "or lower(p.email) like :#{escape(#prefix)}% escape :#{escapeCharacter()}) " +
+            "and " + AFTER_FIO + " order by lower(p.fio), p.id")
+    Slice<PersonListView> findListByPrefixAfterFio(@Param("prefix") String prefix, @Param("afterFio") String afterFio,
+                                                   @Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * Как {@link #findListAfterId}, но только люди, ФИО или email которых начинается с указанной строки
+     * без учета регистра.
+     *
+     * @param prefix   Начало ФИО или email в нижнем регистре.
+     * @param afterId  Идентификатор последнего человека предыдущей порции; 0 - первая порция.
+     * @param pageable Размер порции (без сортировки).
+     * @return Порция людей с признаком наличия следующей порции.
+     */
+    @Query(LIST_SELECT + "where (lower(p.fio) like :#{escape(#prefix)}% escape :#{escapeCharacter()} " +
+            "or lower(p.email) like :#{escape(#prefix)}% escape :#{escapeCharacter()}) " +
+            "and p.id > :afterId order by p.id")
+    Slice<PersonListView> findListByPrefixAfterId(@Param("prefix") String prefix, @Param("afterId") int afterId,
+                                                  Pageable pageable);
+
+    /**
+     * Удаляет человека одним запросом DELETE, не загружая сущность. Выданные ему книги нужно освободить заранее.
+     *
+     * @param id Идентификатор человека.
+     * @return 1, если человек удален, 0, если он не найден.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Person p where p.id = :id")
+    int deleteDirectly(@Param("id") int id);
+
+    /**
+     * Находит следующую порцию неактивных людей (условие {@link #INACTIVE}).
+     *
+     * @param before   Люди, данные которых изменялись или которые брали и возвращали книги позже этого момента,
+     *                 считаются активными.
+     * @param afterId  Идентификатор последнего человека предыдущей порции; 0 - первая порция.
+     * @param pageable Размер порции (без сортировки).
+     * @return Идентификаторы неактивных людей в порядке возрастания.
+     */
+    @Query("select p.id from Person p where p.id > :afterId and " + INACTIVE + " order by p.id")
+    List<Integer> findInactiveIds(@Param("before") Date before, @Param("afterId") int afterId, Pageable pageable);
+
+    /**
+     * Удаляет людей из списка одним запросом DELETE, если они все еще неактивны (условие повторяется, поэтому
+     * человек, получивший или вернувший книгу после выборки порции, не удаляется).
+     *
+     * @param ids    Идентификаторы людей.
+     * @param before Люди, данные которых изменялись или которые брали и возвращали книги позже этого момента,
+     *               считаются активными.
+     * @return Количество удаленных людей.
+     */
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("delete from Person p where p.id in :ids and " + INACTIVE)
+    int deleteInactiveByIdIn(@Param("ids") Collection<Integer> ids, @Param("before") Date before);
+
+    /**
+     * Потоково читает ФИО всех людей для построения фильтра ФИО.
+     * Поток должен использоваться и закрываться внутри транзакции.
+     *
+     * @return Поток ФИО.
+     */
+    @Query("select p.fio from Person p")
+    @QueryHints(@QueryHint(name = HibernateHints.HINT_FETCH_SIZE, value = "500"))
+    Stream<String> streamAllFio();
+
+    /**
+     * Получает одним запросом версию человека и сводную версию выданных ему книг.
+     *
+     * @param id            Идентификатор человека.
+     * @param overdueBefore Книги, взятые раньше этого момента, считаются просроченными.
+     * @return Версии или пустой Optional, если человек не найден.
+     */
+    @Query("select p.version as version, p.updatedAt as updatedAt, count(b) as bookCount, " +
+            "max(b.updatedAt) as booksUpdatedAt, " +
+            "coalesce(sum(case when b.takenAt < :overdueBefore then 1 else 0 end), 0) as overdueCount " +
+            "from Person p left join p.books b where p.id = :id group by p.id, p.version, p.updatedAt")
+    Optional<PersonPageVersionView> findPageVersionById(@Param("id") int id, @Param("overdueBefore") Date overdueBefore);
 }
@@ -0,0 +1,23 @@
+package ru.ruba.repositories;
+
+import java.util.Date;
+
+/**
+ * Запросы {@link PeopleRepository}, которые строятся во время выполнения.
+ */
+public interface PeopleRepositoryCustom {
+
+    /**
+     * Изменяет данные человека из формы редактирования одним запросом UPDATE без предварительного чтения.
+     * В SET попадают только переданные поля; выданные человеку книги не затрагиваются. Если переданные поля
+     * не отличаются от значений в базе, строка не обновляется и версия не растет.
+     *
+     * @param id          Идентификатор человека.
+     * @param fio         Новое ФИО; null - ФИО не изменялось.
+     * @param yearOfBirth Новый год рождения; null - год не изменялся.
+     * @param email       Новый email; null - email не изменялся.
+     * @param updatedAt   Момент изменения.
+     * @return 1, если данные изменены, 0, если человек не найден или поля не изменились.
+     */
+    int updateDetails(int id, String fio, Integer yearOfBirth, String email, Date updatedAt);
+}
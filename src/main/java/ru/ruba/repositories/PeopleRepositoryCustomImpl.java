@@ -0,0 +1,27 @@
+package ru.ruba.repositories;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import org.springframework.transaction.annotation.Transactional;
+import ru.ruba.models.Person;
+
+import java.util.Date;
+
+/**
+ * Реализация {@link PeopleRepositoryCustom}, которую Spring Data подключает к {@link PeopleRepository}.
+ */
+class PeopleRepositoryCustomImpl implements PeopleRepositoryCustom {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Override
+    @Transactional
+    public int updateDetails(int id, String fio, Integer yearOfBirth, String email, Date updatedAt) {
+        return new DetailsUpdate<>(entityManager, Person.class)
+                .set("fio", fio)
+                .set("year_of_birth", yearOfBirth)
+                .set("email", email)
+                .execute(id, updatedAt);
+    }
+}
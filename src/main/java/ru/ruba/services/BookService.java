@@ -2,17 +2,48 @@ package ru.ruba.services;
 
 import jakarta.persistence.EntityManager;
 import jakarta.persistence.PersistenceContext;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import ru.ruba.dto.BookHolderView;
+import ru.ruba.dto.BookSearchView;
+import ru.ruba.dto.BookVersionView;
+import ru.ruba.dto.BookView;
+import ru.ruba.dto.LoanStatus;
+import ru.ruba.dto.OverdueBookView;
+import ru.ruba.dto.ResourceVersion;
 import ru.ruba.models.Book;
+import ru.ruba.models.BookListVersion;
 import ru.ruba.models.Person;
+import ru.ruba.repositories.BookListVersionRepository;
 import ru.ruba.repositories.BookRepository;
+import ru.ruba.util.LoanPolicy;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -24,8 +55,42 @@ public class BookService {
 
     private final BookRepository bookRepository;
 
-    public BookService(BookRepository bookRepository) {
+    private final TitleIndex titleIndex;
+
+    private final int searchMaxResults;
+
+    private final LoanPolicy loanPolicy;
+
+    private final CatalogueVersion catalogueVersion;
+
+    private final LoanHistoryService loanHistory;
+
+    private final BookListVersionRepository bookListVersionRepository;
+
+    public BookService(BookRepository bookRepository, TitleIndex titleIndex,
+                       @Value("${search.max_results:50}") int searchMaxResults, LoanPolicy loanPolicy,
+                       CatalogueVersion catalogueVersion, LoanHistoryService loanHistory,
+                       BookListVersionRepository bookListVersionRepository) {
         this.bookRepository = bookRepository;
+        this.titleIndex = titleIndex;
+        this.searchMaxResults = searchMaxResults;
+        this.loanPolicy = loanPolicy;
+        this.catalogueVersion = catalogueVersion;
+        this.loanHistory = loanHistory;
+        this.bookListVersionRepository = bookListVersionRepository;
+    }
+
+    /**
+     * Строит индекс названий книг при запуске приложения. Если база недоступна,
+     * поиск продолжает работать через запрос к базе до ручной перестройки индекса.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void buildTitleIndex() {
+        try {
+            titleIndex.rebuild();
+        } catch (RuntimeException e) {
+            logger.error("Не удалось построить индекс названий книг, поиск будет выполняться запросом к базе", e);
+        }
     }
 
     /**
@@ -33,21 +98,85 @@ public class BookService {
      * @param sortByYear Флаг, указывающий на необходимость сортировки по году выпуска книги.
      *                 Если установлен в true, книги будут отсортированы по году выпуска;
      *                 если установлен в false, книги будут возвращены в порядке, в котором они находятся в репозитории.
-     * @return Список объектов Book, представляющих собой все книги из репозитория.
+     * @return Список проекций BookView, представляющих собой все книги из репозитория.
      */
-    public List<Book> findAllBooks(boolean sortByYear) {
+    public List<BookView> findAllBooks(boolean sortByYear) {
         logger.info("Метод findAllBooks() вызван с параметром sortByYear = {}", sortByYear);
         if(sortByYear)
-            return bookRepository.findAll(Sort.by("year"));
+            return bookRepository.findAllBy(Sort.by("year"));
         else
-            return bookRepository.findAll();
+            return bookRepository.findAllBy(Sort.unsorted());
     }
 
     @PersistenceContext
     private EntityManager entityManager;
 
-    public void clearJpaMetadataCache() {
-        entityManager.getEntityManagerFactory().getCache().evictAll();
+    /**
+     * Потоково передает все книги обработчику внутри одной читающей транзакции, не загружая весь список в память.
+     * Книги читаются в виде проекций, которые не попадают в контекст персистентности,
+     * поэтому расход памяти не зависит от размера каталога.
+     * <p>
+     * Транзакция и соединение из пула удерживаются, пока работает обработчик. При потоковой отрисовке страницы это
+     * все время записи ответа: медленный клиент держит соединение столько, сколько читает ответ, а отрисовка дольше
+     * datasource.pool.leak_detection_threshold_ms отмечается в журнале пула как возможная утечка соединения.
+     *
+     * @param sortByYear Флаг, указывающий на необходимость сортировки по году выпуска книги.
+     * @param consumer   Обработчик, получающий итератор по книгам; итератор действителен только во время вызова.
+     */
+    public void processAllBooks(boolean sortByYear, Consumer<Iterator<BookView>> consumer) {
+        logger.info("Метод processAllBooks() вызван с параметром sortByYear = {}", sortByYear);
+        try (Stream<BookView> books = bookRepository.streamAll(sortByYear ? Sort.by("year") : Sort.unsorted())) {
+            consumer.accept(books.iterator());
+        }
+    }
+
+    /**
+     * Формирует отчет о работе кэша второго уровня и кэша запросов: попадания, промахи и их доля по каждому региону.
+     * Счетчики заполняются только при hibernate.generate_statistics=true.
+     *
+     * @return Текстовый отчет со статистикой кэша.
+     */
+    public String getCacheStatistics() {
+        Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        StringBuilder report = new StringBuilder();
+        if (!statistics.isStatisticsEnabled())
+            report.append("statistics disabled (hibernate.generate_statistics=false)").append(System.lineSeparator());
+        report.append(String.format(Locale.ROOT, "second-level: hits=%d misses=%d puts=%d hitRatio=%.3f%n",
+                statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount(),
+                statistics.getSecondLevelCachePutCount(),
+                hitRatio(statistics.getSecondLevelCacheHitCount(), statistics.getSecondLevelCacheMissCount())));
+        report.append(String.format(Locale.ROOT, "query-cache: hits=%d misses=%d puts=%d hitRatio=%.3f%n",
+                statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount(),
+                statistics.getQueryCachePutCount(),
+                hitRatio(statistics.getQueryCacheHitCount(), statistics.getQueryCacheMissCount())));
+
+        for (String regionName : statistics.getSecondLevelCacheRegionNames()) {
+            CacheRegionStatistics region = statistics.getCacheRegionStatistics(regionName);
+            if (region == null)
+                continue;
+            report.append(String.format(Locale.ROOT, "region=%s hits=%d misses=%d puts=%d hitRatio=%.3f%n",
+                    regionName, region.getHitCount(), region.getMissCount(), region.getPutCount(),
+                    hitRatio(region.getHitCount(), region.getMissCount())));
+        }
+        return report.toString();
+    }
+
+    /**
+     * Очищает все регионы кэша второго уровня и кэша запросов.
+     * Перед очисткой фиксирует статистику попаданий, чтобы было видно, насколько эффективно работал кэш.
+     *
+     * @return Отчет со статистикой кэша на момент очистки.
+     */
+    public String clearJpaMetadataCache() {
+        String report = getCacheStatistics();
+        logger.info("Метод clearJpaMetadataCache() вызван, статистика кэша перед очисткой:\n{}", report);
+        entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getCache().evictAllRegions();
+        return report;
+    }
+
+    private static double hitRatio(long hits, long misses) {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
     }
 
     /**
@@ -56,18 +185,131 @@ public class BookService {
      * @param page          Номер страницы, которую нужно получить. Нумерация начинается с 0.
      * @param booksPerPage  Количество книг на одной странице.
      * @param sortByYear    Флаг, указывающий на необходимость сортировки книг на странице по году выпуска.
-     *                      Если установлен в true, книги на странице будут отсортированы по году выпуска;
-     *                      если установлен в false, книги будут возвращены без сортировки.
-     * @return Список объектов Book, представляющих собой книги на запрошенной странице с учетом пагинации и сортировки (по году, если указан флаг).
+     *                      Если установлен в true, книги на странице будут отсортированы по году выпуска (при равном годе - по id);
+     *                      если установлен в false, книги будут отсортированы по id.
+     * @return Список проекций BookView, представляющих собой книги на запрошенной странице с учетом пагинации и сортировки (по году, если указан флаг).
      */
-    public List<Book> findWithPagination(Integer page, Integer booksPerPage, boolean sortByYear) {
+    public List<BookView> findWithPagination(Integer page, Integer booksPerPage, boolean sortByYear) {
         logger.info("Метод findWithPagination() вызван с параметрами: page = {}, booksPerPage = {}, sortByYear = {}", page, booksPerPage, sortByYear);
+        return bookRepository.findAllBy(PageRequest.of(page, booksPerPage, pageSort(sortByYear))).getContent();
+    }
+
+    /**
+     * Порядок страниц списка должен быть однозначным: иначе запрос версий страницы
+     * и запрос самой страницы могли бы вернуть разные книги.
+     */
+    private static Sort pageSort(boolean sortByYear) {
+        return sortByYear ? Sort.by("year", "id") : Sort.by("id");
+    }
+
+    /**
+     * Получает версию страницы списка книг ({@link #findWithPagination}) по версиям книг страницы, не загружая их.
+     *
+     * @param page         Номер страницы, нумерация начинается с 0.
+     * @param booksPerPage Количество книг на странице.
+     * @param sortByYear   Флаг сортировки по году выпуска.
+     * @return ETag и время последнего изменения страницы.
+     */
+    public ResourceVersion getPageVersion(int page, int booksPerPage, boolean sortByYear) {
+        logger.info("Метод getPageVersion() вызван с параметрами: page = {}, booksPerPage = {}, sortByYear = {}", page, booksPerPage, sortByYear);
+        return rowsVersion(bookRepository.findVersionsBy(PageRequest.of(page, booksPerPage, pageSort(sortByYear))));
+    }
+
+    /**
+     * Получает версию порции книг ({@link #findWithKeyset}) по версиям книг порции, не загружая их.
+     *
+     * @param afterId      Идентификатор последней книги предыдущей порции (0 - с начала списка).
+     * @param afterYear    Год последней книги предыдущей порции при сортировке по году (null - с начала списка).
+     * @param booksPerPage Количество книг в порции.
+     * @param sortByYear   Флаг сортировки по году выпуска.
+     * @return ETag и время последнего изменения порции.
+     */
+    public ResourceVersion getKeysetVersion(int afterId, Integer afterYear, int booksPerPage, boolean sortByYear) {
+        logger.info("Метод getKeysetVersion() вызван с параметрами: afterId = {}, afterYear = {}, booksPerPage = {}, sortByYear = {}",
+                afterId, afterYear, booksPerPage, sortByYear);
         if(sortByYear) {
-            return bookRepository.findAll(PageRequest.of(page, booksPerPage, Sort.by("year"))).getContent();
+            int year = afterYear == null ? Integer.MIN_VALUE : afterYear;
+            return rowsVersion(bookRepository.findNextVersionsByYear(year, afterId, PageRequest.of(0, booksPerPage, Sort.by("year", "id"))));
         }
         else {
-            return bookRepository.findAll(PageRequest.of(page,booksPerPage)).getContent();
+            return rowsVersion(bookRepository.findVersionsByIdGreaterThan(afterId, PageRequest.of(0, booksPerPage, Sort.by("id"))));
+        }
+    }
+
+    private static ResourceVersion rowsVersion(Slice<BookVersionView> slice) {
+        List<Object> parts = new ArrayList<>(2 * slice.getNumberOfElements() + 1);
+        Date lastModified = null;
+        for (BookVersionView book : slice) {
+            parts.add(book.getId());
+            parts.add(book.getVersion());
+            lastModified = ResourceVersion.latest(lastModified, book.getUpdatedAt());
         }
+        // от наличия следующей порции зависит ссылка «Следующая страница»
+        parts.add(slice.hasNext());
+        return ResourceVersion.of(lastModified, parts.toArray());
+    }
+
+    /**
+     * Получает версию полного списка книг ({@link #processAllBooks}) чтением одной строки {@link BookListVersion}
+     * по первичному ключу. Версия увеличивается в транзакции каждого добавления, изменения и удаления книги.
+     *
+     * @return ETag и время последнего изменения списка книг.
+     */
+    public ResourceVersion getAllBooksVersion() {
+        logger.info("Метод getAllBooksVersion() вызван");
+        return bookListVersionRepository.findById(BookListVersion.ID)
+                .map(list -> ResourceVersion.of(list.getUpdatedAt(), list.getVersion()))
+                .orElse(ResourceVersion.of(null, 0L));
+    }
+
+    /**
+     * Получает одним запросом версию страницы книги: книги и ее читателя.
+     *
+     * @param id Идентификатор книги.
+     * @return ETag и время последнего изменения страницы или null, если книга не найдена.
+     */
+    public ResourceVersion getBookPageVersion(int id) {
+        logger.info("Метод getBookPageVersion() вызван с параметром id = {}", id);
+        return bookRepository.findPageVersionById(id)
+                .map(page -> ResourceVersion.of(ResourceVersion.latest(page.getUpdatedAt(), page.getReaderUpdatedAt()),
+                        page.getVersion(), page.getReaderId(), page.getReaderVersion()))
+                .orElse(null);
+    }
+
+    /**
+     * Получает порцию книг, следующую за указанной позицией (keyset-пагинация).
+     * В отличие от {@link #findWithPagination} не использует OFFSET и не выполняет запрос COUNT,
+     * поэтому стоимость запроса не растет с глубиной прокрутки.
+     *
+     * @param afterId      Идентификатор последней книги предыдущей порции (0 - с начала списка).
+     * @param afterYear    Год последней книги предыдущей порции; учитывается только при сортировке по году
+     *                     (null - с начала списка).
+     * @param booksPerPage Количество книг в порции.
+     * @param sortByYear   Флаг сортировки по году выпуска (при равном годе - по id).
+     * @return Порция книг с признаком наличия следующей порции.
+     */
+    public Slice<BookView> findWithKeyset(int afterId, Integer afterYear, int booksPerPage, boolean sortByYear) {
+        logger.info("Метод findWithKeyset() вызван с параметрами: afterId = {}, afterYear = {}, booksPerPage = {}, sortByYear = {}",
+                afterId, afterYear, booksPerPage, sortByYear);
+        if(sortByYear) {
+            int year = afterYear == null ? Integer.MIN_VALUE : afterYear;
+            return bookRepository.findNextByYear(year, afterId, PageRequest.of(0, booksPerPage, Sort.by("year", "id")));
+        }
+        else {
+            return bookRepository.findByIdGreaterThan(afterId, PageRequest.of(0, booksPerPage, Sort.by("id")));
+        }
+    }
+
+    /**
+     * Получает страницу отчета о просроченных книгах всех читателей.
+     *
+     * @param page         Номер страницы, нумерация начинается с 0.
+     * @param booksPerPage Количество книг на странице.
+     * @return Страница просроченных книг (от самых давно взятых) с признаком наличия следующей страницы.
+     */
+    public Slice<OverdueBookView> findOverdueBooks(int page, int booksPerPage) {
+        logger.info("Метод findOverdueBooks() вызван с параметрами: page = {}, booksPerPage = {}", page, booksPerPage);
+        return bookRepository.findOverdue(loanPolicy.overdueBefore(), PageRequest.of(page, booksPerPage));
     }
 
     /**
@@ -83,14 +325,62 @@ public class BookService {
     }
 
     /**
-     * Выполняет поиск книг по начальной части заголовка.
+     * Находит книгу вместе с читателем одним запросом для страницы книги.
+     *
+     * @param id Идентификатор книги.
+     * @return Книга с загруженным читателем (null, если книга свободна) или null, если книга не найдена.
+     */
+    public Book findBookWithReader(int id) {
+        logger.info("Метод findBookWithReader() вызван с параметром id = {}", id);
+        return bookRepository.findWithReaderById(id).orElse(null);
+    }
+
+    /**
+     * Выполняет поиск книг по начальной части заголовка без учета регистра.
+     * Идентификаторы подходящих книг берутся из индекса названий в памяти, из базы загружаются только найденные книги.
+     * Пока индекс не построен, поиск выполняется запросом к базе по началу названия в нижнем регистре.
      *
      * @param query Строка, по которой выполняется поиск начальной части заголовка книги.
-     * @return Список книг, заголовок которых начинается с указанной строки `query`.
+     * @return Список книг (вместе с ФИО читателя), заголовок которых начинается с указанной строки `query`,
+     *         не больше search.max_results книг.
      */
-    public List<Book> searchByTitle(String query) {
+    public List<BookSearchView> searchByTitle(String query) {
         logger.info("Метод searchByTitle() вызван с параметром query = {}", query);
-        return bookRepository.findByTitleStartingWith(query);
+        if(!titleIndex.isReady())
+            return bookRepository.findByTitleStartingWith(TitleIndex.normalize(query),
+                    PageRequest.of(0, searchMaxResults));
+
+        List<Integer> ids = titleIndex.findIdsByPrefix(query, searchMaxResults);
+        if(ids.isEmpty())
+            return Collections.emptyList();
+
+        // восстанавливаем порядок индекса (по названию)
+        Map<Integer, BookSearchView> booksById = new HashMap<>();
+        bookRepository.findSearchViewsByIdIn(ids).forEach(book -> booksById.put(book.getId(), book));
+        List<BookSearchView> books = new ArrayList<>(ids.size());
+        for(Integer id : ids) {
+            BookSearchView book = booksById.get(id);
+            if(book != null)
+                books.add(book);
+        }
+        return books;
+    }
+
+    /**
+     * Перестраивает индекс названий книг по данным из базы.
+     *
+     * @return Отчет о размере построенного индекса.
+     */
+    public String rebuildTitleIndex() {
+        logger.info("Метод rebuildTitleIndex() вызван");
+        return titleIndex.rebuild();
+    }
+
+    /**
+     * @return Отчет о количестве записей и оценке памяти, занимаемой индексом названий.
+     */
+    public String getTitleIndexReport() {
+        return titleIndex.getMemoryReport();
     }
 
     /**
@@ -102,54 +392,193 @@ public class BookService {
     public void saveBook(Book book) {
         logger.info("Метод saveBook() вызван с объектом Book: {}", book);
         bookRepository.save(book);
+        bookListVersionRepository.increment();
+        titleIndex.putAfterCommit(book.getId(), book.getTitle());
+        catalogueVersion.bumpAfterCommit();
+    }
+
+    /**
+     * Обновляет все поля формы книги (название, автор и год), как {@link #updateBook(int, Book, Book)}
+     * без исходных значений формы.
+     *
+     * @param id           Идентификатор книги, которую нужно обновить.
+     * @param updatedBook  Обновленная информация о книге (название, автор и год).
+     * @return true, если книга изменена, false, если книга не найдена или ее поля не изменились.
+     */
+    @Transactional
+    public boolean updateBook(int id, Book updatedBook) {
+        return updateBook(id, null, updatedBook);
     }
 
     /**
-     * Обновляет информацию о книге в репозитории.
+     * Обновляет информацию о книге одним запросом UPDATE, не читая книгу перед изменением. В запрос попадают только
+     * поля, значения которых отличаются от исходных значений формы. Читатель и дата выдачи книги не затрагиваются.
      *
      * @param id           Идентификатор книги, которую нужно обновить.
-     * @param updatedBook  Обновленная информация о книге.
+     * @param original     Значения полей, с которыми форма была открыта, или null - тогда записываются все поля формы.
+     * @param updatedBook  Обновленная информация о книге (название, автор и год).
+     * @return true, если книга изменена, false, если книга не найдена или ее поля не изменились.
      */
     @Transactional
-    public void updateBook(int id, Book updatedBook) {
-        logger.info("Метод updateBook() вызван с параметрами: id = {}, updatedBook = {}", id, updatedBook);
-        Book bookToBeUpdated = bookRepository.findById(id).get();
-        updatedBook.setId(id);
-        updatedBook.setReader(bookToBeUpdated.getReader());
+    public boolean updateBook(int id, Book original, Book updatedBook) {
+        logger.info("Метод updateBook() вызван с параметрами: id = {}, original = {}, updatedBook = {}",
+                id, original, updatedBook);
+        // форма не передает версию, поэтому изменение применяется поверх текущей версии книги
+        boolean updated = bookRepository.updateDetails(id, changed(original, updatedBook, Book::getTitle),
+                changed(original, updatedBook, Book::getAuthor), changed(original, updatedBook, Book::getYear),
+                new Date()) == 1;
+        if (updated) {
+            bookListVersionRepository.increment();
+            titleIndex.putAfterCommit(id, updatedBook.getTitle());
+            catalogueVersion.bumpAfterCommit();
+        }
+        return updated;
+    }
 
-        bookRepository.save(updatedBook);
+    /**
+     * @return Значение поля из формы или null, если оно совпадает с исходным значением.
+     */
+    private static <T> T changed(Book original, Book updated, Function<Book, T> field) {
+        T value = field.apply(updated);
+        return original != null && Objects.equals(field.apply(original), value) ? null : value;
     }
 
     @Transactional
     public void deleteBook(int id) {
         logger.info("Метод deleteBook() вызван с параметром id = {}", id);
         bookRepository.deleteById(id);
+        bookListVersionRepository.increment();
+        titleIndex.removeAfterCommit(id);
+        catalogueVersion.bumpAfterCommit();
     }
 
-    public Person getBookReader(int id) {
-        logger.info("Метод getBookReader() вызван с параметром id = {}", id);
-        return bookRepository.findById(id).map(Book::getReader).orElse(null);
-    }
-
-    //освобождаем книгу
+    /**
+     * Освобождает книгу и записывает возврат в журнал выдач. Держатель книги читается с блокировкой строки,
+     * поэтому в журнал попадает именно тот читатель, у которого книгу забрал условный запрос UPDATE.
+     *
+     * @param id Идентификатор книги.
+     * @return true, если книга освобождена, false, если книга не найдена или уже была свободна.
+     */
     @Transactional
-    public void release(int id) {
+    public boolean release(int id) {
         logger.info("Метод release() вызван с параметром id = {}", id);
-        bookRepository.findById(id).ifPresent(
-                book -> {
-                    book.setReader(null);
-                    book.setTakenAt(null);
-                });
+        List<BookHolderView> holders = bookRepository.findHoldersForUpdateByIdIn(List.of(id));
+        if (holders.isEmpty() || holders.get(0).getReaderId() == null)
+            return false;
+        Date releasedAt = new Date();
+        boolean released = bookRepository.releaseIfTaken(id, releasedAt) == 1;
+        if (released) {
+            loanHistory.recordReturns(holders, releasedAt);
+            catalogueVersion.bumpAfterCommit();
+        }
+        return released;
     }
-    //назначает книгу
+
+    /**
+     * Выдает книгу читателю условным запросом UPDATE и записывает выдачу в журнал выдач в той же транзакции.
+     * Если книгу одновременно выдают несколько библиотекарей, успешной будет только одна выдача,
+     * остальные получат false.
+     *
+     * @param id             Идентификатор книги.
+     * @param selectedPerson Читатель, которому выдается книга (достаточно заполненного id).
+     * @return true, если книга выдана, false, если книга не найдена или уже выдана другому читателю.
+     */
     @Transactional
-    public void assign(int id, Person selectedPerson) {
+    public boolean assign(int id, Person selectedPerson) {
         logger.info("Метод assign() вызван с параметрами: id = {}, selectedPerson = {}", id, selectedPerson);
-        bookRepository.findById(id).ifPresent(
-                book -> {
-                    book.setReader(selectedPerson);
-                    book.setTakenAt(new Date());
-                }
-        );
+        Date takenAt = new Date();
+        boolean assigned = bookRepository.assignIfFree(id, selectedPerson, takenAt) == 1;
+        if (assigned) {
+            loanHistory.recordCheckouts(List.of(id), selectedPerson.getId(), takenAt);
+            catalogueVersion.bumpAfterCommit();
+        } else
+            logger.warn("Книга id = {} не выдана: она не найдена или уже выдана другому читателю", id);
+        return assigned;
+    }
+
+    /**
+     * Выдает читателю несколько книг в одной транзакции одним запросом UPDATE. Держатели читаются с блокировкой
+     * строк, как при возврате, поэтому выдаются ровно те книги, которые были свободны: книги, уже выданные
+     * (в том числе этому же читателю или одновременно другим библиотекарем), не затрагиваются.
+     * Выданные книги записываются в журнал выдач пакетной вставкой.
+     *
+     * @param bookIds        Идентификаторы книг.
+     * @param selectedPerson Читатель, которому выдаются книги (достаточно заполненного id).
+     * @return Результат по каждой книге в порядке переданных идентификаторов.
+     */
+    @Transactional
+    public Map<Integer, LoanStatus> assignAll(Collection<Integer> bookIds, Person selectedPerson) {
+        logger.info("Метод assignAll() вызван с параметрами: bookIds = {}, selectedPerson = {}", bookIds, selectedPerson);
+        Set<Integer> ids = new LinkedHashSet<>(bookIds);
+        Map<Integer, LoanStatus> results = new LinkedHashMap<>();
+        if (ids.isEmpty())
+            return results;
+
+        Map<Integer, BookHolderView> holders = new HashMap<>();
+        List<Integer> free = new ArrayList<>();
+        for (BookHolderView holder : bookRepository.findHoldersForUpdateByIdIn(ids)) {
+            holders.put(holder.getId(), holder);
+            if (holder.getReaderId() == null)
+                free.add(holder.getId());
+        }
+        if (!free.isEmpty()) {
+            Date takenAt = new Date();
+            bookRepository.assignAllIfFree(free, selectedPerson, takenAt);
+            loanHistory.recordCheckouts(free, selectedPerson.getId(), takenAt);
+            catalogueVersion.bumpAfterCommit();
+        }
+        for (Integer id : ids) {
+            BookHolderView holder = holders.get(id);
+            if (holder == null)
+                results.put(id, LoanStatus.MISSING);
+            else if (holder.getReaderId() == null)
+                results.put(id, LoanStatus.ASSIGNED);
+            else
+                results.put(id, LoanStatus.ALREADY_TAKEN);
+        }
+        return results;
+    }
+
+    /**
+     * Освобождает несколько книг читателя в одной транзакции одним запросом UPDATE. Держатели читаются
+     * с блокировкой строк, поэтому результат и записи о возврате в журнале выдач точно соответствуют изменению.
+     * Если ни одной книги читателя в списке нет, запрос UPDATE не выполняется и версия каталога не меняется.
+     *
+     * @param bookIds  Идентификаторы книг.
+     * @param personId Идентификатор читателя, у которого находятся книги.
+     * @return Результат по каждой книге в порядке переданных идентификаторов.
+     */
+    @Transactional
+    public Map<Integer, LoanStatus> releaseAll(Collection<Integer> bookIds, int personId) {
+        logger.info("Метод releaseAll() вызван с параметрами: bookIds = {}, personId = {}", bookIds, personId);
+        Set<Integer> ids = new LinkedHashSet<>(bookIds);
+        Map<Integer, LoanStatus> results = new LinkedHashMap<>();
+        if (ids.isEmpty())
+            return results;
+
+        Map<Integer, BookHolderView> holders = new HashMap<>();
+        List<BookHolderView> released = new ArrayList<>();
+        for (BookHolderView holder : bookRepository.findHoldersForUpdateByIdIn(ids)) {
+            holders.put(holder.getId(), holder);
+            if (Integer.valueOf(personId).equals(holder.getReaderId()))
+                released.add(holder);
+        }
+        for (Integer id : ids) {
+            BookHolderView holder = holders.get(id);
+            if (holder == null)
+                results.put(id, LoanStatus.MISSING);
+            else if (Integer.valueOf(personId).equals(holder.getReaderId()))
+                results.put(id, LoanStatus.RELEASED);
+            else
+                results.put(id, LoanStatus.NOT_HELD);
+        }
+        if (released.isEmpty())
+            return results;
+
+        Date releasedAt = new Date();
+        bookRepository.releaseAllHeldBy(ids, personId, releasedAt);
+        loanHistory.recordReturns(released, releasedAt);
+        catalogueVersion.bumpAfterCommit();
+        return results;
     }
 }
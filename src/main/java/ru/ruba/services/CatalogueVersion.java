@@ -0,0 +1,44 @@
+package ru.ruba.services;
+
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Номер версии данных каталога: книг, читателей и выдач. Увеличивается после фиксации каждой изменяющей их
+ * транзакции и входит в ключ кэша отрисованных фрагментов страниц, поэтому после изменения старые фрагменты
+ * перестают находиться и вытесняются.
+ * <p>
+ * Версия увеличивается именно после фиксации: фрагмент, отрисованный по данным до фиксации, не может попасть
+ * в кэш под новой версией.
+ */
+@Component
+public class CatalogueVersion {
+
+    private final AtomicLong version = new AtomicLong();
+
+    /**
+     * @return Текущая версия данных каталога.
+     */
+    public long current() {
+        return version.get();
+    }
+
+    /**
+     * Увеличивает версию после фиксации текущей транзакции (или сразу, если транзакции нет).
+     */
+    public void bumpAfterCommit() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    version.incrementAndGet();
+                }
+            });
+        } else {
+            version.incrementAndGet();
+        }
+    }
+}
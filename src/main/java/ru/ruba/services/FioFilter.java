@@ -0,0 +1,185 @@
+package ru.ruba.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ruba.repositories.PeopleRepository;
+import ru.ruba.util.BloomFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Фильтр Блума по ФИО всех читателей: если фильтр отвечает «точно нет», ФИО свободно и база не опрашивается.
+ * Ответ «возможно есть» проверяется запросом к базе.
+ * <p>
+ * Новые ФИО добавляются после фиксации транзакции. Удалить значение из фильтра Блума нельзя, поэтому удаленные
+ * и измененные ФИО остаются в нем (это дает только лишние запросы к базе), а фильтр перестраивается в фоне,
+ * когда таких записей становится слишком много или количество ФИО превышает расчетную емкость.
+ */
+@Component
+public class FioFilter {
+
+    private static final Logger logger = LoggerFactory.getLogger(FioFilter.class);
+
+    private final PeopleRepository peopleRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final long minCapacity;
+
+    private final double falsePositiveProbability;
+
+    private volatile BloomFilter filter;
+
+    private final LongAdder staleEntries = new LongAdder();
+
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    private final Queue<String> addedDuringRebuild = new ConcurrentLinkedQueue<>();
+
+    @Autowired
+    public FioFilter(PeopleRepository peopleRepository, PlatformTransactionManager transactionManager,
+                     @Value("${people.fio_filter.min_capacity:100000}") long minCapacity,
+                     @Value("${people.fio_filter.false_positive_probability:0.01}") double falsePositiveProbability) {
+        this.peopleRepository = peopleRepository;
+        // фильтр строится по основной базе: реплика может еще не содержать только что добавленных читателей
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // отдельная пишущая транзакция: вызов из читающей транзакции сервиса иначе присоединился бы к ней
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.minCapacity = minCapacity;
+        this.falsePositiveProbability = falsePositiveProbability;
+    }
+
+    /**
+     * @param fio ФИО читателя.
+     * @return false, если читателя с таким ФИО точно нет; true, если он возможно есть или фильтр еще не построен.
+     */
+    public boolean mightContain(String fio) {
+        BloomFilter current = filter;
+        return current == null || current.mightContain(fio);
+    }
+
+    /**
+     * Добавляет ФИО в фильтр после фиксации текущей транзакции.
+     *
+     * @param fio ФИО нового или измененного читателя.
+     */
+    public void putAfterCommit(String fio) {
+        afterCommit(() -> put(fio));
+    }
+
+    /**
+     * Учитывает, что одно из ФИО в фильтре больше не принадлежит ни одному читателю (читатель удален или переименован).
+     */
+    public void recordStaleAfterCommit() {
+        recordStaleAfterCommit(1);
+    }
+
+    /**
+     * Учитывает, что несколько ФИО в фильтре больше не принадлежат ни одному читателю (читатели удалены).
+     *
+     * @param count Количество устаревших ФИО.
+     */
+    public void recordStaleAfterCommit(int count) {
+        afterCommit(() -> {
+            staleEntries.add(count);
+            rebuildIfDegraded();
+        });
+    }
+
+    /**
+     * Перестраивает фильтр по всем ФИО из базы. Проверки во время перестройки продолжают работать по прежнему фильтру.
+     *
+     * @return Отчет о построенном фильтре.
+     */
+    public String rebuild() {
+        if (!rebuilding.compareAndSet(false, true))
+            return "Фильтр ФИО уже перестраивается";
+        long start = System.nanoTime();
+        try {
+            BloomFilter rebuilt = transactionTemplate.execute(status -> {
+                BloomFilter bloom = new BloomFilter(Math.max(minCapacity, 2 * peopleRepository.count()),
+                        falsePositiveProbability);
+                try (Stream<String> fios = peopleRepository.streamAllFio()) {
+                    fios.forEach(bloom::put);
+                }
+                return bloom;
+            });
+            long stale = staleEntries.sum();
+            filter = rebuilt;
+            staleEntries.add(-stale);
+            // ФИО, добавленные после начала чтения, могли не попасть в выборку
+            for (String fio; (fio = addedDuringRebuild.poll()) != null; )
+                rebuilt.put(fio);
+        } finally {
+            rebuilding.set(false);
+        }
+        logger.info("Фильтр ФИО перестроен за {} мс: {}", (System.nanoTime() - start) / 1_000_000, getReport());
+        return getReport();
+    }
+
+    /**
+     * @return Текстовый отчет: емкость, количество ФИО, размер и расчетная доля ложноположительных ответов.
+     */
+    public String getReport() {
+        BloomFilter current = filter;
+        if (current == null)
+            return "ready=false";
+        double load = (double) current.getInsertions() / current.getBitCount();
+        double expectedFpp = Math.pow(1 - Math.exp(-current.getHashCount() * load), current.getHashCount());
+        return String.format(Locale.ROOT, "ready=true capacity=%d entries=%d stale=%d bits=%d (%.1f KiB) hashes=%d expectedFpp=%.4f",
+                current.getCapacity(), current.getInsertions(), staleEntries.sum(), current.getBitCount(),
+                current.getBitCount() / 8 / 1024.0, current.getHashCount(), expectedFpp);
+    }
+
+    private void put(String fio) {
+        if (rebuilding.get())
+            addedDuringRebuild.add(fio);
+        BloomFilter current = filter;
+        if (current == null)
+            return;
+        current.put(fio);
+        rebuildIfDegraded();
+    }
+
+    private void rebuildIfDegraded() {
+        BloomFilter current = filter;
+        if (current == null || rebuilding.get())
+            return;
+        long entries = current.getInsertions();
+        if (entries <= current.getCapacity() && staleEntries.sum() * 4 <= entries)
+            return;
+        Thread.ofVirtual().name("fio-filter-rebuild").start(() -> {
+            try {
+                rebuild();
+            } catch (RuntimeException e) {
+                logger.error("Не удалось перестроить фильтр ФИО", e);
+            }
+        });
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
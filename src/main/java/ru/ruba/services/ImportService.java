@@ -0,0 +1,347 @@
+package ru.ruba.services;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
+import jakarta.persistence.PersistenceException;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.exception.ConstraintViolationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ruba.dto.ImportReport;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.repositories.BookListVersionRepository;
+import ru.ruba.util.CsvReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Массовый импорт книг и читателей из CSV- и JSON-файлов.
+ * Файл читается потоково, каждая строка проверяется ограничениями Bean Validation,
+ * корректные строки сохраняются пакетами по hibernate.jdbc.batch_size, каждый пакет в своей транзакции:
+ * большой файл не держит одну долгую транзакцию, а сохраненные пакеты остаются в базе при ошибке в следующих.
+ * Если пакет нарушил ограничение базы (например, уникальность ФИО, занятого параллельно), его строки
+ * сохраняются по одной, и нарушившая ограничение строка попадает в отчет как ошибка.
+ */
+@Service
+@Transactional(readOnly = true)
+public class ImportService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ImportService.class);
+
+    private final Validator validator;
+
+    private final TitleIndex titleIndex;
+
+    private final PeopleService peopleService;
+
+    private final FioFilter fioFilter;
+
+    private final CatalogueVersion catalogueVersion;
+
+    private final BookListVersionRepository bookListVersionRepository;
+
+    private final int batchSize;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    public ImportService(Validator validator, TitleIndex titleIndex, PeopleService peopleService, FioFilter fioFilter,
+                         CatalogueVersion catalogueVersion, BookListVersionRepository bookListVersionRepository,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${hibernate.jdbc.batch_size:50}") int batchSize) {
+        this.validator = validator;
+        this.titleIndex = titleIndex;
+        this.peopleService = peopleService;
+        this.fioFilter = fioFilter;
+        this.catalogueVersion = catalogueVersion;
+        this.bookListVersionRepository = bookListVersionRepository;
+        this.batchSize = Math.max(1, batchSize);
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Импортирует книги из файла. CSV-файл должен начинаться со строки заголовка с колонками title, author, year;
+     * JSON-файл - массив объектов с полями title, author, year.
+     *
+     * @param input Содержимое файла.
+     * @param json  true - файл в формате JSON, false - в формате CSV.
+     * @return Отчет об импорте с ошибками по строкам.
+     * @throws IOException Если не удалось прочитать файл.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImportReport importBooks(InputStream input, boolean json) throws IOException {
+        logger.info("Метод importBooks() вызван, формат: {}", json ? "JSON" : "CSV");
+        return importRows(input, json, Book.class,
+                row -> new Book(row.get("title"), row.get("author"), parseInt(row.get("year"), "year")),
+                book -> {
+                    book.setId(0);
+                    book.setReader(null);
+                    book.setTakenAt(null);
+                    book.setVersion(0);
+                },
+                book -> null,
+                books -> {
+                    Map<Integer, String> titles = new HashMap<>();
+                    for (Book book : books)
+                        titles.put(book.getId(), book.getTitle());
+                    bookListVersionRepository.increment();
+                    titleIndex.putAllAfterCommit(titles);
+                    catalogueVersion.bumpAfterCommit();
+                });
+    }
+
+    /**
+     * Импортирует читателей из файла. CSV-файл должен начинаться со строки заголовка с колонками fio, year_of_birth, email;
+     * JSON-файл - массив объектов с полями fio, year_of_birth, email.
+     *
+     * @param input Содержимое файла.
+     * @param json  true - файл в формате JSON, false - в формате CSV.
+     * @return Отчет об импорте с ошибками по строкам.
+     * @throws IOException Если не удалось прочитать файл.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImportReport importPeople(InputStream input, boolean json) throws IOException {
+        logger.info("Метод importPeople() вызван, формат: {}", json ? "JSON" : "CSV");
+        Set<String> importedFios = new HashSet<>();
+        return importRows(input, json, Person.class,
+                row -> new Person(row.get("fio"), parseInt(row.get("year_of_birth"), "year_of_birth"), row.get("email")),
+                person -> {
+                    person.setId(0);
+                    person.setBooks(null);
+                    person.setVersion(0);
+                },
+                // ФИО уникально: повтор внутри файла проверяется по множеству принятых строк, а в базе - через
+                // фильтр ФИО, поэтому для большинства строк запрос к базе не выполняется
+                person -> !importedFios.add(person.getFio()) || peopleService.existsByFio(person.getFio())
+                        ? "fio: Человек с таким ФИО уже существует" : null,
+                people -> {
+                    for (Person person : people)
+                        fioFilter.putAfterCommit(person.getFio());
+                    catalogueVersion.bumpAfterCommit();
+                });
+    }
+
+    /**
+     * Строка файла, прошедшая проверки и ожидающая сохранения в пакете.
+     */
+    private record Row<T>(int number, T entity) {
+    }
+
+    /**
+     * Пакет строк, сохраняемый в одной транзакции.
+     *
+     * @param reset     Сбрасывает идентификатор и служебные поля сущности (строка JSON или повторное сохранение
+     *                  после отката пакета).
+     * @param afterSave Вызывается в транзакции пакета после записи строк в базу.
+     */
+    private record Batch<T>(List<Row<T>> rows, Consumer<T> reset, Consumer<List<T>> afterSave) {
+    }
+
+    private <T> ImportReport importRows(InputStream input, boolean json, Class<T> type,
+                                        Function<Map<String, String>, T> fromCsv,
+                                        Consumer<T> reset,
+                                        Function<T, String> findConflict,
+                                        Consumer<List<T>> afterSave) throws IOException {
+        long start = System.nanoTime();
+        ImportReport report = new ImportReport();
+        Batch<T> batch = new Batch<>(new ArrayList<>(batchSize), reset, afterSave);
+
+        if (json)
+            readJson(input, type, report, batch, findConflict);
+        else
+            readCsv(input, report, fromCsv, batch, findConflict);
+
+        save(report, batch);
+        report.setElapsedMillis((System.nanoTime() - start) / 1_000_000);
+        logger.info("Импорт {}: прочитано {}, сохранено {}, ошибок {}, {} строк/с", type.getSimpleName(),
+                report.getRowsRead(), report.getRowsImported(), report.getErrorCount(), report.getRowsPerSecond());
+        return report;
+    }
+
+    private <T> void readCsv(InputStream input, ImportReport report, Function<Map<String, String>, T> fromCsv,
+                             Batch<T> batch, Function<T, String> findConflict) throws IOException {
+        try (CsvReader csv = new CsvReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            List<String> header = csv.readRow();
+            if (header == null)
+                return;
+            List<String> columns = header.stream().map(column -> column.toLowerCase(Locale.ROOT)).toList();
+
+            List<String> fields;
+            while ((fields = csv.readRow()) != null) {
+                report.rowRead();
+                if (fields.size() != columns.size()) {
+                    report.addError(csv.getLineNumber(), "Ожидалось полей: " + columns.size() + ", получено: " + fields.size());
+                    continue;
+                }
+                Map<String, String> row = new HashMap<>();
+                for (int i = 0; i < columns.size(); i++)
+                    row.put(columns.get(i), fields.get(i));
+
+                T entity;
+                try {
+                    entity = fromCsv.apply(row);
+                } catch (IllegalArgumentException e) {
+                    report.addError(csv.getLineNumber(), e.getMessage());
+                    continue;
+                }
+                accept(report, csv.getLineNumber(), entity, batch, findConflict);
+            }
+        }
+    }
+
+    private <T> void readJson(InputStream input, Class<T> type, ImportReport report, Batch<T> batch,
+                              Function<T, String> findConflict) throws IOException {
+        try (MappingIterator<T> iterator = objectMapper.readerFor(type).readValues(input)) {
+            int row = 0;
+            while (true) {
+                T entity;
+                try {
+                    if (!iterator.hasNextValue())
+                        break;
+                    row++;
+                    report.rowRead();
+                    entity = iterator.nextValue();
+                } catch (JsonParseException e) {
+                    // после синтаксической ошибки продолжить чтение файла невозможно
+                    report.addError(row, "Некорректный JSON: " + e.getOriginalMessage());
+                    break;
+                } catch (JsonMappingException e) {
+                    report.addError(row, e.getOriginalMessage());
+                    continue;
+                }
+                batch.reset().accept(entity);
+                accept(report, row, entity, batch, findConflict);
+            }
+        }
+    }
+
+    private <T> void accept(ImportReport report, int row, T entity, Batch<T> batch, Function<T, String> findConflict) {
+        Set<ConstraintViolation<T>> violations = validator.validate(entity);
+        if (!violations.isEmpty()) {
+            report.addError(row, violations.stream()
+                    .map(violation -> violation.getPropertyPath() + ": " + violation.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+            return;
+        }
+        String conflict = findConflict.apply(entity);
+        if (conflict != null) {
+            report.addError(row, conflict);
+            return;
+        }
+
+        batch.rows().add(new Row<>(row, entity));
+        if (batch.rows().size() >= batchSize)
+            save(report, batch);
+    }
+
+    /**
+     * Сохраняет накопленные строки пакета в одной транзакции. Если запись пакета не удалась (нарушено ограничение
+     * базы), транзакция откатывается, и строки сохраняются по одной: ошибку получают только строки, которые
+     * не удается сохранить и по отдельности.
+     */
+    private <T> void save(ImportReport report, Batch<T> batch) {
+        List<Row<T>> rows = List.copyOf(batch.rows());
+        batch.rows().clear();
+        if (rows.isEmpty())
+            return;
+        try {
+            saveInTransaction(batch, rows);
+            for (int i = 0; i < rows.size(); i++)
+                report.rowImported();
+            return;
+        } catch (PersistenceException | DataAccessException e) {
+            logger.warn("Пакет из {} строк (строки {}-{}) не сохранен, строки сохраняются по одной: {}", rows.size(),
+                    rows.get(0).number(), rows.get(rows.size() - 1).number(), rootMessage(e));
+        }
+        for (Row<T> row : rows) {
+            try {
+                saveInTransaction(batch, List.of(row));
+                report.rowImported();
+            } catch (PersistenceException | DataAccessException e) {
+                report.addError(row.number(), "Строка не сохранена: " + describe(e));
+            }
+        }
+    }
+
+    private <T> void saveInTransaction(Batch<T> batch, List<Row<T>> rows) {
+        transactionTemplate.executeWithoutResult(status -> {
+            // импортируемые строки не нужны в кэше второго уровня
+            entityManager.unwrap(Session.class).setCacheMode(CacheMode.IGNORE);
+            List<T> entities = new ArrayList<>(rows.size());
+            for (Row<T> row : rows) {
+                // после отката пакета у сущности остается выданный ей идентификатор
+                batch.reset().accept(row.entity());
+                entityManager.persist(row.entity());
+                entities.add(row.entity());
+            }
+            entityManager.flush();
+            batch.afterSave().accept(entities);
+        });
+    }
+
+    /**
+     * @return Для нарушения ограничения - имя ограничения (индекса) базы, иначе сообщение исходной ошибки.
+     */
+    private static String describe(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConstraintViolationException violation) {
+                String constraint = violation.getConstraintName();
+                return constraint == null ? "нарушено ограничение базы"
+                        : "нарушено ограничение базы " + constraint.split("\\s", 2)[0].toLowerCase(Locale.ROOT);
+            }
+        }
+        return rootMessage(e);
+    }
+
+    private static String rootMessage(Throwable e) {
+        Throwable cause = e;
+        while (cause.getCause() != null && cause.getCause() != cause)
+            cause = cause.getCause();
+        return cause.getMessage();
+    }
+
+    private static int parseInt(String value, String column) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(column + ": ожидалось целое число, получено '" + value + "'");
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package ru.ruba.services;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.ruba.dto.BookHolderView;
+import ru.ruba.dto.BookLoanCountView;
+import ru.ruba.dto.LoanEventView;
+import ru.ruba.dto.LoanHistoryPage;
+import ru.ruba.models.LoanEvent;
+import ru.ruba.repositories.LoanEventRepository;
+
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Журнал выдач и возвратов книг. Записи добавляются в транзакции самой выдачи или возврата и попадают в базу
+ * пакетами по hibernate.jdbc.batch_size при сбросе контекста, поэтому массовая выдача не делает по вставке на книгу.
+ * <p>
+ * Запросы истории всегда ограничены интервалом времени: по умолчанию последние loan_history.query_days дней.
+ */
+@Service
+@Transactional(readOnly = true)
+public class LoanHistoryService {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoanHistoryService.class);
+
+    private final LoanEventRepository loanEventRepository;
+
+    private final int maxResults;
+
+    private final int queryDays;
+
+    @Autowired
+    public LoanHistoryService(LoanEventRepository loanEventRepository,
+                              @Value("${search.max_results:50}") int maxResults,
+                              @Value("${loan_history.query_days:365}") int queryDays) {
+        this.loanEventRepository = loanEventRepository;
+        this.maxResults = maxResults;
+        this.queryDays = queryDays;
+    }
+
+    /**
+     * Записывает выдачу книг читателю. Вызывается только внутри транзакции выдачи.
+     *
+     * @param bookIds  Идентификаторы выданных книг.
+     * @param personId Идентификатор читателя.
+     * @param takenAt  Время выдачи, записанное в книги.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordCheckouts(Collection<Integer> bookIds, int personId, Date takenAt) {
+        List<LoanEvent> events = new ArrayList<>(bookIds.size());
+        for (Integer bookId : bookIds)
+            events.add(new LoanEvent(bookId, personId, LoanEvent.Type.CHECKOUT, takenAt));
+        loanEventRepository.saveAll(events);
+    }
+
+    /**
+     * Записывает возврат книг. Вызывается только внутри транзакции возврата, после того как строки книг
+     * заблокированы и их держатели прочитаны; свободные книги (readerId == null) пропускаются.
+     *
+     * @param holders    Держатели книг до возврата.
+     * @param releasedAt Время возврата, записанное в книги.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void recordReturns(Collection<BookHolderView> holders, Date releasedAt) {
+        List<LoanEvent> events = new ArrayList<>(holders.size());
+        for (BookHolderView holder : holders) {
+            if (holder.getReaderId() != null)
+                events.add(new LoanEvent(holder.getId(), holder.getReaderId(), LoanEvent.Type.RETURN, releasedAt));
+        }
+        loanEventRepository.saveAll(events);
+    }
+
+    /**
+     * Получает страницу истории выдач книги от новых записей к старым.
+     *
+     * @param bookId   Идентификатор книги.
+     * @param from     Начало интервала; null - loan_history.query_days дней до before.
+     * @param before   Время последней записи предыдущей страницы (мс); null - текущий момент.
+     * @param beforeId Идентификатор последней записи предыдущей страницы; null - первая страница.
+     * @param size     Размер страницы (не больше search.max_results).
+     * @return Страница истории.
+     */
+    public LoanHistoryPage getBookHistory(int bookId, LocalDate from, Long before, Long beforeId, int size) {
+        logger.info("Вызван метод getBookHistory() с bookId = {}, from = {}, before = {}, beforeId = {}",
+                bookId, from, before, beforeId);
+        Date end = before == null ? new Date() : new Date(before);
+        Slice<LoanEventView> slice = loanEventRepository.findBookHistory(bookId, start(from, end), end,
+                beforeId == null ? Long.MAX_VALUE : beforeId, page(size));
+        return new LoanHistoryPage(slice.getContent(), slice.hasNext());
+    }
+
+    /**
+     * Получает страницу истории выдач читателя от новых записей к старым.
+     *
+     * @param personId Идентификатор читателя.
+     * @param from     Начало интервала; null - loan_history.query_days дней до before.
+     * @param before   Время последней записи предыдущей страницы (мс); null - текущий момент.
+     * @param beforeId Идентификатор последней записи предыдущей страницы; null - первая страница.
+     * @param size     Размер страницы (не больше search.max_results).
+     * @return Страница истории.
+     */
+    public LoanHistoryPage getPersonHistory(int personId, LocalDate from, Long before, Long beforeId, int size) {
+        logger.info("Вызван метод getPersonHistory() с personId = {}, from = {}, before = {}, beforeId = {}",
+                personId, from, before, beforeId);
+        Date end = before == null ? new Date() : new Date(before);
+        Slice<LoanEventView> slice = loanEventRepository.findPersonHistory(personId, start(from, end), end,
+                beforeId == null ? Long.MAX_VALUE : beforeId, page(size));
+        return new LoanHistoryPage(slice.getContent(), slice.hasNext());
+    }
+
+    /**
+     * Находит самые востребованные книги: по количеству выдач за период.
+     *
+     * @param from  Первый день периода; null - за месяц до to.
+     * @param to    День после периода; null - завтра (период включает сегодня).
+     * @param limit Количество книг в отчете (не больше search.max_results).
+     * @return Книги по убыванию количества выдач.
+     */
+    public List<BookLoanCountView> findMostBorrowed(LocalDate from, LocalDate to, int limit) {
+        logger.info("Вызван метод findMostBorrowed() с from = {}, to = {}, limit = {}", from, to, limit);
+        LocalDate end = to == null ? LocalDate.now().plusDays(1) : to;
+        LocalDate start = from == null ? end.minusMonths(1) : from;
+        return loanEventRepository.findMostBorrowed(toDate(start), toDate(end), page(limit));
+    }
+
+    private Date start(LocalDate from, Date end) {
+        return from != null ? toDate(from) : new Date(end.getTime() - queryDays * 86_400_000L);
+    }
+
+    private PageRequest page(int size) {
+        return PageRequest.of(0, Math.max(1, Math.min(size, maxResults)));
+    }
+
+    private static Date toDate(LocalDate date) {
+        return Date.from(date.atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+}
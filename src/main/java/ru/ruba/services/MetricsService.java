@@ -0,0 +1,169 @@
+package ru.ruba.services;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import ru.ruba.util.ConcurrencyLimitFilter;
+import ru.ruba.util.FragmentCache;
+import ru.ruba.util.MethodMetrics;
+import ru.ruba.util.PoolMetricsTrackerFactory;
+import ru.ruba.util.PrometheusTextWriter;
+import ru.ruba.util.ReplicaRoutingDataSource;
+
+/**
+ * Собирает метрики приложения в текстовом формате Prometheus: время вызова обработчиков, сервисов и репозиториев,
+ * счетчики Hibernate (запросы, загрузки сущностей, кэш второго уровня, сбросы контекста), состояние пулов соединений,
+ * маршрутизации между основной базой и репликами, ограничителя одновременно обрабатываемых запросов
+ * и кэша отрисованных фрагментов страниц.
+ */
+@Service
+public class MetricsService {
+
+    private final MethodMetrics methodMetrics;
+
+    private final PoolMetricsTrackerFactory poolMetrics;
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final ConcurrencyLimitFilter concurrencyLimit;
+
+    private final ReplicaRoutingDataSource routingDataSource;
+
+    private final FragmentCache fragmentCache;
+
+    @Autowired
+    public MetricsService(MethodMetrics methodMetrics, PoolMetricsTrackerFactory poolMetrics,
+                          EntityManagerFactory entityManagerFactory, ConcurrencyLimitFilter concurrencyLimit,
+                          ReplicaRoutingDataSource routingDataSource, FragmentCache fragmentCache) {
+        this.methodMetrics = methodMetrics;
+        this.poolMetrics = poolMetrics;
+        this.entityManagerFactory = entityManagerFactory;
+        this.concurrencyLimit = concurrencyLimit;
+        this.routingDataSource = routingDataSource;
+        this.fragmentCache = fragmentCache;
+    }
+
+    /**
+     * @return Все метрики приложения в текстовом формате Prometheus.
+     */
+    public String scrape() {
+        PrometheusTextWriter writer = new PrometheusTextWriter();
+        writeMethodMetrics(writer);
+        writeHibernateMetrics(writer);
+        writePoolMetrics(writer);
+        writeRoutingMetrics(writer);
+        writeConcurrencyLimitMetrics(writer);
+        writeFragmentCacheMetrics(writer);
+        return writer.toString();
+    }
+
+    private void writeMethodMetrics(PrometheusTextWriter writer) {
+        writer.header("library_method_duration_seconds", "histogram",
+                "Время вызова обработчиков HTTP-запросов, методов сервисов и репозиториев");
+        for (MethodMetrics.Timer timer : methodMetrics.getTimers())
+            writer.histogram("library_method_duration_seconds", timer.getDuration(),
+                    "layer", timer.getLayer(), "method", timer.getName());
+
+        writer.header("library_method_errors_total", "counter",
+                "Количество вызовов, завершившихся исключением или ответом 5xx");
+        for (MethodMetrics.Timer timer : methodMetrics.getTimers())
+            writer.sample("library_method_errors_total", timer.getErrors(),
+                    "layer", timer.getLayer(), "method", timer.getName());
+
+        writer.header("library_http_sql_statements_total", "counter",
+                "Количество SQL-запросов, выполненных при обработке HTTP-запросов");
+        for (MethodMetrics.Timer timer : methodMetrics.getTimers()) {
+            if ("http".equals(timer.getLayer()))
+                writer.sample("library_http_sql_statements_total", timer.getSqlStatements(), "method", timer.getName());
+        }
+    }
+
+    private void writeHibernateMetrics(PrometheusTextWriter writer) {
+        Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        if (!statistics.isStatisticsEnabled())
+            return;
+        counter(writer, "hibernate_sessions_opened_total", "Открытые сессии", statistics.getSessionOpenCount());
+        counter(writer, "hibernate_transactions_total", "Завершенные транзакции", statistics.getTransactionCount());
+        counter(writer, "hibernate_statements_prepared_total", "Подготовленные SQL-запросы", statistics.getPrepareStatementCount());
+        counter(writer, "hibernate_query_executions_total", "Выполненные запросы HQL и SQL", statistics.getQueryExecutionCount());
+        writer.header("hibernate_query_execution_max_seconds", "gauge", "Время самого медленного запроса")
+                .sample("hibernate_query_execution_max_seconds", statistics.getQueryExecutionMaxTime() / 1000.0);
+        counter(writer, "hibernate_entity_loads_total", "Загруженные сущности", statistics.getEntityLoadCount());
+        counter(writer, "hibernate_entity_fetches_total", "Сущности, догруженные отдельным запросом", statistics.getEntityFetchCount());
+        counter(writer, "hibernate_collection_loads_total", "Загруженные коллекции", statistics.getCollectionLoadCount());
+        counter(writer, "hibernate_flushes_total", "Сбросы контекста постоянства", statistics.getFlushCount());
+        counter(writer, "hibernate_second_level_cache_hits_total", "Попадания в кэш второго уровня", statistics.getSecondLevelCacheHitCount());
+        counter(writer, "hibernate_second_level_cache_misses_total", "Промахи кэша второго уровня", statistics.getSecondLevelCacheMissCount());
+        counter(writer, "hibernate_second_level_cache_puts_total", "Записи в кэш второго уровня", statistics.getSecondLevelCachePutCount());
+        counter(writer, "hibernate_query_cache_hits_total", "Попадания в кэш запросов", statistics.getQueryCacheHitCount());
+        counter(writer, "hibernate_query_cache_misses_total", "Промахи кэша запросов", statistics.getQueryCacheMissCount());
+    }
+
+    private void writePoolMetrics(PrometheusTextWriter writer) {
+        writer.header("hikaricp_connection_acquire_seconds", "histogram", "Время получения соединения из пула");
+        for (PoolMetricsTrackerFactory.PoolMetrics pool : poolMetrics.getPools())
+            writer.histogram("hikaricp_connection_acquire_seconds", pool.getAcquireTime(), "pool", pool.getPoolName());
+        writer.header("hikaricp_connection_usage_seconds", "histogram", "Время использования соединения до возврата в пул");
+        for (PoolMetricsTrackerFactory.PoolMetrics pool : poolMetrics.getPools())
+            writer.histogram("hikaricp_connection_usage_seconds", pool.getUsageTime(), "pool", pool.getPoolName());
+        writer.header("hikaricp_connection_timeouts_total", "counter", "Запросы соединения, не дождавшиеся свободного соединения");
+        for (PoolMetricsTrackerFactory.PoolMetrics pool : poolMetrics.getPools())
+            writer.sample("hikaricp_connection_timeouts_total", pool.getTimeouts(), "pool", pool.getPoolName());
+        writer.header("hikaricp_connections", "gauge", "Соединения пула по состоянию");
+        for (PoolMetricsTrackerFactory.PoolMetrics pool : poolMetrics.getPools()) {
+            writer.sample("hikaricp_connections", pool.getActiveConnections(), "pool", pool.getPoolName(), "state", "active");
+            writer.sample("hikaricp_connections", pool.getIdleConnections(), "pool", pool.getPoolName(), "state", "idle");
+            writer.sample("hikaricp_connections", pool.getPendingThreads(), "pool", pool.getPoolName(), "state", "pending");
+        }
+        writer.header("hikaricp_connections_max", "gauge", "Максимальный размер пула");
+        for (PoolMetricsTrackerFactory.PoolMetrics pool : poolMetrics.getPools())
+            writer.sample("hikaricp_connections_max", pool.getMaxConnections(), "pool", pool.getPoolName());
+    }
+
+    private void writeRoutingMetrics(PrometheusTextWriter writer) {
+        if (routingDataSource.getReplicas().isEmpty())
+            return;
+        writer.header("library_datasource_routes_total", "counter", "Соединения, выданные основной базой и репликами")
+                .sample("library_datasource_routes_total", routingDataSource.getPrimaryRoutes(), "target", "primary");
+        for (ReplicaRoutingDataSource.Replica replica : routingDataSource.getReplicas())
+            writer.sample("library_datasource_routes_total", replica.getRoutes(), "target", replica.getName());
+        counter(writer, "library_datasource_replica_fallbacks_total",
+                "Читающие транзакции, ушедшие в основную базу из-за недоступности реплик", routingDataSource.getFallbacks());
+        writer.header("library_datasource_replica_up", "gauge", "Исправность реплики по последней проверке");
+        for (ReplicaRoutingDataSource.Replica replica : routingDataSource.getReplicas())
+            writer.sample("library_datasource_replica_up", replica.isUp() ? 1 : 0, "replica", replica.getName());
+    }
+
+    private void writeConcurrencyLimitMetrics(PrometheusTextWriter writer) {
+        if (!concurrencyLimit.isEnabled())
+            return;
+        writer.header("library_requests_in_flight", "gauge", "Запросы, обрабатываемые в данный момент")
+                .sample("library_requests_in_flight", concurrencyLimit.getInFlight());
+        writer.header("library_requests_waiting", "gauge", "Запросы, ожидающие разрешения на обработку")
+                .sample("library_requests_waiting", concurrencyLimit.getWaiting());
+        writer.header("library_requests_limit", "gauge", "Максимальное количество одновременно обрабатываемых запросов")
+                .sample("library_requests_limit", concurrencyLimit.getMaxConcurrency());
+        counter(writer, "library_requests_rejected_total", "Запросы, отклоненные с ответом 503", concurrencyLimit.getRejected());
+    }
+
+    private void writeFragmentCacheMetrics(PrometheusTextWriter writer) {
+        if (!fragmentCache.isEnabled())
+            return;
+        counter(writer, "library_fragment_cache_hits_total", "Фрагменты страниц, взятые из кэша", fragmentCache.getHits());
+        counter(writer, "library_fragment_cache_misses_total", "Фрагменты страниц, отрисованные заново", fragmentCache.getMisses());
+        counter(writer, "library_fragment_cache_evictions_total",
+                "Фрагменты, удаленные из-за изменения данных или нехватки места", fragmentCache.getEvictions());
+        writer.header("library_fragment_cache_entries", "gauge", "Фрагменты в кэше")
+                .sample("library_fragment_cache_entries", fragmentCache.getEntries());
+        writer.header("library_fragment_cache_chars", "gauge", "Суммарный размер фрагментов в кэше, символов")
+                .sample("library_fragment_cache_chars", fragmentCache.getChars());
+        writer.header("library_fragment_cache_max_chars", "gauge", "Максимальный размер кэша фрагментов, символов")
+                .sample("library_fragment_cache_max_chars", fragmentCache.getMaxChars());
+    }
+
+    private static void counter(PrometheusTextWriter writer, String name, String help, long value) {
+        writer.header(name, "counter", help).sample(name, value);
+    }
+}
@@ -1,16 +1,33 @@
 package ru.ruba.services;
 
-import org.hibernate.Hibernate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
-import ru.ruba.models.Book;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ruba.dto.BookHolderView;
+import ru.ruba.dto.LoanedBookView;
+import ru.ruba.dto.PersonListView;
+import ru.ruba.dto.PersonOptionView;
+import ru.ruba.dto.ReaderSuggestions;
+import ru.ruba.dto.ResourceVersion;
 import ru.ruba.models.Person;
+import ru.ruba.repositories.BookRepository;
 import ru.ruba.repositories.PeopleRepository;
-import java.util.Collections;
+import ru.ruba.util.LoanPolicy;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,19 +38,93 @@ public class PeopleService {
     private static final Logger logger = LoggerFactory.getLogger(PeopleService.class);
     private final PeopleRepository peopleRepository;
 
+    private final BookRepository bookRepository;
+
+    private final LoanPolicy loanPolicy;
+
+    private final FioFilter fioFilter;
+
+    private final CatalogueVersion catalogueVersion;
+
+    private final LoanHistoryService loanHistory;
+
+    private final int maxSuggestions;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final int cleanupChunkSize;
+
     @Autowired
-    public PeopleService(PeopleRepository peopleRepository) {
+    public PeopleService(PeopleRepository peopleRepository, BookRepository bookRepository, LoanPolicy loanPolicy,
+                         FioFilter fioFilter, CatalogueVersion catalogueVersion, LoanHistoryService loanHistory,
+                         PlatformTransactionManager transactionManager,
+                         @Value("${search.max_results:50}") int maxSuggestions,
+                         @Value("${people.cleanup.chunk_size:500}") int cleanupChunkSize) {
         this.peopleRepository = peopleRepository;
+        this.bookRepository = bookRepository;
+        this.loanPolicy = loanPolicy;
+        this.fioFilter = fioFilter;
+        this.catalogueVersion = catalogueVersion;
+        this.loanHistory = loanHistory;
+        this.maxSuggestions = maxSuggestions;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.cleanupChunkSize = Math.max(1, cleanupChunkSize);
     }
 
     /**
-     * Получает список всех людей.
+     * Строит фильтр ФИО при запуске приложения. Если база недоступна,
+     * проверка ФИО выполняется запросом к базе до ручной перестройки фильтра.
+     */
+    @EventListener(ContextRefreshedEvent.class)
+    public void buildFioFilter() {
+        try {
+            fioFilter.rebuild();
+        } catch (RuntimeException e) {
+            logger.error("Не удалось построить фильтр ФИО, проверка ФИО будет выполняться запросом к базе", e);
+        }
+    }
+
+    /**
+     * Получает порцию списка людей с количеством выданных книг (keyset-пагинация без запроса COUNT).
      *
-     * @return Список всех людей в базе данных.
+     * @param query          Начало ФИО или email без учета регистра; пустая строка или null - все люди.
+     * @param afterFio       ФИО последнего человека предыдущей порции при сортировке по ФИО; null - первая порция.
+     * @param afterId        Идентификатор последнего человека предыдущей порции; 0 - первая порция.
+     * @param peoplePerPage  Количество людей в порции.
+     * @param sortById       Флаг сортировки по id (по умолчанию - по ФИО без учета регистра, при равных ФИО - по id).
+     * @return Порция людей с признаком наличия следующей порции.
      */
-    public List<Person> findAllPeople() {
-        logger.info("Вызван метод findAllPeople()");
-        return peopleRepository.findAll();
+    public Slice<PersonListView> findPeople(String query, String afterFio, int afterId, int peoplePerPage,
+                                            boolean sortById) {
+        logger.info("Вызван метод findPeople() с query = {}, afterFio = {}, afterId = {}, peoplePerPage = {}, sortById = {}",
+                query, afterFio, afterId, peoplePerPage, sortById);
+        String prefix = query == null ? "" : query.strip().toLowerCase(Locale.ROOT);
+        String fio = afterFio == null ? "" : afterFio;
+        PageRequest pageable = PageRequest.of(0, Math.max(1, peoplePerPage));
+        if (prefix.isEmpty())
+            return sortById ? peopleRepository.findListAfterId(afterId, pageable)
+                    : peopleRepository.findListAfterFio(fio, afterId, pageable);
+        return sortById ? peopleRepository.findListByPrefixAfterId(prefix, afterId, pageable)
+                : peopleRepository.findListByPrefixAfterFio(prefix, fio, afterId, pageable);
+    }
+
+    /**
+     * Подбирает читателей по началу ФИО без учета регистра для выбора читателя при выдаче книги.
+     *
+     * @param query Начало ФИО; пустая строка - подсказок нет.
+     * @param page  Номер страницы подсказок, нумерация начинается с 0.
+     * @param size  Количество подсказок на странице (не больше search.max_results).
+     * @return Страница подсказок с признаком наличия следующей страницы.
+     */
+    public ReaderSuggestions suggestReaders(String query, int page, int size) {
+        logger.info("Вызван метод suggestReaders() с query = {}, page = {}, size = {}", query, page, size);
+        String prefix = query == null ? "" : query.strip().toLowerCase(Locale.ROOT);
+        // без начала ФИО запросу пришлось бы сортировать всех читателей
+        if (prefix.isEmpty())
+            return new ReaderSuggestions(List.of(), false);
+        Slice<PersonOptionView> slice = peopleRepository.findOptionsByFioPrefix(prefix,
+                PageRequest.of(Math.max(0, page), Math.max(1, Math.min(size, maxSuggestions))));
+        return new ReaderSuggestions(slice.getContent(), slice.hasNext());
     }
 
     /**
@@ -57,30 +148,125 @@ public class PeopleService {
     public void savePerson(Person person) {
         logger.info("Вызван метод savePerson() с объектом Person: {}", person);
         peopleRepository.save(person);
+        fioFilter.putAfterCommit(person.getFio());
+        catalogueVersion.bumpAfterCommit();
     }
 
     /**
-     * Обновляет информацию о человеке с указанным идентификатором.
+     * Обновляет все поля формы человека (ФИО, год рождения и email), как {@link #updatePerson(int, Person, Person)}
+     * без исходных значений формы.
      *
      * @param id          Идентификатор человека, информацию о котором необходимо обновить.
-     * @param updatePerson Обновленный объект Person с новой информацией.
+     * @param updatePerson Обновленный объект Person с новой информацией (ФИО, год рождения и email).
+     * @return true, если данные изменены, false, если человек не найден или его данные не изменились.
      */
     @Transactional
-    public void updatePerson(int id, Person updatePerson) {
-        logger.info("Вызван метод updatePerson() с id = {} и объектом Person: {}", id, updatePerson);
-        updatePerson.setId(id);
-        peopleRepository.save(updatePerson);
+    public boolean updatePerson(int id, Person updatePerson) {
+        return updatePerson(id, null, updatePerson);
     }
 
     /**
-     * Удаляет человека с указанным идентификатором из хранилища.
+     * Обновляет информацию о человеке одним запросом UPDATE, не читая его перед изменением. В запрос попадают только
+     * поля, значения которых отличаются от исходных значений формы. Выданные человеку книги не затрагиваются.
+     *
+     * @param id          Идентификатор человека, информацию о котором необходимо обновить.
+     * @param original    Значения полей, с которыми форма была открыта, или null - тогда записываются все поля формы.
+     * @param updatePerson Обновленный объект Person с новой информацией (ФИО, год рождения и email).
+     * @return true, если данные изменены, false, если человек не найден или его данные не изменились.
+     */
+    @Transactional
+    public boolean updatePerson(int id, Person original, Person updatePerson) {
+        logger.info("Вызван метод updatePerson() с id = {}, original = {} и объектом Person: {}",
+                id, original, updatePerson);
+        String fio = changed(original, updatePerson, Person::getFio);
+        // форма не передает версию, поэтому изменение применяется поверх текущей версии читателя
+        boolean updated = peopleRepository.updateDetails(id, fio, changed(original, updatePerson, Person::getYear_of_birth),
+                changed(original, updatePerson, Person::getEmail), new Date()) == 1;
+        if (!updated)
+            return false;
+        // прежнее ФИО не читается; если нового ФИО точно нет в фильтре, значит, оно изменилось и прежнее устарело
+        if (fio != null && !fioFilter.mightContain(fio)) {
+            fioFilter.recordStaleAfterCommit();
+            fioFilter.putAfterCommit(fio);
+        }
+        catalogueVersion.bumpAfterCommit();
+        return true;
+    }
+
+    /**
+     * @return Значение поля из формы или null, если оно совпадает с исходным значением.
+     */
+    private static <T> T changed(Person original, Person updated, Function<Person, T> field) {
+        T value = field.apply(updated);
+        return original != null && Objects.equals(field.apply(original), value) ? null : value;
+    }
+
+    /**
+     * Удаляет человека с указанным идентификатором в одной транзакции: освобождает все его книги одним запросом
+     * UPDATE и удаляет человека запросом DELETE, не загружая ни его, ни книги. Возвраты книг записываются
+     * в журнал выдач; для этого строки книг читателя перед изменением читаются с блокировкой.
+     * Регионы кэша второго уровня для книг, читателей и книг читателя Hibernate сбрасывает сам
+     * при выполнении этих запросов.
      *
      * @param id Идентификатор человека, которого необходимо удалить.
+     * @return true, если человек удален, false, если он не найден.
      */
     @Transactional
-    public void deletePerson(int id) {
+    public boolean deletePerson(int id) {
         logger.info("Вызван метод deletePerson() с id = {}", id);
-        peopleRepository.deleteById(id);
+        List<BookHolderView> holders = bookRepository.findHoldersForUpdateByReaderId(id);
+        if (!holders.isEmpty()) {
+            Date releasedAt = new Date();
+            bookRepository.releaseAllOfPerson(id, releasedAt);
+            loanHistory.recordReturns(holders, releasedAt);
+        }
+        if (peopleRepository.deleteDirectly(id) == 0)
+            return false;
+        fioFilter.recordStaleAfterCommit();
+        catalogueVersion.bumpAfterCommit();
+        return true;
+    }
+
+    /**
+     * Удаляет неактивных людей: без книг на руках, данные которых не изменялись и которые не брали и не возвращали
+     * книги inactiveDays дней (по журналу выдач, поэтому срок хранения журнала должен быть не меньше inactiveDays).
+     * Каждая порция из people.cleanup.chunk_size человек удаляется в отдельной короткой транзакции,
+     * поэтому блокировки строк не удерживаются на все время удаления.
+     *
+     * @param inactiveDays Сколько дней человек не должен изменяться и брать книги, чтобы он считался неактивным.
+     * @return Отчет: количество удаленных людей, порций и время удаления.
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public String deleteInactivePeople(int inactiveDays) {
+        logger.info("Вызван метод deleteInactivePeople() с inactiveDays = {}", inactiveDays);
+        long start = System.nanoTime();
+        Date before = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays));
+        int afterId = 0;
+        int chunks = 0;
+        long deleted = 0;
+        while (true) {
+            int from = afterId;
+            // порция выбирается по ключу (id > последнего id предыдущей порции), поэтому каждый человек
+            // проверяется один раз, даже если удалить его не удалось
+            List<Integer> ids = peopleRepository.findInactiveIds(before, from, PageRequest.of(0, cleanupChunkSize));
+            if (ids.isEmpty())
+                break;
+            Integer chunkDeleted = transactionTemplate.execute(status -> {
+                int count = peopleRepository.deleteInactiveByIdIn(ids, before);
+                if (count > 0) {
+                    fioFilter.recordStaleAfterCommit(count);
+                    catalogueVersion.bumpAfterCommit();
+                }
+                return count;
+            });
+            deleted += chunkDeleted == null ? 0 : chunkDeleted;
+            chunks++;
+            afterId = ids.get(ids.size() - 1);
+        }
+        String report = String.format(Locale.ROOT, "deleted=%d chunks=%d elapsedMs=%d", deleted, chunks,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        logger.info("Удаление неактивных читателей: {}", report);
+        return report;
     }
 
     /**
@@ -94,32 +280,59 @@ public class PeopleService {
         return peopleRepository.findByFio(fio);
     }
 
+    /**
+     * Проверяет, занято ли ФИО, не загружая сущность. Для большинства свободных ФИО ответ дает фильтр ФИО без запроса к базе.
+     *
+     * @param fio Полное имя (ФИО) человека.
+     * @return true, если человек с таким ФИО существует.
+     */
+    public boolean existsByFio(String fio) {
+        logger.info("Вызван метод existsByFio() с параметром fio = {}", fio);
+        return fio != null && fioFilter.mightContain(fio) && peopleRepository.existsByFio(fio);
+    }
+
+    /**
+     * Перестраивает фильтр ФИО по данным из базы.
+     *
+     * @return Отчет о построенном фильтре.
+     */
+    public String rebuildFioFilter() {
+        logger.info("Вызван метод rebuildFioFilter()");
+        return fioFilter.rebuild();
+    }
+
+    /**
+     * @return Отчет о фильтре ФИО.
+     */
+    public String getFioFilterReport() {
+        logger.info("Вызван метод getFioFilterReport()");
+        return fioFilter.getReport();
+    }
+
     /**
      * Возвращает список книг, принадлежащих человеку с указанным идентификатором.
      *
      * @param id Идентификатор человека, для которого нужно получить список книг.
      * @return Список книг, принадлежащих человеку, или пустой список, если человек не найден или не имеет книг.
      */
-    public List<Book> getBooksByPersonId(int id) {
+    public List<LoanedBookView> getBooksByPersonId(int id) {
         logger.info("Вызван метод getBooksByPersonId() с id = {}", id);
-        Optional<Person> person = peopleRepository.findById(id);
-
-        if(person.isPresent()) {
-            Hibernate.initialize(person.get().getBooks());
-
-            //проверка просроченности книг
-            person.get().getBooks().forEach(book -> {
-                long diffInMillies = Math.abs(book.getTakenAt().getTime() - new Date().getTime());
-
-                if(diffInMillies > 864000000) {
-                    book.setExpired(true); //книга просрочена
-                } //10 суток
-            });
+        return bookRepository.findLoanedByPersonId(id, loanPolicy.overdueBefore());
+    }
 
-            return person.get().getBooks();
-        }
-        else {
-            return Collections.emptyList();
-        }
+    /**
+     * Получает одним запросом версию страницы человека: его данных, выданных ему книг и их просрочки.
+     *
+     * @param id Идентификатор человека.
+     * @return ETag и время последнего изменения страницы или null, если человек не найден.
+     */
+    public ResourceVersion getPersonPageVersion(int id) {
+        logger.info("Вызван метод getPersonPageVersion() с id = {}", id);
+        return peopleRepository.findPageVersionById(id, loanPolicy.overdueBefore())
+                .map(page -> ResourceVersion.of(ResourceVersion.latest(page.getUpdatedAt(), page.getBooksUpdatedAt()),
+                        page.getVersion(), page.getBookCount(),
+                        page.getBooksUpdatedAt() == null ? null : page.getBooksUpdatedAt().getTime(),
+                        page.getOverdueCount()))
+                .orElse(null);
     }
 }
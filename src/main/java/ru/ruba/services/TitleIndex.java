@@ -0,0 +1,231 @@
+package ru.ruba.services;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.ruba.dto.BookTitleView;
+import ru.ruba.repositories.BookRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Индекс названий книг в памяти для поиска по началу названия без обращения к базе данных.
+ * Названия хранятся в нормализованном виде (без учета регистра) в отсортированном множестве,
+ * поэтому поиск по префиксу - это один переход к первой подходящей записи и последовательный обход.
+ * Чтение не блокируется, изменения применяются после фиксации транзакции, в которой изменилась книга.
+ */
+@Component
+public class TitleIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(TitleIndex.class);
+
+    private static final Comparator<Entry> ORDER =
+            Comparator.comparing(Entry::title).thenComparingInt(Entry::id);
+
+    private final BookRepository bookRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    // не монитор: перестройка читает базу под блокировкой, а монитор закрепил бы виртуальный поток за потоком-носителем
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private volatile Index index = new Index();
+
+    private volatile boolean ready;
+
+    @Autowired
+    public TitleIndex(BookRepository bookRepository, PlatformTransactionManager transactionManager) {
+        this.bookRepository = bookRepository;
+        // индекс строится по основной базе: реплика может еще не содержать только что добавленных книг,
+        // а изменения, примененные после фиксации, индекс из отстающей реплики потерял бы
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // отдельная пишущая транзакция: вызов из читающей транзакции сервиса иначе присоединился бы к ней
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Находит идентификаторы книг, нормализованное название которых начинается с указанной строки.
+     *
+     * @param prefix Начало названия книги (регистр не учитывается).
+     * @param limit  Максимальное количество возвращаемых идентификаторов.
+     * @return Идентификаторы книг в порядке названий.
+     */
+    public List<Integer> findIdsByPrefix(String prefix, int limit) {
+        String normalized = normalize(prefix);
+        List<Integer> ids = new ArrayList<>(Math.min(limit, 64));
+        for (Entry entry : index.entries.tailSet(new Entry(normalized, Integer.MIN_VALUE), true)) {
+            if (ids.size() >= limit || !entry.title().startsWith(normalized))
+                break;
+            ids.add(entry.id());
+        }
+        return ids;
+    }
+
+    /**
+     * @return true, если индекс построен и им можно пользоваться для поиска.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Полностью перестраивает индекс по данным из базы. Поиск во время перестройки
+     * продолжает работать по прежнему индексу, новый индекс подменяет его по завершении.
+     *
+     * @return Отчет о размере построенного индекса.
+     */
+    public String rebuild() {
+        long start = System.nanoTime();
+        Index rebuilt = new Index();
+        writeLock.lock();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                try (Stream<BookTitleView> titles = bookRepository.streamAllTitles()) {
+                    titles.forEach(book -> rebuilt.put(book.getId(), book.getTitle()));
+                }
+            });
+            index = rebuilt;
+            ready = true;
+        } finally {
+            writeLock.unlock();
+        }
+        logger.info("Индекс названий книг перестроен за {} мс: {}", (System.nanoTime() - start) / 1_000_000, getMemoryReport());
+        return getMemoryReport();
+    }
+
+    /**
+     * Добавляет или обновляет название книги в индексе после фиксации текущей транзакции.
+     *
+     * @param id    Идентификатор книги.
+     * @param title Новое название книги.
+     */
+    public void putAfterCommit(int id, String title) {
+        afterCommit(() -> put(id, title));
+    }
+
+    /**
+     * Добавляет в индекс названия нескольких книг после фиксации текущей транзакции (например, при массовом импорте).
+     *
+     * @param titlesById Названия книг по идентификаторам.
+     */
+    public void putAllAfterCommit(Map<Integer, String> titlesById) {
+        afterCommit(() -> putAll(titlesById));
+    }
+
+    /**
+     * Удаляет книгу из индекса после фиксации текущей транзакции.
+     *
+     * @param id Идентификатор книги.
+     */
+    public void removeAfterCommit(int id) {
+        afterCommit(() -> remove(id));
+    }
+
+    private void put(int id, String title) {
+        withWriteLock(() -> index.put(id, title));
+    }
+
+    private void putAll(Map<Integer, String> titlesById) {
+        withWriteLock(() -> titlesById.forEach(index::put));
+    }
+
+    private void remove(int id) {
+        withWriteLock(() -> index.remove(id));
+    }
+
+    private void withWriteLock(Runnable action) {
+        writeLock.lock();
+        try {
+            action.run();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Оценивает объем памяти, занимаемый индексом (компактные строки, сжатые ссылки).
+     *
+     * @return Текстовый отчет: количество записей, суммарная длина названий и оценка занимаемой памяти.
+     */
+    public String getMemoryReport() {
+        Index current = index;
+        long entries = 0;
+        long chars = 0;
+        long bytes = 0;
+        for (Entry entry : current.entries) {
+            entries++;
+            chars += entry.title().length();
+            // узел списка с пропусками (~24 байта + в среднем 1/4 индексного узла) + запись (24 байта)
+            // + строка (24 байта + массив 16 байт + данные) + узел и Integer в карте по id (32 + 16 байт)
+            bytes += 30 + 24 + 24 + align(16 + stringDataBytes(entry.title())) + 32 + 16;
+        }
+        return String.format(Locale.ROOT, "ready=%s entries=%d titleChars=%d estimatedBytes=%d (%.1f KiB)",
+                ready, entries, chars, bytes, bytes / 1024.0);
+    }
+
+    static String normalize(String title) {
+        return title == null ? "" : title.strip().toLowerCase(Locale.ROOT);
+    }
+
+    private static long stringDataBytes(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) > 0xFF)
+                return 2L * s.length();
+        }
+        return s.length();
+    }
+
+    private static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private record Entry(String title, int id) {
+    }
+
+    private static class Index {
+        private final NavigableSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+        private final Map<Integer, String> titlesById = new ConcurrentHashMap<>();
+
+        void put(int id, String title) {
+            String normalized = normalize(title);
+            String previous = titlesById.put(id, normalized);
+            if (previous != null)
+                entries.remove(new Entry(previous, id));
+            entries.add(new Entry(normalized, id));
+        }
+
+        void remove(int id) {
+            String previous = titlesById.remove(id);
+            if (previous != null)
+                entries.remove(new Entry(previous, id));
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package ru.ruba.util;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Ограничивает количество одновременно обрабатываемых HTTP-запросов перед пулом соединений.
+ * <p>
+ * На потоках контейнера параллелизм ограничен размером пула потоков, а на виртуальных потоках
+ * (Connector с useVirtualThreads="true") - ничем: тысячи запросов одновременно встают в очередь за
+ * соединением, и все, кто не дождался за connection_timeout пула, получают исключение. Фильтр пропускает
+ * дальше не больше maxConcurrency запросов, остальные ждут разрешения в порядке поступления (ожидание
+ * виртуального потока почти ничего не стоит) и, не дождавшись за acquireTimeout, получают ответ 503.
+ */
+public class ConcurrencyLimitFilter implements Filter {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrencyLimitFilter.class);
+
+    private final boolean enabled;
+
+    private final int maxConcurrency;
+
+    private final long acquireTimeoutMillis;
+
+    private final Semaphore permits;
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final AtomicBoolean threadTypeLogged = new AtomicBoolean();
+
+    /**
+     * @param enabled              Ограничивать ли параллелизм; если false, фильтр пропускает все запросы.
+     * @param maxConcurrency       Максимальное количество одновременно обрабатываемых запросов.
+     * @param acquireTimeoutMillis Сколько запрос может ждать своей очереди, прежде чем получит ответ 503.
+     */
+    public ConcurrencyLimitFilter(boolean enabled, int maxConcurrency, long acquireTimeoutMillis) {
+        this.enabled = enabled;
+        this.maxConcurrency = maxConcurrency;
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        this.permits = new Semaphore(maxConcurrency, true);
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        if (threadTypeLogged.compareAndSet(false, true))
+            logger.info("Запросы обрабатываются на {} потоках, ограничение параллелизма: {}",
+                    Thread.currentThread().isVirtual() ? "виртуальных" : "платформенных",
+                    enabled ? maxConcurrency : "выключено");
+        if (!enabled) {
+            chain.doFilter(request, response);
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = permits.tryAcquire(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            rejected.increment();
+            HttpServletResponse httpResponse = (HttpServletResponse) response;
+            httpResponse.setHeader("Retry-After", "1");
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            permits.release();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    /**
+     * @return Количество запросов, обрабатываемых в данный момент.
+     */
+    public int getInFlight() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * @return Количество запросов, ожидающих разрешения на обработку.
+     */
+    public int getWaiting() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     * @return Количество запросов, отклоненных с ответом 503, с момента запуска.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
@@ -0,0 +1,80 @@
+package ru.ruba.util;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Построчное чтение CSV-файла без загрузки его целиком в память.
+ * Поддерживаются разделитель-запятая и значения в двойных кавычках (кавычка внутри значения удваивается);
+ * перевод строки внутри значения не поддерживается.
+ */
+public class CsvReader implements AutoCloseable {
+
+    private final BufferedReader reader;
+
+    private int lineNumber;
+
+    public CsvReader(Reader reader) {
+        this.reader = new BufferedReader(reader);
+    }
+
+    /**
+     * Читает следующую непустую строку файла.
+     *
+     * @return Значения полей строки или null, если файл закончился.
+     * @throws IOException Если не удалось прочитать файл.
+     */
+    public List<String> readRow() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null)
+                return null;
+            lineNumber++;
+        } while (line.isBlank());
+        return parse(line);
+    }
+
+    /**
+     * @return Номер последней прочитанной строки файла (нумерация с 1).
+     */
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    static List<String> parse(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString().strip());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().strip());
+        return fields;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,181 @@
+package ru.ruba.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.context.i18n.LocaleContextHolder;
+import org.thymeleaf.ITemplateEngine;
+import org.thymeleaf.context.WebContext;
+import org.thymeleaf.web.servlet.JakartaServletWebApplication;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Кэш отрисованных фрагментов страниц Thymeleaf. Ключ фрагмента содержит имя шаблона, параметры запроса
+ * и версию данных, по которым он отрисован; после изменения данных версия растет, и все прежние фрагменты
+ * удаляются при первой записи новой версии.
+ * <p>
+ * Данные для фрагмента передаются поставщиком и запрашиваются только при промахе, поэтому при попадании
+ * сервисы и JPA не вызываются. Суммарный размер фрагментов ограничен количеством символов, при превышении
+ * вытесняются давно не использованные; слишком большие фрагменты (больше восьмой части кэша) не кэшируются.
+ */
+public class FragmentCache {
+
+    private final ITemplateEngine templateEngine;
+
+    private final LongSupplier dataVersion;
+
+    private final boolean enabled;
+
+    private final long maxChars;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final LinkedHashMap<String, String> fragments = new LinkedHashMap<>(256, 0.75f, true);
+
+    private long cachedVersion;
+
+    private long cachedChars;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param templateEngine Движок шаблонов.
+     * @param dataVersion    Текущая версия данных, по которым отрисовываются фрагменты.
+     * @param enabled        false - фрагменты отрисовываются при каждом запросе.
+     * @param maxChars       Максимальный суммарный размер фрагментов в символах.
+     */
+    public FragmentCache(ITemplateEngine templateEngine, LongSupplier dataVersion, boolean enabled, long maxChars) {
+        this.templateEngine = templateEngine;
+        this.dataVersion = dataVersion;
+        this.enabled = enabled;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Возвращает HTML фрагмента из кэша или отрисовывает его и сохраняет.
+     *
+     * @param request   Текущий запрос (нужен для построения ссылок в шаблоне).
+     * @param response  Текущий ответ.
+     * @param template  Имя шаблона фрагмента.
+     * @param key       Параметры, от которых зависит содержимое фрагмента, кроме версии данных.
+     * @param variables Поставщик переменных шаблона; вызывается только при промахе.
+     * @return HTML фрагмента.
+     */
+    public String render(HttpServletRequest request, HttpServletResponse response, String template, String key,
+                         Supplier<Map<String, Object>> variables) {
+        if (!enabled)
+            return process(request, response, template, variables.get());
+        // версия читается до данных: если данные изменятся во время отрисовки, фрагмент окажется под старой версией
+        long version = dataVersion.getAsLong();
+        String cacheKey = template + '|' + key;
+        String html = get(version, cacheKey);
+        if (html != null) {
+            hits.increment();
+            return html;
+        }
+        misses.increment();
+        html = process(request, response, template, variables.get());
+        put(version, cacheKey, html);
+        return html;
+    }
+
+    private String process(HttpServletRequest request, HttpServletResponse response, String template,
+                           Map<String, Object> variables) {
+        WebContext context = new WebContext(JakartaServletWebApplication.buildApplication(request.getServletContext())
+                .buildExchange(request, response), LocaleContextHolder.getLocale(), variables);
+        return templateEngine.process(template, context);
+    }
+
+    private String get(long version, String cacheKey) {
+        lock.lock();
+        try {
+            return version == cachedVersion ? fragments.get(cacheKey) : null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(long version, String cacheKey, String html) {
+        long size = cacheKey.length() + html.length();
+        if (size > maxChars / 8)
+            return;
+        lock.lock();
+        try {
+            if (version < cachedVersion)
+                return;
+            if (version > cachedVersion) {
+                evictions.add(fragments.size());
+                fragments.clear();
+                cachedChars = 0;
+                cachedVersion = version;
+            }
+            String previous = fragments.put(cacheKey, html);
+            if (previous != null)
+                cachedChars -= cacheKey.length() + previous.length();
+            cachedChars += size;
+            Iterator<Map.Entry<String, String>> eldest = fragments.entrySet().iterator();
+            while (cachedChars > maxChars && eldest.hasNext()) {
+                Map.Entry<String, String> entry = eldest.next();
+                cachedChars -= entry.getKey().length() + entry.getValue().length();
+                eldest.remove();
+                evictions.increment();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return Количество фрагментов, удаленных из-за изменения данных или нехватки места.
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public int getEntries() {
+        lock.lock();
+        try {
+            return fragments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Суммарный размер ключей и фрагментов в символах.
+     */
+    public long getChars() {
+        lock.lock();
+        try {
+            return cachedChars;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxChars() {
+        return maxChars;
+    }
+}
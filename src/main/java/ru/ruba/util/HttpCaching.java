@@ -0,0 +1,38 @@
+package ru.ruba.util;
+
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.context.request.ServletWebRequest;
+import ru.ruba.dto.ResourceVersion;
+
+/**
+ * Условные ответы для страниц: ETag, Last-Modified и проверка If-None-Match.
+ */
+public final class HttpCaching {
+
+    private HttpCaching() {
+    }
+
+    /**
+     * Добавляет к ответу ETag и Last-Modified версии страницы и Cache-Control: no-cache, чтобы браузер и прокси
+     * хранили страницу, но перед каждым показом проверяли ее актуальность. Если ETag из If-None-Match совпадает
+     * с текущим, устанавливает статус 304.
+     * <p>
+     * If-Modified-Since не проверяется: удаление книги или читателя и возврат книги не меняют время изменения
+     * оставшихся строк, поэтому Last-Modified не может служить валидатором и передается только для сведения.
+     *
+     * @param request Текущий запрос.
+     * @param version Версия страницы.
+     * @return true, если у клиента актуальная версия и страницу отрисовывать не нужно.
+     */
+    public static boolean checkNotModified(ServletWebRequest request, ResourceVersion version) {
+        HttpServletResponse response = request.getResponse();
+        if (response != null) {
+            response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().getHeaderValue());
+            if (version.getLastModified() >= 0)
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, version.getLastModified());
+        }
+        return request.checkNotModified(version.getEtag());
+    }
+}
@@ -0,0 +1,94 @@
+package ru.ruba.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Потокобезопасная гистограмма времени выполнения с фиксированными границами корзин.
+ * Запись значения не требует блокировок, поэтому её можно вызывать на горячем пути.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Верхние границы корзин в микросекундах (от 50 мкс до 10 с).
+     */
+    private static final long[] BUCKET_BOUNDS_MICROS = {
+            50, 100, 250, 500,
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_MICROS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++)
+            buckets[i] = new LongAdder();
+    }
+
+    /**
+     * Регистрирует одно измерение.
+     *
+     * @param nanos Длительность в наносекундах.
+     */
+    public void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+        int i = 0;
+        while (i < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[i])
+            i++;
+        buckets[i].increment();
+        count.increment();
+        sumNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSumNanos() {
+        return sumNanos.sum();
+    }
+
+    /**
+     * @return Верхние границы корзин в секундах; последняя корзина (+Inf) не включена.
+     */
+    public static double[] getBucketBoundsSeconds() {
+        double[] bounds = new double[BUCKET_BOUNDS_MICROS.length];
+        for (int i = 0; i < bounds.length; i++)
+            bounds[i] = BUCKET_BOUNDS_MICROS[i] / 1_000_000.0;
+        return bounds;
+    }
+
+    /**
+     * @return Накопленные (кумулятивные) счетчики по корзинам, последний элемент соответствует +Inf.
+     */
+    public long[] getCumulativeCounts() {
+        long[] cumulative = new long[buckets.length];
+        long running = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            running += buckets[i].sum();
+            cumulative[i] = running;
+        }
+        return cumulative;
+    }
+
+    /**
+     * Оценивает квантиль по границам корзин (верхняя граница корзины, в которую попал квантиль).
+     *
+     * @param quantile Значение от 0 до 1, например 0.99.
+     * @return Оценка квантиля в миллисекундах или 0, если измерений нет.
+     */
+    public double estimateQuantileMillis(double quantile) {
+        long[] cumulative = getCumulativeCounts();
+        long total = cumulative[cumulative.length - 1];
+        if (total == 0)
+            return 0;
+        long rank = (long) Math.ceil(quantile * total);
+        for (int i = 0; i < BUCKET_BOUNDS_MICROS.length; i++) {
+            if (cumulative[i] >= rank)
+                return BUCKET_BOUNDS_MICROS[i] / 1_000.0;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+}
@@ -0,0 +1,273 @@
+package ru.ruba.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Обслуживание секций журнала выдач loan_event. В PostgreSQL таблица секционирована по месяцам времени события:
+ * при запуске и затем периодически создаются секции с прошлого месяца на monthsAhead месяцев вперед, а секции
+ * старше retentionMonths месяцев отсоединяются от таблицы и переименовываются в loan_event_archive_*.
+ * Отсоединенная секция остается в базе обычной таблицей: ее можно выгрузить и удалить, не затрагивая журнал.
+ * Отсоединение и переименование выполняются в одной транзакции; если архив месяца уже есть (месяц был
+ * отсоединен раньше, а затем снова собран из секции по умолчанию), к имени добавляется номер: _2, _3 и т. д.
+ * <p>
+ * Записи за месяцы без секции (например, если обслуживание долго не выполнялось) попадают в секцию по умолчанию
+ * loan_event_default. Перед созданием секций такие записи переносятся в секции своих месяцев: в одной транзакции
+ * на месяц создается таблица, записи переносятся в нее из секции по умолчанию и таблица присоединяется к журналу.
+ * В базах без секционирования (H2) старые записи удаляются запросом DELETE.
+ */
+public class LoanHistoryPartitions implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoanHistoryPartitions.class);
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("loan_event_y(\\d{4})m(\\d{2})");
+
+    private final DataSource dataSource;
+
+    private final int monthsAhead;
+
+    private final int retentionMonths;
+
+    private final long intervalHours;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * @param dataSource      Источник данных основной базы.
+     * @param monthsAhead     На сколько месяцев вперед создаются секции.
+     * @param retentionMonths Сколько полных месяцев до текущего хранится в журнале; 0 - хранить все.
+     * @param intervalHours   Период обслуживания секций.
+     */
+    public LoanHistoryPartitions(DataSource dataSource, int monthsAhead, int retentionMonths, long intervalHours) {
+        this.dataSource = dataSource;
+        this.monthsAhead = Math.max(1, monthsAhead);
+        this.retentionMonths = Math.max(0, retentionMonths);
+        this.intervalHours = Math.max(1, intervalHours);
+    }
+
+    /**
+     * Обслуживает секции сразу, чтобы записи текущего месяца было куда вставлять, и запускает периодическое
+     * обслуживание. Ошибка не останавливает запуск приложения: секции создаются заранее на несколько месяцев.
+     */
+    public void start() {
+        try {
+            maintain();
+        } catch (RuntimeException e) {
+            logger.error("Не удалось обслужить секции журнала выдач", e);
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "loan-history-partitions");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                maintain();
+            } catch (RuntimeException e) {
+                logger.error("Не удалось обслужить секции журнала выдач", e);
+            }
+        }, intervalHours, intervalHours, TimeUnit.HOURS);
+    }
+
+    /**
+     * Создает недостающие секции и отсоединяет (в базах без секционирования - удаляет) записи старше срока хранения.
+     *
+     * @return Отчет о выполненных действиях.
+     */
+    public synchronized String maintain() {
+        YearMonth current = YearMonth.now();
+        YearMonth retainFrom = retentionMonths == 0 ? null : current.minusMonths(retentionMonths);
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            if (!isPostgresql(connection)) {
+                if (retainFrom == null)
+                    return "Журнал выдач без секционирования, срок хранения не ограничен";
+                int deleted;
+                try (PreparedStatement delete = connection.prepareStatement("delete from loan_event where event_at < ?")) {
+                    delete.setTimestamp(1, Timestamp.valueOf(retainFrom.atDay(1).atStartOfDay()));
+                    deleted = delete.executeUpdate();
+                }
+                logger.info("Удалено {} записей журнала выдач раньше {}", deleted, retainFrom);
+                return "Журнал выдач без секционирования, удалено записей раньше " + retainFrom + ": " + deleted;
+            }
+
+            List<String> moved = moveDefaultRows(connection);
+            List<String> existing = listPartitions(connection);
+            List<String> created = new ArrayList<>();
+            // прошлый месяц нужен для записей, сделанных на границе месяцев
+            for (YearMonth month = current.minusMonths(1); !month.isAfter(current.plusMonths(monthsAhead));
+                 month = month.plusMonths(1)) {
+                String name = partitionName(month);
+                if (existing.contains(name))
+                    continue;
+                statement.execute("create table " + name + " partition of loan_event for values from ('"
+                        + month.atDay(1) + "') to ('" + month.plusMonths(1).atDay(1) + "')");
+                created.add(name);
+            }
+
+            List<String> archived = new ArrayList<>();
+            if (retainFrom != null) {
+                // detach concurrently недоступен при наличии секции по умолчанию: отсоединение кратко блокирует
+                // журнал, поэтому выполняется отдельно для каждой секции
+                for (String name : existing) {
+                    Matcher matcher = PARTITION_NAME.matcher(name);
+                    if (!matcher.matches())
+                        continue;
+                    YearMonth month = YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                    if (!month.isBefore(retainFrom))
+                        continue;
+                    archived.add(name + " -> " + archive(connection, name));
+                }
+            }
+            if (!moved.isEmpty() || !created.isEmpty() || !archived.isEmpty())
+                logger.info("Секции журнала выдач: перенесены из секции по умолчанию {}, созданы {}, отсоединены {}",
+                        moved, created, archived);
+            return "Перенесены из секции по умолчанию: " + moved + System.lineSeparator()
+                    + "Созданы секции: " + created + System.lineSeparator() + "Отсоединены секции: " + archived;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось обслужить секции журнала выдач", e);
+        }
+    }
+
+    /**
+     * @return Отчет: секции журнала выдач с оценкой количества строк или количество записей без секционирования.
+     */
+    public String getReport() {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            if (!isPostgresql(connection)) {
+                try (ResultSet rows = statement.executeQuery("select count(*) from loan_event")) {
+                    rows.next();
+                    return "Журнал выдач без секционирования, записей: " + rows.getLong(1);
+                }
+            }
+            StringBuilder report = new StringBuilder();
+            try (ResultSet rows = statement.executeQuery("select c.relname, c.reltuples from pg_inherits i " +
+                    "join pg_class c on c.oid = i.inhrelid where i.inhparent = 'loan_event'::regclass order by c.relname")) {
+                while (rows.next())
+                    report.append(String.format(Locale.ROOT, "%s rows~%d%n", rows.getString(1),
+                            Math.max(0, rows.getLong(2))));
+            }
+            return report.toString();
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось получить секции журнала выдач", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+    }
+
+    /**
+     * Переносит записи из секции по умолчанию в новые секции их месяцев, по одной транзакции на месяц.
+     * Секцию месяца нельзя создать, пока в секции по умолчанию есть записи за этот месяц, поэтому таблица
+     * заполняется до присоединения; присоединение проверяет, что в секции по умолчанию записей месяца не осталось.
+     *
+     * @param connection Соединение основной базы в режиме автофиксации.
+     * @return Имена созданных секций.
+     */
+    private static List<String> moveDefaultRows(Connection connection) throws SQLException {
+        List<YearMonth> months = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("select distinct extract(year from event_at), " +
+                     "extract(month from event_at) from loan_event_default")) {
+            while (rows.next())
+                months.add(YearMonth.of(rows.getInt(1), rows.getInt(2)));
+        }
+        List<String> moved = new ArrayList<>();
+        for (YearMonth month : months) {
+            String name = partitionName(month);
+            String from = "'" + month.atDay(1) + "'";
+            String to = "'" + month.plusMonths(1).atDay(1) + "'";
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("create table " + name + " (like loan_event including defaults including constraints)");
+                statement.execute("with moved as (delete from loan_event_default where event_at >= " + from +
+                        " and event_at < " + to + " returning *) insert into " + name + " select * from moved");
+                statement.execute("alter table loan_event attach partition " + name + " for values from (" + from +
+                        ") to (" + to + ")");
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+            moved.add(name);
+        }
+        return moved;
+    }
+
+    /**
+     * Отсоединяет секцию и переименовывает ее в архивную таблицу в одной транзакции: если переименование
+     * не удалось, секция остается присоединенной и будет отсоединена при следующем обслуживании.
+     *
+     * @param connection Соединение основной базы в режиме автофиксации.
+     * @param name       Имя секции.
+     * @return Имя архивной таблицы.
+     */
+    private static String archive(Connection connection, String name) throws SQLException {
+        String base = name.replace("loan_event_", "loan_event_archive_");
+        String archiveName = base;
+        for (int n = 2; exists(connection, archiveName); n++)
+            archiveName = base + "_" + n;
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("alter table loan_event detach partition " + name);
+            statement.execute("alter table " + name + " rename to " + archiveName);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return archiveName;
+    }
+
+    private static boolean exists(Connection connection, String table) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement("select to_regclass(?) is not null")) {
+            statement.setString(1, table);
+            try (ResultSet rows = statement.executeQuery()) {
+                rows.next();
+                return rows.getBoolean(1);
+            }
+        }
+    }
+
+    private static String partitionName(YearMonth month) {
+        return String.format(Locale.ROOT, "loan_event_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private static boolean isPostgresql(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT).contains("postgresql");
+    }
+
+    private static List<String> listPartitions(Connection connection) throws SQLException {
+        List<String> names = new ArrayList<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("select c.relname from pg_inherits i " +
+                     "join pg_class c on c.oid = i.inhrelid where i.inhparent = 'loan_event'::regclass")) {
+            while (rows.next())
+                names.add(rows.getString(1));
+        }
+        return names;
+    }
+}
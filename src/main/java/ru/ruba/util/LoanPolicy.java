@@ -0,0 +1,35 @@
+package ru.ruba.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Правила выдачи книг: срок, после которого книга считается просроченной.
+ * Срок задается в hibernate.properties ключом library.loan_period_days (по умолчанию 10 суток).
+ */
+@Component
+public class LoanPolicy {
+
+    private final int loanPeriodDays;
+
+    public LoanPolicy(@Value("${library.loan_period_days:10}") int loanPeriodDays) {
+        this.loanPeriodDays = loanPeriodDays;
+    }
+
+    public int getLoanPeriodDays() {
+        return loanPeriodDays;
+    }
+
+    /**
+     * Вычисляет границу просрочки для запросов: книги, взятые раньше этого момента, просрочены.
+     * Граница передается в запрос параметром, чтобы условие taken_at < ? могло использовать индекс.
+     *
+     * @return Текущий момент минус срок выдачи.
+     */
+    public Date overdueBefore() {
+        return new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(loanPeriodDays));
+    }
+}
@@ -0,0 +1,87 @@
+package ru.ruba.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Реестр таймеров вызовов: методов сервисов и репозиториев, а также обработчиков HTTP-запросов.
+ * Каждый таймер хранит гистограмму длительности, количество ошибок и количество выполненных SQL-запросов.
+ */
+public class MethodMetrics {
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /**
+     * Возвращает таймер для указанного слоя и имени, создавая его при первом обращении.
+     *
+     * @param layer Слой приложения: http, service или repository.
+     * @param name  Имя метода (например, BookService.findOneBook) или обработчика (например, GET /book/{id}).
+     * @return Таймер.
+     */
+    public Timer timer(String layer, String name) {
+        return timers.computeIfAbsent(layer + ' ' + name, key -> new Timer(layer, name));
+    }
+
+    /**
+     * @return Все зарегистрированные таймеры.
+     */
+    public Collection<Timer> getTimers() {
+        return Collections.unmodifiableCollection(timers.values());
+    }
+
+    /**
+     * Таймер одного метода или обработчика.
+     */
+    public static class Timer {
+
+        private final String layer;
+        private final String name;
+        private final LatencyHistogram duration = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder sqlStatements = new LongAdder();
+
+        Timer(String layer, String name) {
+            this.layer = layer;
+            this.name = name;
+        }
+
+        /**
+         * Регистрирует один вызов.
+         *
+         * @param nanos  Длительность вызова в наносекундах.
+         * @param failed true, если вызов завершился исключением или ответом 5xx.
+         */
+        public void record(long nanos, boolean failed) {
+            duration.record(nanos);
+            if (failed)
+                errors.increment();
+        }
+
+        public void addSqlStatements(long count) {
+            sqlStatements.add(count);
+        }
+
+        public String getLayer() {
+            return layer;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram getDuration() {
+            return duration;
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getSqlStatements() {
+            return sqlStatements.sum();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.ruba.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.HandlerMapping;
+
+/**
+ * Замеряет время обработки HTTP-запроса и количество выполненных SQL-запросов по шаблону обработчика
+ * (например, GET /book/{id}), чтобы количество таймеров не зависело от конкретных идентификаторов в адресе.
+ */
+public class MetricsInterceptor implements HandlerInterceptor {
+
+    private static final String START_ATTRIBUTE = MetricsInterceptor.class.getName() + ".start";
+
+    private final MethodMetrics metrics;
+
+    public MetricsInterceptor(MethodMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        request.setAttribute(START_ATTRIBUTE, System.nanoTime());
+        SqlStatementCounter.reset();
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        Object start = request.getAttribute(START_ATTRIBUTE);
+        if (!(start instanceof Long startNanos))
+            return;
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        MethodMetrics.Timer timer = metrics.timer("http",
+                request.getMethod() + ' ' + (pattern == null ? "unmapped" : pattern));
+        timer.record(System.nanoTime() - startNanos, ex != null || response.getStatus() >= 500);
+        timer.addSqlStatements(SqlStatementCounter.current());
+    }
+}
@@ -33,6 +33,7 @@ public class PersonValidator implements Validator {
 
     /**
      * Проверяет, существует ли человек с указанным ФИО, и добавляет сообщение об ошибке, если такой человек уже существует.
+     * Сущность не загружается, а для большинства свободных ФИО не выполняется и запрос к базе.
      *
      * @param target Объект, подлежащий валидации (в данном случае, объект типа Person).
      * @param errors Объект, в котором хранятся сообщения об ошибках валидации.
@@ -40,8 +41,9 @@ public class PersonValidator implements Validator {
     @Override
     public void validate(Object target, Errors errors) {
         Person person = (Person) target;
-        if (peopleService.getPersonByFio(person.getFio()).isPresent())
+        if (peopleService.existsByFio(person.getFio())) {
             errors.rejectValue("fio", "", "Человек с таким ФИО уже существует");
-        logger.warn("Ошибка валидации: Человек с ФИО {} уже существует", person.getFio());
+            logger.warn("Ошибка валидации: Человек с ФИО {} уже существует", person.getFio());
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,114 @@
+package ru.ruba.util;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Собирает метрики пулов соединений HikariCP: текущее состояние пула
+ * (активные, простаивающие соединения, ожидающие потоки) и гистограммы
+ * времени получения и использования соединения.
+ */
+public class PoolMetricsTrackerFactory implements MetricsTrackerFactory {
+
+    private final Map<String, PoolMetrics> pools = new ConcurrentHashMap<>();
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        PoolMetrics metrics = new PoolMetrics(poolName, poolStats);
+        pools.put(poolName, metrics);
+        return metrics;
+    }
+
+    /**
+     * @return Метрики всех пулов, созданных с этой фабрикой.
+     */
+    public Collection<PoolMetrics> getPools() {
+        return Collections.unmodifiableCollection(pools.values());
+    }
+
+    /**
+     * Метрики одного пула соединений.
+     */
+    public static class PoolMetrics implements IMetricsTracker {
+
+        private final String poolName;
+        private final PoolStats poolStats;
+        private final LatencyHistogram acquireTime = new LatencyHistogram();
+        private final LatencyHistogram usageTime = new LatencyHistogram();
+        private final LatencyHistogram creationTime = new LatencyHistogram();
+        private final LongAdder timeouts = new LongAdder();
+
+        PoolMetrics(String poolName, PoolStats poolStats) {
+            this.poolName = poolName;
+            this.poolStats = poolStats;
+        }
+
+        @Override
+        public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+            acquireTime.record(elapsedAcquiredNanos);
+        }
+
+        @Override
+        public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+            usageTime.record(TimeUnit.MILLISECONDS.toNanos(elapsedBorrowedMillis));
+        }
+
+        @Override
+        public void recordConnectionCreatedMillis(long connectionCreatedMillis) {
+            creationTime.record(TimeUnit.MILLISECONDS.toNanos(connectionCreatedMillis));
+        }
+
+        @Override
+        public void recordConnectionTimeout() {
+            timeouts.increment();
+        }
+
+        public String getPoolName() {
+            return poolName;
+        }
+
+        public int getActiveConnections() {
+            return poolStats.getActiveConnections();
+        }
+
+        public int getIdleConnections() {
+            return poolStats.getIdleConnections();
+        }
+
+        public int getTotalConnections() {
+            return poolStats.getTotalConnections();
+        }
+
+        public int getPendingThreads() {
+            return poolStats.getPendingThreads();
+        }
+
+        public int getMaxConnections() {
+            return poolStats.getMaxConnections();
+        }
+
+        public long getTimeouts() {
+            return timeouts.sum();
+        }
+
+        public LatencyHistogram getAcquireTime() {
+            return acquireTime;
+        }
+
+        public LatencyHistogram getUsageTime() {
+            return usageTime;
+        }
+
+        public LatencyHistogram getCreationTime() {
+            return creationTime;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ru.ruba.util;
+
+/**
+ * Формирует метрики в текстовом формате Prometheus (version 0.0.4).
+ * Метки передаются парами "имя", "значение".
+ */
+public class PrometheusTextWriter {
+
+    private final StringBuilder out = new StringBuilder();
+
+    /**
+     * Записывает заголовок метрики (# HELP и # TYPE). Должен предшествовать всем значениям метрики.
+     */
+    public PrometheusTextWriter header(String name, String type, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help.replace("\\", "\\\\").replace("\n", "\\n")).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        return this;
+    }
+
+    /**
+     * Записывает одно значение метрики.
+     */
+    public PrometheusTextWriter sample(String name, double value, String... labels) {
+        out.append(name);
+        appendLabels(labels, null);
+        out.append(' ').append(format(value)).append('\n');
+        return this;
+    }
+
+    /**
+     * Записывает гистограмму длительности: корзины (_bucket с меткой le), сумму (_sum, в секундах) и количество (_count).
+     */
+    public PrometheusTextWriter histogram(String name, LatencyHistogram histogram, String... labels) {
+        double[] bounds = LatencyHistogram.getBucketBoundsSeconds();
+        long[] counts = histogram.getCumulativeCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            out.append(name).append("_bucket");
+            appendLabels(labels, format(bounds[i]));
+            out.append(' ').append(counts[i]).append('\n');
+        }
+        out.append(name).append("_bucket");
+        appendLabels(labels, "+Inf");
+        out.append(' ').append(counts[counts.length - 1]).append('\n');
+        sample(name + "_sum", histogram.getSumNanos() / 1e9, labels);
+        sample(name + "_count", counts[counts.length - 1], labels);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return out.toString();
+    }
+
+    private void appendLabels(String[] labels, String le) {
+        if (labels.length == 0 && le == null)
+            return;
+        out.append('{');
+        for (int i = 0; i + 1 < labels.length; i += 2) {
+            if (i > 0)
+                out.append(',');
+            out.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        if (le != null) {
+            if (labels.length > 0)
+                out.append(',');
+            out.append("le=\"").append(le).append('"');
+        }
+        out.append('}');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+            return Long.toString((long) value);
+        return Double.toString(value);
+    }
+}
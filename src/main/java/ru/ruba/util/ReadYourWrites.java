@@ -0,0 +1,64 @@
+package ru.ruba.util;
+
+/**
+ * Состояние «чтения своих записей» для текущего HTTP-запроса: если клиент недавно что-то изменил
+ * (или изменяет в этом же запросе), читающие транзакции идут в основную базу, а не в реплики,
+ * которые могут еще не получить изменения. Вне HTTP-запроса состояние не ведется и ничего не меняет.
+ */
+public final class ReadYourWrites {
+
+    private static final ThreadLocal<State> CURRENT = new ThreadLocal<>();
+
+    private ReadYourWrites() {
+    }
+
+    /**
+     * Начинает учет для текущего запроса.
+     *
+     * @param primaryUntilMillis До какого момента (мс от эпохи) клиент должен читать из основной базы; 0 - ограничений нет.
+     */
+    public static void begin(long primaryUntilMillis) {
+        CURRENT.set(new State(primaryUntilMillis));
+    }
+
+    /**
+     * Отмечает, что текущий запрос выполняет пишущую транзакцию.
+     */
+    public static void recordWrite() {
+        State state = CURRENT.get();
+        if (state != null)
+            state.written = true;
+    }
+
+    /**
+     * @return true, если текущий запрос уже что-то записал или клиент еще находится в окне после своей записи.
+     */
+    public static boolean isPrimaryRequired() {
+        State state = CURRENT.get();
+        return state != null && (state.written || System.currentTimeMillis() < state.primaryUntilMillis);
+    }
+
+    /**
+     * @return true, если текущий запрос выполнял пишущую транзакцию.
+     */
+    public static boolean hasWritten() {
+        State state = CURRENT.get();
+        return state != null && state.written;
+    }
+
+    /**
+     * Завершает учет для текущего запроса.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    private static final class State {
+        private final long primaryUntilMillis;
+        private boolean written;
+
+        State(long primaryUntilMillis) {
+            this.primaryUntilMillis = primaryUntilMillis;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package ru.ruba.util;
+
+import jakarta.servlet.http.Cookie;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.util.WebUtils;
+
+/**
+ * Ведет {@link ReadYourWrites} для HTTP-запросов. После запроса с пишущей транзакцией клиент получает cookie
+ * с моментом окончания окна, и следующие его запросы до этого момента читают из основной базы:
+ * например, страница, на которую ведет перенаправление после выдачи книги, уже показывает читателя.
+ */
+public class ReadYourWritesInterceptor implements HandlerInterceptor {
+
+    public static final String COOKIE_NAME = "library_primary_until";
+
+    private final long windowMillis;
+
+    /**
+     * @param windowMillis Сколько миллисекунд после записи клиент читает из основной базы.
+     */
+    public ReadYourWritesInterceptor(long windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        ReadYourWrites.begin(readPrimaryUntil(request));
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        // перенаправление и страница отправляются после postHandle, поэтому cookie успевает попасть в ответ
+        if (!ReadYourWrites.hasWritten() || response.isCommitted())
+            return;
+        Cookie cookie = new Cookie(COOKIE_NAME, String.valueOf(System.currentTimeMillis() + windowMillis));
+        cookie.setPath(request.getContextPath().isEmpty() ? "/" : request.getContextPath());
+        cookie.setMaxAge((int) Math.max(1, (windowMillis + 999) / 1000));
+        cookie.setHttpOnly(true);
+        response.addCookie(cookie);
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        ReadYourWrites.clear();
+    }
+
+    private long readPrimaryUntil(HttpServletRequest request) {
+        Cookie cookie = WebUtils.getCookie(request, COOKIE_NAME);
+        if (cookie == null)
+            return 0;
+        try {
+            // значение задает клиент, поэтому окно не может быть длиннее настроенного
+            return Math.min(Long.parseLong(cookie.getValue()), System.currentTimeMillis() + windowMillis);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
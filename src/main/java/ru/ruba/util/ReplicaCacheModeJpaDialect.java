@@ -0,0 +1,41 @@
+package ru.ruba.util;
+
+import jakarta.persistence.CacheStoreMode;
+import jakarta.persistence.EntityManager;
+import org.hibernate.CacheMode;
+import org.hibernate.Session;
+import org.hibernate.jpa.SpecHints;
+import org.springframework.orm.jpa.vendor.HibernateJpaDialect;
+import org.springframework.transaction.TransactionDefinition;
+
+import java.sql.SQLException;
+
+/**
+ * Диалект JPA, запрещающий сессиям читающих транзакций, которые пойдут в реплику, добавлять данные в кэш второго
+ * уровня и кэш запросов (CacheMode.GET: из кэша читать можно, класть нельзя). Кэш общий для всех транзакций,
+ * и сущность или результат запроса, прочитанные из отстающей реплики, иначе оставались бы в нем до вытеснения
+ * и отдавались бы транзакциям основной базы. Кэш заполняют только транзакции основной базы.
+ */
+public class ReplicaCacheModeJpaDialect extends HibernateJpaDialect {
+
+    private final ReplicaRoutingDataSource routingDataSource;
+
+    /**
+     * @param routingDataSource Источник данных, выбирающий базу для транзакции.
+     */
+    public ReplicaCacheModeJpaDialect(ReplicaRoutingDataSource routingDataSource) {
+        this.routingDataSource = routingDataSource;
+    }
+
+    @Override
+    public Object beginTransaction(EntityManager entityManager, TransactionDefinition definition) throws SQLException {
+        Object transactionData = super.beginTransaction(entityManager, definition);
+        // новый менеджер сущностей создается на каждую транзакцию, поэтому режим не нужно восстанавливать
+        if (routingDataSource.routesToReplica(definition.isReadOnly())) {
+            // find() берет режим кэша из свойств JPA, а запросы - из режима сессии, поэтому задаются оба
+            entityManager.setProperty(SpecHints.HINT_SPEC_CACHE_STORE_MODE, CacheStoreMode.BYPASS);
+            entityManager.unwrap(Session.class).setCacheMode(CacheMode.GET);
+        }
+        return transactionData;
+    }
+}
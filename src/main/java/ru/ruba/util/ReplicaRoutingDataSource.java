@@ -0,0 +1,235 @@
+package ru.ruba.util;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Направляет соединения читающих транзакций (@Transactional(readOnly = true)) в реплики, а все остальные -
+ * в основную базу. Реплика выбирается по кругу или по наименьшему числу занятых соединений среди исправных;
+ * исправность проверяется периодически и при ошибке получения соединения. Если исправных реплик нет или клиент
+ * недавно записывал данные ({@link ReadYourWrites}), читающая транзакция тоже идет в основную базу.
+ * <p>
+ * Признак readOnly становится известен только после начала транзакции, поэтому источник данных должен
+ * оборачиваться в LazyConnectionDataSourceProxy: соединение запрашивается при первом SQL-запросе.
+ * Сессии транзакций, идущих в реплику, не заполняют кэш второго уровня ({@link ReplicaCacheModeJpaDialect}).
+ */
+public class ReplicaRoutingDataSource extends AbstractDataSource implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaRoutingDataSource.class);
+
+    /**
+     * Способ выбора реплики.
+     */
+    public enum Strategy {
+        ROUND_ROBIN,
+        LEAST_LOADED
+    }
+
+    private final HikariDataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final Strategy strategy;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final LongAdder primaryRoutes = new LongAdder();
+
+    private final LongAdder fallbacks = new LongAdder();
+
+    private final ScheduledExecutorService healthChecker;
+
+    /**
+     * @param primary                   Пул соединений основной базы.
+     * @param replicas                  Пулы соединений реплик по именам; может быть пустым.
+     * @param strategy                  Способ выбора реплики.
+     * @param healthCheckIntervalMillis Период проверки исправности реплик.
+     */
+    public ReplicaRoutingDataSource(HikariDataSource primary, Map<String, HikariDataSource> replicas,
+                                    Strategy strategy, long healthCheckIntervalMillis) {
+        this.primary = primary;
+        this.strategy = strategy;
+        List<Replica> list = new ArrayList<>();
+        replicas.forEach((name, dataSource) -> list.add(new Replica(name, dataSource)));
+        this.replicas = Collections.unmodifiableList(list);
+        if (this.replicas.isEmpty()) {
+            this.healthChecker = null;
+            return;
+        }
+        this.healthChecker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "replica-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+        healthChecker.scheduleWithFixedDelay(this::checkReplicas, 0, healthCheckIntervalMillis, TimeUnit.MILLISECONDS);
+        logger.info("Читающие транзакции направляются в реплики {} ({})", replicas.keySet(), strategy);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (!isReplicaRead())
+            return getPrimaryConnection();
+        for (Replica replica : selectReplicas()) {
+            try {
+                Connection connection = replica.dataSource.getConnection();
+                replica.routes.increment();
+                return connection;
+            } catch (SQLException e) {
+                replica.markDown(e.getMessage());
+            }
+        }
+        fallbacks.increment();
+        return getPrimaryConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Пул соединений не поддерживает getConnection(username, password)");
+    }
+
+    /**
+     * Определяет, пойдет ли транзакция текущего потока в реплику (если найдется исправная).
+     *
+     * @param readOnly Признак readOnly транзакции.
+     * @return true, если транзакция читающая, реплики настроены и клиенту не требуется основная база.
+     */
+    public boolean routesToReplica(boolean readOnly) {
+        return readOnly && !replicas.isEmpty() && !ReadYourWrites.isPrimaryRequired();
+    }
+
+    private boolean isReplicaRead() {
+        return TransactionSynchronizationManager.isActualTransactionActive()
+                && routesToReplica(TransactionSynchronizationManager.isCurrentTransactionReadOnly());
+    }
+
+    private Connection getPrimaryConnection() throws SQLException {
+        if (TransactionSynchronizationManager.isActualTransactionActive()
+                && !TransactionSynchronizationManager.isCurrentTransactionReadOnly())
+            ReadYourWrites.recordWrite();
+        primaryRoutes.increment();
+        return primary.getConnection();
+    }
+
+    /**
+     * @return Исправные реплики в порядке, в котором их следует пробовать.
+     */
+    private List<Replica> selectReplicas() {
+        List<Replica> healthy = new ArrayList<>(replicas.size());
+        int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            if (replica.up)
+                healthy.add(replica);
+        }
+        if (strategy == Strategy.LEAST_LOADED)
+            healthy.sort(Comparator.comparingInt(Replica::getActiveConnections));
+        return healthy;
+    }
+
+    private void checkReplicas() {
+        for (Replica replica : replicas) {
+            try (Connection connection = replica.dataSource.getConnection()) {
+                if (connection.isValid((int) TimeUnit.MILLISECONDS.toSeconds(
+                        replica.dataSource.getValidationTimeout()) + 1))
+                    replica.markUp();
+                else
+                    replica.markDown("соединение не прошло проверку");
+            } catch (SQLException | RuntimeException e) {
+                replica.markDown(e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (healthChecker != null)
+            healthChecker.shutdownNow();
+        replicas.forEach(replica -> replica.dataSource.close());
+        primary.close();
+    }
+
+    public List<Replica> getReplicas() {
+        return replicas;
+    }
+
+    /**
+     * @return Количество соединений, выданных основной базой.
+     */
+    public long getPrimaryRoutes() {
+        return primaryRoutes.sum();
+    }
+
+    /**
+     * @return Количество читающих транзакций, ушедших в основную базу из-за отсутствия исправных реплик.
+     */
+    public long getFallbacks() {
+        return fallbacks.sum();
+    }
+
+    /**
+     * Реплика и ее состояние.
+     */
+    public static final class Replica {
+
+        private final String name;
+        private final HikariDataSource dataSource;
+        private final LongAdder routes = new LongAdder();
+        private volatile boolean up = true;
+
+        Replica(String name, HikariDataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        private void markUp() {
+            if (!up)
+                logger.info("Реплика {} снова доступна", name);
+            up = true;
+        }
+
+        private void markDown(String reason) {
+            if (up)
+                logger.warn("Реплика {} недоступна, чтение переключено на другие базы: {}", name, reason);
+            up = false;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isUp() {
+            return up;
+        }
+
+        /**
+         * @return Количество соединений, выданных репликой.
+         */
+        public long getRoutes() {
+            return routes.sum();
+        }
+
+        public int getActiveConnections() {
+            HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package ru.ruba.util;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import org.slf4j.Marker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Выборочно пропускает частые записи уровня INFO и ниже от указанных логгеров, например
+ * записи о вызове методов контроллеров и сервисов. Решение принимается до создания события,
+ * поэтому отброшенная запись не стоит ни форматирования, ни места в очереди асинхронного аппендера.
+ * Записи уровня WARN и ERROR пропускаются всегда.
+ * <p>
+ * Доля пропускаемых записей задается для имени логгера или пакета в logback.xml:
+ * {@code <logger>ru.ruba.controllers=0.1</logger>}. Если подходит несколько правил, используется самое длинное имя.
+ */
+public class SamplingTurboFilter extends TurboFilter {
+
+    private final Map<String, Double> rules = new ConcurrentHashMap<>();
+
+    private final Map<String, Double> ratesByLogger = new ConcurrentHashMap<>();
+
+    /**
+     * Добавляет правило выборки.
+     *
+     * @param rule Строка вида "имя.логгера=доля", где доля от 0 (отбрасывать все) до 1 (пропускать все).
+     */
+    public void addLogger(String rule) {
+        int separator = rule.lastIndexOf('=');
+        if (separator <= 0) {
+            addError("Правило выборки должно иметь вид имя=доля: " + rule);
+            return;
+        }
+        try {
+            double rate = Double.parseDouble(rule.substring(separator + 1).strip());
+            rules.put(rule.substring(0, separator).strip(), Math.max(0, Math.min(1, rate)));
+            ratesByLogger.clear();
+        } catch (NumberFormatException e) {
+            addError("Неверная доля в правиле выборки: " + rule);
+        }
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        // проверки isInfoEnabled() и записи уровня WARN и выше не выбираются
+        if (!isStarted() || format == null || level.isGreaterOrEqual(Level.WARN))
+            return FilterReply.NEUTRAL;
+        double rate = ratesByLogger.computeIfAbsent(logger.getName(), this::rateFor);
+        if (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate)
+            return FilterReply.NEUTRAL;
+        return FilterReply.DENY;
+    }
+
+    private double rateFor(String loggerName) {
+        String best = null;
+        for (String name : rules.keySet()) {
+            boolean matches = loggerName.equals(name) || loggerName.startsWith(name + ".");
+            if (matches && (best == null || name.length() > best.length()))
+                best = name;
+        }
+        return best == null ? 1 : rules.get(best);
+    }
+}
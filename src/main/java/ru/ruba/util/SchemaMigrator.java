@@ -0,0 +1,275 @@
+package ru.ruba.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.EncodedResource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Версионные миграции схемы базы, выполняемые при запуске приложения до создания фабрики менеджера сущностей.
+ * <p>
+ * Скрипты лежат в classpath:db/migration/&lt;база&gt;/ (postgresql или h2) и называются V&lt;номер&gt;__&lt;описание&gt;.sql,
+ * как у Flyway. Примененные версии и контрольные суммы скриптов хранятся в таблице schema_version; каждый
+ * новый скрипт выполняется в отдельной транзакции в порядке номеров. Изменение уже примененного скрипта
+ * останавливает запуск: исправления схемы оформляются новой версией.
+ * <p>
+ * Скрипт с CONCURRENTLY (CREATE INDEX CONCURRENTLY в PostgreSQL) не может выполняться в транзакции, поэтому
+ * его команды выполняются по одной с автофиксацией. Если такой скрипт прерван, версия не записывается, а
+ * недостроенный индекс остается в базе помеченным INVALID, и IF NOT EXISTS при повторном запуске его пропустит:
+ * такой индекс нужно удалить (DROP INDEX CONCURRENTLY) до перезапуска.
+ * <p>
+ * Несколько экземпляров приложения, запущенных одновременно, применяют скрипты по очереди: до чтения
+ * schema_version берется сессионная рекомендательная блокировка PostgreSQL (pg_try_advisory_lock с повторами),
+ * для встроенной базы H2 - блокировка внутри JVM.
+ */
+public class SchemaMigrator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SchemaMigrator.class);
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__(.+)\\.sql");
+
+    private static final Pattern NON_TRANSACTIONAL = Pattern.compile("\\bconcurrently\\b", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern LINE_COMMENT = Pattern.compile("--[^\\n]*");
+
+    // ключ рекомендательной блокировки миграций в PostgreSQL, общий для всех экземпляров приложения
+    static final long LOCK_KEY = 0x5363686d5665724cL;
+
+    private static final long LOCK_POLL_MILLIS = 200;
+
+    private static final ReentrantLock LOCAL_LOCK = new ReentrantLock();
+
+    private final DataSource dataSource;
+
+    private final String location;
+
+    private final boolean enabled;
+
+    /**
+     * @param dataSource Источник данных основной базы.
+     * @param location   Каталог скриптов в classpath без имени базы, например db/migration.
+     * @param enabled    false - миграции не выполняются (схему ведут вручную).
+     */
+    public SchemaMigrator(DataSource dataSource, String location, boolean enabled) {
+        this.dataSource = dataSource;
+        this.location = location;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Применяет все еще не примененные скрипты.
+     *
+     * @return Количество примененных скриптов.
+     */
+    public int migrate() {
+        if (!enabled) {
+            logger.info("Миграции схемы отключены");
+            return 0;
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            String vendor = vendor(connection);
+            TreeMap<Integer, Resource> scripts = findScripts(vendor);
+            int count = 0;
+            lock(connection, vendor);
+            try {
+                createVersionTable(connection);
+                Map<Integer, Long> applied = readApplied(connection);
+                for (Map.Entry<Integer, Resource> script : scripts.entrySet()) {
+                    int version = script.getKey();
+                    String text = read(script.getValue());
+                    long checksum = checksum(text);
+                    Long appliedChecksum = applied.get(version);
+                    if (appliedChecksum != null) {
+                        if (appliedChecksum != checksum)
+                            throw new IllegalStateException("Скрипт " + script.getValue().getFilename()
+                                    + " изменен после применения, изменения схемы нужно оформить новой версией");
+                        continue;
+                    }
+                    apply(connection, version, script.getValue(), checksum, transactional(text));
+                    count++;
+                }
+            } finally {
+                unlock(connection, vendor);
+            }
+            logger.info("Схема базы ({}) в версии {}, применено скриптов: {}", vendor,
+                    scripts.isEmpty() ? 0 : scripts.lastKey(), count);
+            return count;
+        } catch (SQLException e) {
+            throw new IllegalStateException("Не удалось выполнить миграции схемы", e);
+        }
+    }
+
+    private String vendor(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName().toLowerCase(Locale.ROOT);
+        if (product.contains("postgresql"))
+            return "postgresql";
+        if (product.contains("h2"))
+            return "h2";
+        throw new IllegalStateException("Нет скриптов миграции для базы " + product);
+    }
+
+    private TreeMap<Integer, Resource> findScripts(String vendor) {
+        TreeMap<Integer, Resource> scripts = new TreeMap<>();
+        try {
+            for (Resource resource : new PathMatchingResourcePatternResolver()
+                    .getResources("classpath*:" + location + "/" + vendor + "/V*__*.sql")) {
+                Matcher matcher = SCRIPT_NAME.matcher(resource.getFilename());
+                if (!matcher.matches())
+                    continue;
+                if (scripts.put(Integer.parseInt(matcher.group(1)), resource) != null)
+                    throw new IllegalStateException("Два скрипта миграции с версией " + matcher.group(1));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return scripts;
+    }
+
+    /**
+     * Ждет, пока другой экземпляр приложения закончит миграции. Блокировка PostgreSQL сессионная, а не
+     * транзакционная: она держится и во время скриптов, выполняемых с автофиксацией.
+     * <p>
+     * Блокировка запрашивается через pg_try_advisory_lock с паузами, а не ожиданием в pg_advisory_lock: запрос,
+     * ждущий блокировку, держит снимок данных, CREATE INDEX CONCURRENTLY у владельца блокировки ждет завершения
+     * этого запроса, и PostgreSQL прерывает ожидающий экземпляр как взаимоблокировку.
+     */
+    private void lock(Connection connection, String vendor) throws SQLException {
+        LOCAL_LOCK.lock();
+        if (!"postgresql".equals(vendor))
+            return;
+        try (PreparedStatement lock = connection.prepareStatement("select pg_try_advisory_lock(?)")) {
+            lock.setLong(1, LOCK_KEY);
+            boolean logged = false;
+            while (!tryLock(lock)) {
+                if (!logged) {
+                    logger.info("Миграции схемы выполняет другой экземпляр приложения, ожидание");
+                    logged = true;
+                }
+                Thread.sleep(LOCK_POLL_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            LOCAL_LOCK.unlock();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Ожидание блокировки миграций прервано", e);
+        } catch (SQLException | RuntimeException e) {
+            LOCAL_LOCK.unlock();
+            throw e;
+        }
+    }
+
+    private static boolean tryLock(PreparedStatement lock) throws SQLException {
+        try (ResultSet result = lock.executeQuery()) {
+            return result.next() && result.getBoolean(1);
+        }
+    }
+
+    private void unlock(Connection connection, String vendor) throws SQLException {
+        try {
+            if ("postgresql".equals(vendor)) {
+                try (PreparedStatement unlock = connection.prepareStatement("select pg_advisory_unlock(?)")) {
+                    unlock.setLong(1, LOCK_KEY);
+                    unlock.execute();
+                }
+            }
+        } finally {
+            LOCAL_LOCK.unlock();
+        }
+    }
+
+    private void createVersionTable(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists schema_version (" +
+                    "version integer primary key, description varchar(200) not null, " +
+                    "checksum bigint not null, installed_at timestamp not null)");
+        }
+    }
+
+    private Map<Integer, Long> readApplied(Connection connection) throws SQLException {
+        Map<Integer, Long> applied = new HashMap<>();
+        try (Statement statement = connection.createStatement();
+             ResultSet rows = statement.executeQuery("select version, checksum from schema_version")) {
+            while (rows.next())
+                applied.put(rows.getInt(1), rows.getLong(2));
+        }
+        return applied;
+    }
+
+    private void apply(Connection connection, int version, Resource script, long checksum, boolean transactional)
+            throws SQLException {
+        long start = System.nanoTime();
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(!transactional);
+        try {
+            ScriptUtils.executeSqlScript(connection, new EncodedResource(script, StandardCharsets.UTF_8));
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into schema_version (version, description, checksum, installed_at) values (?, ?, ?, ?)")) {
+                insert.setInt(1, version);
+                insert.setString(2, description(script));
+                insert.setLong(3, checksum);
+                insert.setTimestamp(4, new Timestamp(System.currentTimeMillis()));
+                insert.executeUpdate();
+            }
+            if (transactional)
+                connection.commit();
+        } catch (RuntimeException | SQLException e) {
+            if (transactional) {
+                connection.rollback();
+            } else {
+                logger.error("Скрипт {} выполнялся вне транзакции и прерван: уже выполненные команды не отменены, " +
+                        "недостроенные индексы (pg_index.indisvalid = false) нужно удалить до перезапуска",
+                        script.getFilename());
+            }
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        logger.info("Применен скрипт {} {} за {} мс", script.getFilename(),
+                transactional ? "в транзакции" : "с автофиксацией команд", (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private static boolean transactional(String text) {
+        return !NON_TRANSACTIONAL.matcher(LINE_COMMENT.matcher(text).replaceAll("")).find();
+    }
+
+    private static String description(Resource script) {
+        Matcher matcher = SCRIPT_NAME.matcher(script.getFilename());
+        return matcher.matches() ? matcher.group(2).replace('_', ' ') : script.getFilename();
+    }
+
+    private static String read(Resource script) {
+        try (InputStream in = script.getInputStream()) {
+            // перевод строк не влияет на контрольную сумму, чтобы скрипт не считался измененным после checkout в Windows
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8).replace("\r\n", "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static long checksum(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+}
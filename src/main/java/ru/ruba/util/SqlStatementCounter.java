@@ -0,0 +1,32 @@
+package ru.ruba.util;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Считает SQL-запросы, подготовленные Hibernate в текущем потоке, чтобы видеть количество запросов на один HTTP-запрос.
+ * Текст запроса не изменяется.
+ */
+public class SqlStatementCounter implements StatementInspector {
+
+    private static final ThreadLocal<int[]> COUNT = ThreadLocal.withInitial(() -> new int[1]);
+
+    @Override
+    public String inspect(String sql) {
+        COUNT.get()[0]++;
+        return sql;
+    }
+
+    /**
+     * Обнуляет счетчик текущего потока.
+     */
+    public static void reset() {
+        COUNT.get()[0] = 0;
+    }
+
+    /**
+     * @return Количество SQL-запросов в текущем потоке с момента последнего {@link #reset()}.
+     */
+    public static int current() {
+        return COUNT.get()[0];
+    }
+}
@@ -0,0 +1,61 @@
+package ru.ruba.util;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Замеряет время вызова методов сервисов и репозиториев и записывает его в {@link MethodMetrics}.
+ * Для методов, возвращающих поток, замеряется только создание потока, но не его чтение.
+ */
+public class TimedMethodInterceptor implements MethodInterceptor {
+
+    private final MethodMetrics metrics;
+
+    private final String layer;
+
+    private final Map<TimerKey, MethodMetrics.Timer> timers = new ConcurrentHashMap<>();
+
+    public TimedMethodInterceptor(MethodMetrics metrics, String layer) {
+        this.metrics = metrics;
+        this.layer = layer;
+    }
+
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        MethodMetrics.Timer timer = timers.computeIfAbsent(
+                new TimerKey(invocation.getThis() == null ? invocation.getMethod().getDeclaringClass()
+                        : invocation.getThis().getClass(), invocation.getMethod()),
+                key -> metrics.timer(layer, ownerName(key.targetClass()) + '.' + key.method().getName()));
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            Object result = invocation.proceed();
+            failed = false;
+            return result;
+        } finally {
+            timer.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Имя класса для метрики; для прокси репозиториев Spring Data - имя интерфейса репозитория из пакета приложения.
+     */
+    private static String ownerName(Class<?> targetClass) {
+        if (Proxy.isProxyClass(targetClass)) {
+            for (Class<?> candidate : targetClass.getInterfaces()) {
+                if (candidate.getName().startsWith("ru.ruba."))
+                    return candidate.getSimpleName();
+            }
+        }
+        return ClassUtils.getUserClass(targetClass).getSimpleName();
+    }
+
+    private record TimerKey(Class<?> targetClass, Method method) {
+    }
+}
@@ -0,0 +1,34 @@
+-- Таблицы книг и читателей для встроенной базы H2 (замеры и нагрузочные прогоны).
+-- H2 не поддерживает индексы по выражениям и классы операторов, поэтому поиск по началу ФИО и email без учета
+-- регистра здесь выполняется без индекса; остальные индексы совпадают со скриптом для PostgreSQL.
+
+CREATE TABLE IF NOT EXISTS person (
+    id            integer PRIMARY KEY,
+    fio           varchar(30)  NOT NULL,
+    year_of_birth integer      NOT NULL,
+    email         varchar(255) NOT NULL,
+    version       integer DEFAULT 0 NOT NULL,
+    updated_at    timestamp DEFAULT current_timestamp
+);
+
+CREATE TABLE IF NOT EXISTS book (
+    id         integer PRIMARY KEY,
+    title      varchar(100) NOT NULL,
+    author     varchar(100) NOT NULL,
+    year       integer      NOT NULL,
+    person_id  integer,
+    taken_at   timestamp,
+    version    integer DEFAULT 0 NOT NULL,
+    updated_at timestamp DEFAULT current_timestamp
+);
+
+CREATE SEQUENCE IF NOT EXISTS person_seq START WITH 1 INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS book_seq START WITH 1 INCREMENT BY 50;
+
+CREATE UNIQUE INDEX IF NOT EXISTS person_fio_idx ON person (fio);
+CREATE INDEX IF NOT EXISTS book_title_prefix_idx ON book (title);
+CREATE INDEX IF NOT EXISTS book_year_id_idx ON book (year, id);
+CREATE INDEX IF NOT EXISTS book_person_id_idx ON book (person_id);
+-- внешний ключ добавляется после индекса, иначе H2 создаст для него собственный индекс по person_id
+ALTER TABLE book ADD CONSTRAINT IF NOT EXISTS book_person_id_fk FOREIGN KEY (person_id) REFERENCES person (id) ON DELETE SET NULL;
+CREATE INDEX IF NOT EXISTS book_taken_at_idx ON book (taken_at, id);
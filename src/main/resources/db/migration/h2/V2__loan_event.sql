@@ -0,0 +1,15 @@
+-- Журнал выдач и возвратов книг для встроенной базы H2. H2 не поддерживает секционирование, поэтому таблица
+-- обычная, а старые записи LoanHistoryPartitions удаляет запросом DELETE.
+
+CREATE TABLE IF NOT EXISTS loan_event (
+    id         bigint PRIMARY KEY,
+    book_id    integer     NOT NULL,
+    person_id  integer     NOT NULL,
+    event_type varchar(10) NOT NULL,
+    event_at   timestamp   NOT NULL
+);
+
+CREATE SEQUENCE IF NOT EXISTS loan_event_seq START WITH 1 INCREMENT BY 50;
+
+CREATE INDEX IF NOT EXISTS loan_event_book_idx ON loan_event (book_id, event_at, id);
+CREATE INDEX IF NOT EXISTS loan_event_person_idx ON loan_event (person_id, event_at, id);
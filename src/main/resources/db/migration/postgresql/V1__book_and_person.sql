@@ -0,0 +1,31 @@
+-- Таблицы книг и читателей. Индексы запросов строит V3__query_indexes.sql без блокировки записи в таблицы.
+-- Скрипт можно применять и к базе, созданной вручную до появления миграций: недостающие объекты создаются,
+-- существующие не изменяются.
+
+CREATE TABLE IF NOT EXISTS person (
+    id            integer PRIMARY KEY,
+    fio           varchar(30)  NOT NULL,
+    year_of_birth integer      NOT NULL,
+    email         varchar(255) NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS book (
+    id        integer PRIMARY KEY,
+    title     varchar(100) NOT NULL,
+    author    varchar(100) NOT NULL,
+    year      integer      NOT NULL,
+    person_id integer REFERENCES person (id) ON DELETE SET NULL,
+    taken_at  timestamp
+);
+
+ALTER TABLE person ADD COLUMN IF NOT EXISTS version integer DEFAULT 0 NOT NULL;
+ALTER TABLE person ADD COLUMN IF NOT EXISTS updated_at timestamp DEFAULT current_timestamp;
+ALTER TABLE book ADD COLUMN IF NOT EXISTS version integer DEFAULT 0 NOT NULL;
+ALTER TABLE book ADD COLUMN IF NOT EXISTS updated_at timestamp DEFAULT current_timestamp;
+
+-- идентификаторы выделяются блоками по 50 (allocationSize в сущностях), последовательности начинаются
+-- за наибольшим уже занятым идентификатором
+CREATE SEQUENCE IF NOT EXISTS person_seq INCREMENT BY 50;
+CREATE SEQUENCE IF NOT EXISTS book_seq INCREMENT BY 50;
+SELECT setval('person_seq', (SELECT coalesce(max(id), 0) + 1 FROM person));
+SELECT setval('book_seq', (SELECT coalesce(max(id), 0) + 1 FROM book));
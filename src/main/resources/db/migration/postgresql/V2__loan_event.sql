@@ -0,0 +1,39 @@
+-- Журнал выдач и возвратов книг. Записи только добавляются; таблица секционирована по месяцам времени события.
+-- Секции создает и отсоединяет LoanHistoryPartitions при запуске приложения и затем периодически.
+-- Записи за месяц без секции попадают в секцию по умолчанию, откуда LoanHistoryPartitions переносит их
+-- в секцию своего месяца, поэтому пропущенное обслуживание не ломает выдачу и возврат.
+-- Внешних ключей нет: история остается после удаления книги или читателя и в отсоединенных секциях.
+
+CREATE TABLE IF NOT EXISTS loan_event (
+    id         bigint      NOT NULL,
+    book_id    integer     NOT NULL,
+    person_id  integer     NOT NULL,
+    event_type varchar(10) NOT NULL,
+    event_at   timestamp   NOT NULL,
+    -- первичный ключ секционированной таблицы обязан включать ключ секционирования
+    PRIMARY KEY (id, event_at)
+) PARTITION BY RANGE (event_at);
+
+CREATE SEQUENCE IF NOT EXISTS loan_event_seq START WITH 1 INCREMENT BY 50;
+
+-- индексы секционированной таблицы создаются в каждой секции; порядок (event_at, id) совпадает
+-- с keyset-пагинацией истории книги и читателя
+CREATE INDEX IF NOT EXISTS loan_event_book_idx ON loan_event (book_id, event_at, id);
+CREATE INDEX IF NOT EXISTS loan_event_person_idx ON loan_event (person_id, event_at, id);
+
+CREATE TABLE IF NOT EXISTS loan_event_default PARTITION OF loan_event DEFAULT;
+
+-- секции текущего и следующего месяцев, чтобы новая база работала до первого обслуживания секций
+-- без записей в секции по умолчанию. Тело блока записано в одинарных кавычках, а не в $$:
+-- скрипт делится на запросы по ';' вне кавычек
+DO '
+DECLARE
+    first_day date;
+BEGIN
+    FOR i IN 0..1 LOOP
+        first_day := (date_trunc(''month'', current_date) + make_interval(months => i))::date;
+        EXECUTE format(''CREATE TABLE IF NOT EXISTS %I PARTITION OF loan_event FOR VALUES FROM (%L) TO (%L)'',
+                       ''loan_event_y'' || to_char(first_day, ''YYYY"m"MM''), first_day,
+                       (first_day + interval ''1 month'')::date);
+    END LOOP;
+END';
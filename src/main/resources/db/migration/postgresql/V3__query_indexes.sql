@@ -0,0 +1,22 @@
+-- Индексы для запросов репозиториев к таблицам книг и читателей.
+-- Таблицы могут быть уже заполнены и использоваться (база, созданная до появления миграций), поэтому индексы строятся
+-- с CONCURRENTLY: построение не блокирует запись в таблицу. CONCURRENTLY не работает в транзакции, и SchemaMigrator
+-- выполняет этот скрипт по одной команде с автофиксацией. Если построение прервано, индекс остается INVALID
+-- и IF NOT EXISTS его пропустит: перед повторным запуском его нужно удалить (DROP INDEX CONCURRENTLY).
+
+-- findByFio, existsByFio и проверка уникальности ФИО
+CREATE UNIQUE INDEX CONCURRENTLY IF NOT EXISTS person_fio_idx ON person (fio);
+-- подсказки при выборе читателя и поиск в списке людей по началу ФИО или email без учета регистра
+CREATE INDEX CONCURRENTLY IF NOT EXISTS person_fio_prefix_idx ON person (lower(fio) text_pattern_ops);
+CREATE INDEX CONCURRENTLY IF NOT EXISTS person_email_prefix_idx ON person (lower(email) text_pattern_ops);
+-- список людей в порядке ФИО (keyset-пагинация по lower(fio), id)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS person_fio_order_idx ON person (lower(fio), id);
+
+-- findByTitleStartingWith: like 'префикс%' при любой сортировке (collation) базы
+CREATE INDEX CONCURRENTLY IF NOT EXISTS book_title_prefix_idx ON book (title text_pattern_ops);
+-- сортировка по году и keyset-пагинация по (year, id)
+CREATE INDEX CONCURRENTLY IF NOT EXISTS book_year_id_idx ON book (year, id);
+-- Person.books, книги читателя, количество книг на руках, освобождение книг удаляемого читателя
+CREATE INDEX CONCURRENTLY IF NOT EXISTS book_person_id_idx ON book (person_id);
+-- отчет о просроченных книгах (order by taken_at, id); свободные книги в индекс не попадают
+CREATE INDEX CONCURRENTLY IF NOT EXISTS book_taken_at_idx ON book (taken_at, id) WHERE taken_at IS NOT NULL;
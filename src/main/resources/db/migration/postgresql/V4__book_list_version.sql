@@ -0,0 +1,11 @@
+-- Версия полного списка книг для ETag страницы /book: одна строка, номер которой увеличивается в транзакции
+-- каждого изменения книг (BookListVersion).
+
+CREATE TABLE IF NOT EXISTS book_list_version (
+    id         integer PRIMARY KEY,
+    version    bigint    NOT NULL,
+    updated_at timestamp NOT NULL
+);
+
+INSERT INTO book_list_version (id, version, updated_at)
+SELECT 1, 0, current_timestamp WHERE NOT EXISTS (SELECT 1 FROM book_list_version);
@@ -0,0 +1,6 @@
+-- Поиск книг по началу названия без учета регистра, пока индекс названий в памяти не построен
+-- (findByTitleStartingWith: lower(title) like 'префикс%'). Прежний индекс по title больше не используется.
+-- Скрипт с CONCURRENTLY выполняется по одной команде с автофиксацией, как V3__query_indexes.sql.
+
+CREATE INDEX CONCURRENTLY IF NOT EXISTS book_title_lower_prefix_idx ON book (lower(title) text_pattern_ops);
+DROP INDEX CONCURRENTLY IF EXISTS book_title_prefix_idx;
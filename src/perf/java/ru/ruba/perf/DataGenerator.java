@@ -0,0 +1,144 @@
+package ru.ruba.perf;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.YearMonth;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Заполняет базу синтетическими читателями и книгами пакетными вставками JDBC.
+ * Данные воспроизводимы: при одинаковых параметрах и зерне генератора получается одна и та же база.
+ * Идентификаторы назначаются подряд с 1, после вставки последовательности book_seq и person_seq
+ * переводятся за последний идентификатор.
+ * <p>
+ * Для выданных книг в журнал выдач записывается выдача, но только с начала прошлого месяца: раньше
+ * в PostgreSQL секций журнала нет (см. LoanHistoryPartitions).
+ */
+public class DataGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(DataGenerator.class);
+
+    private static final String[] TITLE_WORDS = {
+            "Война", "Мир", "Преступление", "Наказание", "Идиот", "Бесы", "Отцы", "Дети", "Мертвые", "Души",
+            "Капитанская", "Дочка", "Герой", "Нашего", "Времени", "Горе", "Уму", "Тихий", "Дон", "Мастер",
+            "Маргарита", "Белая", "Гвардия", "Собачье", "Сердце", "Доктор", "Живаго", "Обломов", "Анна", "Каренина"
+    };
+
+    private static final String[] SURNAMES = {
+            "Иванов", "Петров", "Сидоров", "Смирнов", "Кузнецов", "Попов", "Васильев", "Соколов", "Михайлов", "Новиков"
+    };
+
+    private static final String[] NAMES = {
+            "Иван", "Петр", "Алексей", "Сергей", "Андрей", "Дмитрий", "Михаил", "Николай", "Павел", "Федор"
+    };
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final DataSource dataSource;
+
+    private final long seed;
+
+    public DataGenerator(DataSource dataSource, long seed) {
+        this.dataSource = dataSource;
+        this.seed = seed;
+    }
+
+    /**
+     * Удаляет все книги и читателей и заполняет базу заново.
+     *
+     * @param books        Количество книг.
+     * @param people       Количество читателей.
+     * @param loanedShare  Доля выданных книг (от 0 до 1).
+     * @param maxLoanDays  Книги выданы в случайный момент за последние maxLoanDays дней.
+     */
+    public void generate(int books, int people, double loanedShare, int maxLoanDays) throws SQLException {
+        long start = System.nanoTime();
+        Random random = new Random(seed);
+        try (Connection connection = dataSource.getConnection()) {
+            connection.setAutoCommit(false);
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("delete from loan_event");
+                statement.executeUpdate("delete from Book");
+                statement.executeUpdate("delete from Person");
+            }
+            insertPeople(connection, people);
+            insertBooks(connection, books, people, loanedShare, maxLoanDays, random);
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "insert into loan_event (id, book_id, person_id, event_type, event_at) " +
+                            "select id, id, person_id, 'CHECKOUT', taken_at from Book where taken_at >= ?")) {
+                insert.setTimestamp(1, Timestamp.valueOf(YearMonth.now().minusMonths(1).atDay(1).atStartOfDay()));
+                insert.executeUpdate();
+            }
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("alter sequence person_seq restart with " + (people + 1));
+                statement.executeUpdate("alter sequence book_seq restart with " + (books + 1));
+                statement.executeUpdate("alter sequence loan_event_seq restart with " + (books + 1));
+            }
+            connection.commit();
+        }
+        logger.info("Сгенерировано {} книг и {} читателей за {} мс", books, people,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    private void insertPeople(Connection connection, int people) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "insert into Person (id, fio, year_of_birth, email) values (?, ?, ?, ?)")) {
+            for (int id = 1; id <= people; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, fio(id));
+                insert.setInt(3, 1940 + id % 70);
+                insert.setString(4, "reader" + id + "@library.ru");
+                addBatch(insert, id);
+            }
+            insert.executeBatch();
+        }
+    }
+
+    private void insertBooks(Connection connection, int books, int people, double loanedShare, int maxLoanDays,
+                             Random random) throws SQLException {
+        long now = System.currentTimeMillis();
+        try (PreparedStatement insert = connection.prepareStatement(
+                "insert into Book (id, title, author, year, person_id, taken_at) values (?, ?, ?, ?, ?, ?)")) {
+            for (int id = 1; id <= books; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + ' '
+                        + TITLE_WORDS[random.nextInt(TITLE_WORDS.length)] + ' ' + id);
+                insert.setString(3, SURNAMES[random.nextInt(SURNAMES.length)] + ' ' + NAMES[random.nextInt(NAMES.length)]);
+                insert.setInt(4, 1800 + random.nextInt(224));
+                if (people > 0 && random.nextDouble() < loanedShare) {
+                    insert.setInt(5, 1 + random.nextInt(people));
+                    insert.setTimestamp(6, new Timestamp(now - (long) (random.nextDouble() * TimeUnit.DAYS.toMillis(maxLoanDays))));
+                } else {
+                    insert.setNull(5, Types.INTEGER);
+                    insert.setNull(6, Types.TIMESTAMP);
+                }
+                addBatch(insert, id);
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * @param id Идентификатор читателя.
+     * @return ФИО, которое генератор присваивает читателю с этим идентификатором.
+     */
+    public static String fio(int id) {
+        // ФИО уникально и не длиннее 30 символов, как требует валидация формы
+        return SURNAMES[id % SURNAMES.length] + ' ' + NAMES[(id / SURNAMES.length) % NAMES.length] + ' ' + id;
+    }
+
+    private static void addBatch(PreparedStatement insert, int row) throws SQLException {
+        insert.addBatch();
+        if (row % BATCH_SIZE == 0)
+            insert.executeBatch();
+    }
+}
@@ -0,0 +1,23 @@
+package ru.ruba.perf;
+
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+
+import javax.sql.DataSource;
+
+/**
+ * Заполняет базу синтетическими данными без запуска нагрузки (например, базу PostgreSQL, указанную в perf.config).
+ * Параметры - системные свойства load.books, load.people, load.loaned_share, load.max_loan_days и load.seed.
+ */
+public final class GenerateData {
+
+    private GenerateData() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        try (AnnotationConfigWebApplicationContext context = LibraryContext.start()) {
+            LoadSettings settings = LoadSettings.fromSystemProperties();
+            new DataGenerator(context.getBean(DataSource.class), settings.seed())
+                    .generate(settings.books(), settings.people(), settings.loanedShare(), settings.maxLoanDays());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package ru.ruba.perf;
+
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.config.SpringConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Поднимает контекст приложения ({@link SpringConfig}) для замеров.
+ * Настройки подключения и схемы берутся из perf.properties и переносятся в системные свойства:
+ * они имеют приоритет и над hibernate.properties в Spring, и над настройками, которые Hibernate читает сам.
+ * Файл, указанный в системном свойстве perf.config, дополняет и переопределяет perf.properties
+ * (например, чтобы запустить замеры на PostgreSQL).
+ */
+public final class LibraryContext {
+
+    private LibraryContext() {
+    }
+
+    /**
+     * Переносит настройки замеров в системные свойства, не затирая уже заданные через -D.
+     */
+    public static void applySettings() {
+        Properties settings = new Properties();
+        try (InputStream in = LibraryContext.class.getResourceAsStream("/perf.properties")) {
+            if (in != null)
+                settings.load(in);
+            String external = System.getProperty("perf.config");
+            if (external != null && !external.isBlank()) {
+                try (InputStream file = Files.newInputStream(Path.of(external))) {
+                    settings.load(file);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        settings.forEach((key, value) -> {
+            if (System.getProperty((String) key) == null)
+                System.setProperty((String) key, (String) value);
+        });
+    }
+
+    /**
+     * Поднимает контекст приложения вне контейнера сервлетов.
+     *
+     * @return Запущенный контекст.
+     */
+    public static AnnotationConfigWebApplicationContext start() {
+        applySettings();
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+        context.setServletContext(new MockServletContext());
+        context.register(SpringConfig.class);
+        context.refresh();
+        return context;
+    }
+}
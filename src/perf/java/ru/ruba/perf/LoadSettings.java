@@ -0,0 +1,41 @@
+package ru.ruba.perf;
+
+/**
+ * Параметры генерации данных и нагрузки, задаются системными свойствами load.*.
+ *
+ * @param books           Количество книг.
+ * @param people          Количество читателей (по умолчанию в 10 раз меньше, чем книг).
+ * @param loanedShare     Доля выданных книг.
+ * @param maxLoanDays     Книги выданы в случайный момент за последние maxLoanDays дней.
+ * @param seed            Зерно генератора случайных чисел.
+ * @param generate        Заполнять ли базу перед нагрузкой (false - использовать уже заполненную базу).
+ * @param rate            Целевая частота запросов в секунду (открытая модель нагрузки).
+ * @param clients         Количество клиентов, каждый отправляет следующий запрос сразу после ответа на предыдущий
+ *                        (закрытая модель нагрузки); 0 - подавать запросы с частотой rate.
+ * @param virtualThreads  Обрабатывать ли запросы во встроенном Tomcat на виртуальных потоках.
+ * @param warmupSeconds   Длительность прогрева, запросы прогрева не попадают в отчет.
+ * @param durationSeconds Длительность замера.
+ * @param port            Порт встроенного Tomcat (0 - любой свободный).
+ * @param result          Файл для результатов в формате JSON.
+ */
+public record LoadSettings(int books, int people, double loanedShare, int maxLoanDays, long seed, boolean generate,
+                           int rate, int clients, boolean virtualThreads, int warmupSeconds, int durationSeconds, int port, String result) {
+
+    public static LoadSettings fromSystemProperties() {
+        int books = Integer.getInteger("load.books", 100_000);
+        return new LoadSettings(
+                books,
+                Integer.getInteger("load.people", Math.max(1, books / 10)),
+                Double.parseDouble(System.getProperty("load.loaned_share", "0.3")),
+                Integer.getInteger("load.max_loan_days", 30),
+                Long.getLong("load.seed", 42),
+                Boolean.parseBoolean(System.getProperty("load.generate", "true")),
+                Integer.getInteger("load.rate", 200),
+                Integer.getInteger("load.clients", 0),
+                Boolean.parseBoolean(System.getProperty("load.virtual_threads", "false")),
+                Integer.getInteger("load.warmup", 10),
+                Integer.getInteger("load.duration", 30),
+                Integer.getInteger("load.port", 0),
+                System.getProperty("load.result", "target/load-result.json"));
+    }
+}
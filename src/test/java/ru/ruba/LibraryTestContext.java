@@ -0,0 +1,110 @@
+package ru.ruba;
+
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.io.FileSystemResourceLoader;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.config.SpringConfig;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Поднимает контекст приложения ({@link SpringConfig}) для тестов. Настройки берутся из тестового
+ * hibernate.properties, каждый контекст получает свою встроенную базу H2, поэтому тесты не видят данных друг друга.
+ */
+public final class LibraryTestContext {
+
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private LibraryTestContext() {
+    }
+
+    /**
+     * @return Запущенный контекст с новой пустой базой.
+     */
+    public static AnnotationConfigWebApplicationContext start() {
+        return start(Map.of());
+    }
+
+    /**
+     * @param properties Настройки, переопределяющие hibernate.properties.
+     * @return Запущенный контекст; если datasource.url не задан, с новой пустой базой.
+     */
+    public static AnnotationConfigWebApplicationContext start(Map<String, Object> properties) {
+        return start(properties, new Class<?>[0]);
+    }
+
+    /**
+     * @param properties     Настройки, переопределяющие hibernate.properties.
+     * @param configurations Дополнительные классы конфигурации теста, регистрируемые вместе с {@link SpringConfig}.
+     * @return Запущенный контекст; если datasource.url не задан, с новой пустой базой.
+     */
+    public static AnnotationConfigWebApplicationContext start(Map<String, Object> properties,
+                                                              Class<?>... configurations) {
+        Map<String, Object> settings = new HashMap<>(properties);
+        settings.putIfAbsent("datasource.url", h2Url("library-test-" + DATABASES.incrementAndGet()));
+        AnnotationConfigWebApplicationContext context = new AnnotationConfigWebApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("test", settings));
+        // шаблоны страниц читаются из каталога веб-приложения, как в контейнере сервлетов
+        context.setServletContext(new MockServletContext("src/main/webapp", new FileSystemResourceLoader()));
+        context.register(SpringConfig.class);
+        if (configurations.length > 0)
+            context.register(configurations);
+        context.refresh();
+        return context;
+    }
+
+    /**
+     * @param name Имя встроенной базы.
+     * @return URL встроенной базы H2 в режиме совместимости с PostgreSQL.
+     */
+    public static String h2Url(String name) {
+        return "jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1;MODE=PostgreSQL;NON_KEYWORDS=YEAR,VALUE";
+    }
+
+    /**
+     * @return true, если системным свойством test.postgresql.url задана база PostgreSQL для тестов.
+     */
+    public static boolean postgresqlConfigured() {
+        String url = System.getProperty("test.postgresql.url");
+        return url != null && !url.isBlank();
+    }
+
+    /**
+     * Создает заново схему в базе test.postgresql.url (пользователь и пароль - test.postgresql.username и
+     * test.postgresql.password). Соединения источника данных ищут таблицы в этой схеме (search_path), поэтому
+     * тесты не затрагивают другие схемы базы.
+     *
+     * @param schema Имя схемы; существующая схема удаляется со всем содержимым.
+     * @return Источник данных со схемой в search_path.
+     */
+    public static DataSource postgresqlSchema(String schema) {
+        String url = System.getProperty("test.postgresql.url");
+        String username = System.getProperty("test.postgresql.username", "postgres");
+        String password = System.getProperty("test.postgresql.password", "");
+        JdbcTemplate jdbc = new JdbcTemplate(new DriverManagerDataSource(url, username, password));
+        jdbc.execute("drop schema if exists " + schema + " cascade");
+        jdbc.execute("create schema " + schema);
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(url, username, password);
+        Properties properties = new Properties();
+        properties.setProperty("options", "-c search_path=" + schema);
+        dataSource.setConnectionProperties(properties);
+        return dataSource;
+    }
+
+    /**
+     * @param context Запущенный контекст.
+     * @return MockMvc для запросов к контроллерам без контейнера сервлетов.
+     */
+    public static MockMvc mockMvc(AnnotationConfigWebApplicationContext context) {
+        return MockMvcBuilders.webAppContextSetup(context).build();
+    }
+}
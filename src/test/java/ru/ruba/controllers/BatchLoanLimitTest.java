@@ -0,0 +1,89 @@
+package ru.ruba.controllers;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+
+/**
+ * Массовая выдача и возврат книг ограничены library.loans.max_batch_size: более длинный список отклоняется
+ * целиком, ни одна книга не выдается.
+ */
+class BatchLoanLimitTest {
+
+    private static final int MAX_BATCH_SIZE = 3;
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static MockMvc mvc;
+
+    private static int personId;
+
+    private static String bookIds;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start(Map.of("library.loans.max_batch_size", MAX_BATCH_SIZE));
+        mvc = LibraryTestContext.mockMvc(context);
+        Person person = new Person("Читатель Пакетов", 1990, "batch@mail.ru");
+        context.getBean(PeopleService.class).savePerson(person);
+        personId = person.getId();
+        StringBuilder ids = new StringBuilder();
+        for (int i = 0; i <= MAX_BATCH_SIZE; i++) {
+            Book book = new Book("Пакетная книга " + i, "Автор", 2000);
+            context.getBean(BookService.class).saveBook(book);
+            ids.append(i == 0 ? "" : ",").append(book.getId());
+        }
+        bookIds = ids.toString();
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    void rejectsTooManyBooksToAssign() throws Exception {
+        MockHttpServletResponse response = mvc.perform(patch("/people/" + personId + "/assign")
+                .param("book_ids", bookIds)).andReturn().getResponse();
+
+        assertEquals(400, response.getStatus());
+        assertTrue(response.getContentAsString().contains("не больше " + MAX_BATCH_SIZE + " книг"));
+        assertEquals(0, new JdbcTemplate(context.getBean(DataSource.class))
+                .queryForObject("select count(*) from book where person_id is not null", Integer.class));
+    }
+
+    @Test
+    void rejectsTooManyBooksToRelease() throws Exception {
+        MockHttpServletResponse response = mvc.perform(patch("/people/" + personId + "/release")
+                .param("book_ids", bookIds)).andReturn().getResponse();
+
+        assertEquals(400, response.getStatus());
+    }
+
+    @Test
+    void acceptsBatchWithinLimit() throws Exception {
+        String withinLimit = bookIds.substring(0, bookIds.lastIndexOf(','));
+        MockHttpServletResponse response = mvc.perform(patch("/people/" + personId + "/assign")
+                .param("book_ids", withinLimit)).andReturn().getResponse();
+
+        assertEquals(200, response.getStatus());
+        assertEquals(MAX_BATCH_SIZE, response.getContentAsString().split("Выдана", -1).length - 1);
+        mvc.perform(patch("/people/" + personId + "/release").param("book_ids", withinLimit));
+    }
+}
@@ -0,0 +1,116 @@
+package ru.ruba.controllers;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+import ru.ruba.util.SqlStatementCounter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * ETag полного списка книг /book: меняется при каждом изменении списка, даже если количество книг и наибольший id
+ * остались прежними, и не меняется при выдаче книги; ответ 304 стоит одного запроса.
+ */
+class BookListEtagTest {
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static MockMvc mvc;
+
+    private static BookService bookService;
+
+    private static int bookId;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start();
+        mvc = LibraryTestContext.mockMvc(context);
+        bookService = context.getBean(BookService.class);
+        Book book = new Book("Версия списка", "Автор", 1990);
+        bookService.saveBook(book);
+        bookId = book.getId();
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    void editChangesEtag() throws Exception {
+        String before = etag();
+        Book edit = new Book("Версия списка", "Автор", 1991);
+
+        assertTrue(bookService.updateBook(bookId, edit));
+
+        assertNotEquals(before, etag());
+    }
+
+    @Test
+    void addAndDeleteChangeEtag() throws Exception {
+        String before = etag();
+        Book book = new Book("Временная книга", "Автор", 2000);
+        bookService.saveBook(book);
+        String added = etag();
+        bookService.deleteBook(book.getId());
+
+        assertNotEquals(before, added);
+        assertNotEquals(added, etag());
+    }
+
+    @Test
+    void loanKeepsEtag() throws Exception {
+        Person reader = new Person("Читатель Версии", 1990, "version@mail.ru");
+        context.getBean(PeopleService.class).savePerson(reader);
+        String before = etag();
+
+        assertTrue(bookService.assign(bookId, reader));
+        assertEquals(before, etag());
+        assertTrue(bookService.release(bookId));
+    }
+
+    @Test
+    void notModifiedIsOneStatement() throws Exception {
+        String etag = etag();
+
+        MockHttpServletResponse response = mvc.perform(get("/book").header(HttpHeaders.IF_NONE_MATCH, etag))
+                .andReturn().getResponse();
+
+        assertEquals(304, response.getStatus());
+        assertEquals(1, SqlStatementCounter.current());
+    }
+
+    /**
+     * Версия списка увеличивается запросом JPQL, поэтому добавление книги не сбрасывает из кэша второго уровня
+     * уже закэшированные книги.
+     */
+    @Test
+    void bumpKeepsCachedBooks() {
+        EntityManagerFactory entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        bookService.findOneBook(bookId);
+        assertTrue(entityManagerFactory.getCache().contains(Book.class, bookId));
+
+        bookService.saveBook(new Book("Еще одна книга", "Автор", 2001));
+
+        assertTrue(entityManagerFactory.getCache().contains(Book.class, bookId));
+    }
+
+    private static String etag() throws Exception {
+        MockHttpServletResponse response = mvc.perform(get("/book")).andReturn().getResponse();
+        assertEquals(200, response.getStatus());
+        return response.getHeader(HttpHeaders.ETAG);
+    }
+}
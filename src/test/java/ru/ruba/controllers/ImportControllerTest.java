@@ -0,0 +1,129 @@
+package ru.ruba.controllers;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.dto.ImportReport;
+
+import javax.sql.DataSource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.multipart;
+
+/**
+ * Массовый импорт через /import: каждый пакет из hibernate.jdbc.batch_size строк фиксируется отдельно, строка,
+ * нарушившая ограничение базы, попадает в отчет, не отменяя остальные строки, а неизвестный тип отклоняется.
+ */
+class ImportControllerTest {
+
+    private static final int BATCH_SIZE = 2;
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static MockMvc mvc;
+
+    private static JdbcTemplate jdbc;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start(Map.of("hibernate.jdbc.batch_size", BATCH_SIZE));
+        mvc = LibraryTestContext.mockMvc(context);
+        jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    /**
+     * Пять книг - три пакета, каждый в своей транзакции: версия списка книг увеличивается по разу на пакет.
+     */
+    @Test
+    void commitsEachBatchSeparately() throws Exception {
+        long version = listVersion();
+        String csv = """
+                title,author,year
+                Пакет один,Автор,1990
+                Пакет два,Автор,1991
+                Пакет три,Автор,1992
+                Пакет четыре,Автор,1993
+                Пакет пять,Автор,1994
+                """;
+
+        ImportReport report = importFile("books", "books.csv", csv);
+
+        assertEquals(5, report.getRowsImported());
+        assertEquals(0, report.getErrorCount());
+        assertEquals(5, count("select count(*) from book where title like 'Пакет %'"));
+        assertEquals(version + 3, listVersion());
+    }
+
+    /**
+     * ФИО, занятое мимо приложения (фильтр ФИО о нем не знает), проверка перед вставкой не замечает, и запись
+     * пакета нарушает уникальный индекс. Ошибку получает только эта строка, остальные строки пакета и файла сохранены.
+     */
+    @Test
+    void reportsConstraintViolationAsRowError() throws Exception {
+        jdbc.update("insert into person (id, fio, year_of_birth, email) values (-1, 'Занятое Имя', 1980, 'taken@mail.ru')");
+        String csv = """
+                fio,year_of_birth,email
+                Первый Импорт,1990,first@mail.ru
+                Занятое Имя,1991,second@mail.ru
+                Третий Импорт,1992,third@mail.ru
+                Четвертый Импорт,1993,fourth@mail.ru
+                """;
+
+        ImportReport report = importFile("people", "people.csv", csv);
+
+        assertEquals(4, report.getRowsRead());
+        assertEquals(3, report.getRowsImported());
+        assertEquals(1, report.getErrorCount());
+        assertEquals(3, report.getErrors().get(0).getRow());
+        assertTrue(report.getErrors().get(0).getMessage().contains("person_fio_idx"), report.getErrors().get(0).getMessage());
+        assertEquals(3, count("select count(*) from person where fio like '% Импорт'"));
+        assertEquals(1, count("select count(*) from person where fio = 'Занятое Имя'"));
+    }
+
+    @Test
+    void rejectsUnknownType() throws Exception {
+        MockHttpServletResponse response = mvc.perform(multipart("/import")
+                        .file(new MockMultipartFile("file", "books.csv", "text/csv",
+                                "title,author,year\nКнига,Автор,1990\n".getBytes(StandardCharsets.UTF_8)))
+                        .param("type", "authors"))
+                .andReturn().getResponse();
+
+        assertEquals(400, response.getStatus());
+        assertTrue(response.getContentAsString().contains("Неизвестный тип импорта"));
+        assertEquals(0, count("select count(*) from book where title = 'Книга'"));
+    }
+
+    private static ImportReport importFile(String type, String fileName, String content) throws Exception {
+        MvcResult result = mvc.perform(multipart("/import")
+                        .file(new MockMultipartFile("file", fileName, "text/csv", content.getBytes(StandardCharsets.UTF_8)))
+                        .param("type", type))
+                .andReturn();
+        assertEquals(200, result.getResponse().getStatus());
+        return (ImportReport) result.getModelAndView().getModel().get("report");
+    }
+
+    private static long listVersion() {
+        Long version = jdbc.queryForObject("select version from book_list_version", Long.class);
+        return version == null ? 0 : version;
+    }
+
+    private static int count(String sql) {
+        Integer count = jdbc.queryForObject(sql, Integer.class);
+        return count == null ? 0 : count;
+    }
+}
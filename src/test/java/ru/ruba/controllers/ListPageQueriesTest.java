@@ -0,0 +1,123 @@
+package ru.ruba.controllers;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.repositories.BookRepository;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+import ru.ruba.util.SqlStatementCounter;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Количество SQL-запросов страниц со списками: проекции читают список одним запросом, сколько бы разных читателей
+ * ни было у книг. Кэш второго уровня и кэш фрагментов перед каждым запросом пусты, поэтому считается худший случай.
+ * Запросы считает {@link SqlStatementCounter} (его обнуляет MetricsInterceptor в начале каждого HTTP-запроса).
+ */
+class ListPageQueriesTest {
+
+    private static final int READERS = 20;
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static MockMvc mvc;
+
+    private static int personId;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start(Map.of("view.fragment_cache.enabled", "false"));
+        mvc = LibraryTestContext.mockMvc(context);
+        BookService bookService = context.getBean(BookService.class);
+        PeopleService peopleService = context.getBean(PeopleService.class);
+        // у каждой книги свой читатель из READERS, по две книги на читателя
+        for (int i = 0; i < READERS; i++) {
+            Person reader = new Person("Читатель " + i, 1990, "reader" + i + "@mail.ru");
+            peopleService.savePerson(reader);
+            personId = reader.getId();
+            for (String suffix : new String[]{"", " (том 2)"}) {
+                Book book = new Book("Книга " + i + suffix, "Автор", 1950 + i);
+                bookService.saveBook(book);
+                bookService.assign(book.getId(), reader);
+            }
+        }
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    @BeforeEach
+    void evictCaches() {
+        context.getBean(EntityManagerFactory.class).getCache().evictAll();
+    }
+
+    /**
+     * Прежний путь чтения списка: сущности книг с читателем по ассоциации дают запрос на каждого читателя (N+1).
+     */
+    @Test
+    void entityListTouchingReadersIsNPlusOne() {
+        BookRepository bookRepository = context.getBean(BookRepository.class);
+        TransactionTemplate transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        transaction.setReadOnly(true);
+
+        SqlStatementCounter.reset();
+        transaction.executeWithoutResult(status ->
+                bookRepository.findAll().forEach(book -> book.getReader().getFio()));
+
+        assertEquals(1 + READERS, SqlStatementCounter.current());
+    }
+
+    @Test
+    void bookPageIsVersionAndOneSelect() throws Exception {
+        assertEquals(2, statements(get("/book").param("page", "0").param("books_per_page", "40")));
+    }
+
+    @Test
+    void streamedBookListIsVersionAndOneSelect() throws Exception {
+        assertEquals(2, statements(get("/book")));
+    }
+
+    @Test
+    void keysetBookPagesAreVersionAndOneSelect() throws Exception {
+        assertEquals(2, statements(get("/book").param("after_id", "0").param("books_per_page", "40")));
+        assertEquals(2, statements(get("/book").param("after_id", "0").param("after_year", "0")
+                .param("sort_by_year", "true").param("books_per_page", "40")));
+    }
+
+    @Test
+    void bookSearchIsOneSelect() throws Exception {
+        assertEquals(1, statements(post("/book/search").param("query", "Книга")));
+    }
+
+    @Test
+    void personPageIsVersionPersonAndBooks() throws Exception {
+        assertEquals(3, statements(get("/people/" + personId)));
+    }
+
+    @Test
+    void peopleListIsOneSelect() throws Exception {
+        assertEquals(1, statements(get("/people")));
+    }
+
+    private static int statements(RequestBuilder request) throws Exception {
+        assertEquals(200, mvc.perform(request).andReturn().getResponse().getStatus());
+        return SqlStatementCounter.current();
+    }
+}
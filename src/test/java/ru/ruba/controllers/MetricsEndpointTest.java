@@ -0,0 +1,140 @@
+package ru.ruba.controllers;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.services.BookService;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Выгрузка /metrics в текстовом формате Prometheus после нескольких запросов к страницам книг: серии обработчиков,
+ * методов сервисов и репозиториев, статистики Hibernate и пула соединений.
+ */
+class MetricsEndpointTest {
+
+    private static final Pattern SAMPLE = Pattern.compile("([a-z_]+)(\\{.*})? (\\S+)");
+
+    private static final int BOOK_PAGE_REQUESTS = 5;
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static MockHttpServletResponse scrape;
+
+    private static Map<String, Double> samples;
+
+    @BeforeAll
+    static void scrapeAfterRequests() throws Exception {
+        // статистика Hibernate по умолчанию выключена
+        context = LibraryTestContext.start(Map.of("hibernate.generate_statistics", "true"));
+        MockMvc mvc = LibraryTestContext.mockMvc(context);
+        Book book = new Book("Метрики", "Автор", 2000);
+        context.getBean(BookService.class).saveBook(book);
+        for (int i = 0; i < BOOK_PAGE_REQUESTS; i++)
+            mvc.perform(get("/book/" + book.getId()));
+        mvc.perform(get("/book").param("page", "0").param("books_per_page", "5"));
+
+        scrape = mvc.perform(get("/metrics")).andReturn().getResponse();
+        samples = parse(scrape.getContentAsString());
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    void usesPrometheusTextFormat() throws Exception {
+        assertEquals(200, scrape.getStatus());
+        assertTrue(scrape.getContentType().replace(" ", "").startsWith("text/plain;version=0.0.4"),
+                scrape.getContentType());
+        Set<String> typed = new HashSet<>();
+        for (String line : scrape.getContentAsString().split("\n")) {
+            if (line.startsWith("# TYPE "))
+                typed.add(line.split(" ")[2]);
+            else if (!line.isEmpty() && !line.startsWith("#")) {
+                Matcher matcher = SAMPLE.matcher(line);
+                assertTrue(matcher.matches(), line);
+                String name = matcher.group(1);
+                assertTrue(typed.contains(name) || typed.contains(name.replaceAll("_(bucket|sum|count)$", "")),
+                        "нет # TYPE для " + line);
+            }
+        }
+    }
+
+    @Test
+    void timesHandlersAndServiceMethods() {
+        assertEquals(BOOK_PAGE_REQUESTS,
+                sample("library_method_duration_seconds_count{layer=\"http\",method=\"GET /book/{id}\"}"));
+        assertEquals(BOOK_PAGE_REQUESTS,
+                sample("library_method_duration_seconds_count{layer=\"service\",method=\"BookService.findBookWithReader\"}"));
+        assertEquals(BOOK_PAGE_REQUESTS,
+                sample("library_method_duration_seconds_bucket{layer=\"http\",method=\"GET /book/{id}\",le=\"+Inf\"}"));
+        assertEquals(1, sample("library_method_duration_seconds_count{layer=\"http\",method=\"GET /book\"}"));
+        assertTrue(sample("library_method_duration_seconds_sum{layer=\"http\",method=\"GET /book/{id}\"}") > 0);
+        assertEquals(0, sample("library_method_errors_total{layer=\"http\",method=\"GET /book/{id}\"}"));
+        assertTrue(sample("library_http_sql_statements_total{method=\"GET /book/{id}\"}") >= BOOK_PAGE_REQUESTS);
+    }
+
+    @Test
+    void histogramBucketsAreCumulative() {
+        double previous = 0;
+        for (Map.Entry<String, Double> entry : samples.entrySet()) {
+            if (!entry.getKey().startsWith("library_method_duration_seconds_bucket{layer=\"http\",method=\"GET /book/{id}\""))
+                continue;
+            assertTrue(entry.getValue() >= previous, entry.getKey());
+            previous = entry.getValue();
+        }
+        assertEquals(BOOK_PAGE_REQUESTS, previous);
+    }
+
+    @Test
+    void exportsHibernateStatistics() {
+        assertTrue(sample("hibernate_statements_prepared_total") > 0);
+        assertTrue(sample("hibernate_query_executions_total") > 0);
+        assertTrue(sample("hibernate_transactions_total") > 0);
+        assertTrue(sample("hibernate_flushes_total") > 0);
+        assertTrue(sample("hibernate_second_level_cache_puts_total") > 0);
+        assertTrue(samples.containsKey("hibernate_second_level_cache_hits_total"));
+        assertTrue(samples.containsKey("hibernate_entity_loads_total"));
+    }
+
+    @Test
+    void exportsConnectionPool() {
+        assertTrue(sample("hikaricp_connection_acquire_seconds_count{pool=\"library-primary\"}") > 0);
+        assertTrue(sample("hikaricp_connections_max{pool=\"library-primary\"}") > 0);
+        assertEquals(0, sample("hikaricp_connection_timeouts_total{pool=\"library-primary\"}"));
+        assertTrue(samples.containsKey("hikaricp_connections{pool=\"library-primary\",state=\"active\"}"));
+    }
+
+    private static double sample(String series) {
+        Double value = samples.get(series);
+        assertTrue(value != null, "нет серии " + series);
+        return value;
+    }
+
+    private static Map<String, Double> parse(String text) {
+        Map<String, Double> parsed = new LinkedHashMap<>();
+        for (String line : text.split("\n")) {
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            int space = line.lastIndexOf(' ');
+            parsed.put(line.substring(0, space), Double.parseDouble(line.substring(space + 1)));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,106 @@
+package ru.ruba.controllers;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.services.BookService;
+import ru.ruba.services.PeopleService;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+
+/**
+ * Сохранение формы редактирования читателя: запрос UPDATE записывает только поля, отличающиеся от исходных значений
+ * формы, не трогает выданные читателю книги и не выполняется, если ничего не изменилось.
+ */
+class PeopleUpdateTest {
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static MockMvc mvc;
+
+    private static JdbcTemplate jdbc;
+
+    private static PeopleService peopleService;
+
+    private static BookService bookService;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start();
+        mvc = LibraryTestContext.mockMvc(context);
+        jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+        peopleService = context.getBean(PeopleService.class);
+        bookService = context.getBean(BookService.class);
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    /**
+     * Пока форма открыта, email меняется мимо нее; форма меняет только год рождения. Email из формы не затирает
+     * новое значение, а книга читателя остается у него с прежней датой выдачи.
+     */
+    @Test
+    void updatePersonLeavesHeldBooksAndUnchangedColumns() throws Exception {
+        Person reader = new Person("Читатель Формы", 1990, "form@mail.ru");
+        peopleService.savePerson(reader);
+        Book book = new Book("Книга читателя формы", "Автор", 2000);
+        bookService.saveBook(book);
+        bookService.assign(book.getId(), reader);
+        Timestamp takenAt = jdbc.queryForObject("select taken_at from book where id = ?", Timestamp.class, book.getId());
+        jdbc.update("update person set email = 'changed@mail.ru' where id = ?", reader.getId());
+
+        assertEquals(302, submit(reader.getId(), new Person("Читатель Формы", 1990, "form@mail.ru"),
+                new Person("Читатель Формы", 1991, "form@mail.ru")));
+
+        Map<String, Object> row = jdbc.queryForMap("select year_of_birth, email from person where id = ?", reader.getId());
+        assertEquals(1991, ((Number) row.get("year_of_birth")).intValue());
+        assertEquals("changed@mail.ru", row.get("email"));
+        Map<String, Object> held = jdbc.queryForMap("select person_id, taken_at from book where id = ?", book.getId());
+        assertEquals(reader.getId(), ((Number) held.get("person_id")).intValue());
+        assertEquals(takenAt, held.get("taken_at"));
+    }
+
+    @Test
+    void unchangedFormDoesNotUpdate() throws Exception {
+        Person reader = new Person("Читатель Без Правок", 1985, "same@mail.ru");
+        peopleService.savePerson(reader);
+        long version = version(reader.getId());
+
+        assertEquals(302, submit(reader.getId(), reader, reader));
+
+        assertEquals(version, version(reader.getId()));
+    }
+
+    /**
+     * Отправляет форму, открытую со значениями original, с полями form.
+     */
+    private static int submit(int id, Person original, Person form) throws Exception {
+        return mvc.perform(patch("/people/{id}", id)
+                        .param("fio", form.getFio())
+                        .param("year_of_birth", String.valueOf(form.getYear_of_birth()))
+                        .param("email", form.getEmail())
+                        .param("original_fio", original.getFio())
+                        .param("original_year_of_birth", String.valueOf(original.getYear_of_birth()))
+                        .param("original_email", original.getEmail()))
+                .andReturn().getResponse().getStatus();
+    }
+
+    private static long version(int id) {
+        Long version = jdbc.queryForObject("select version from person where id = ?", Long.class, id);
+        return version == null ? 0 : version;
+    }
+}
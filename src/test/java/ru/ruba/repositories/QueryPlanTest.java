@@ -0,0 +1,403 @@
+package ru.ruba.repositories;
+
+import jakarta.persistence.EntityManagerFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.BookListVersion;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * Проверяет, что запросы репозиториев выполняются по индексам из миграций схемы. Каждая проверка вызывает метод
+ * репозитория, перехватывает SQL, который Hibernate отправил в базу, вместе с параметрами и получает для него
+ * план EXPLAIN с теми же параметрами; в плане должен встретиться ожидаемый индекс.
+ * <p>
+ * По умолчанию проверка идет на встроенной базе H2. Индексов по выражениям (lower(fio), lower(email)) и секций
+ * журнала выдач в H2 нет, поэтому для таких запросов на H2 проверяется сам SQL: в нем должно стоять выражение,
+ * по которому PostgreSQL построит индекс или отсечет секции. Системное свойство test.postgresql.url
+ * (и test.postgresql.username, test.postgresql.password) запускает проверку планов на PostgreSQL; тест работает
+ * в своей схеме query_plan_test и пересоздает ее.
+ */
+class QueryPlanTest {
+
+    private static final String SCHEMA = "query_plan_test";
+
+    private static final int BOOKS = 20_000;
+
+    private static final int PEOPLE = 2_000;
+
+    private static final String[] TITLE_WORDS = {"Война", "Мир", "Мастер", "Маргарита", "Горе", "Уму", "Дон", "Тихий"};
+
+    private static final String[] SURNAMES = {"Иванов", "Петров", "Сидоров", "Смирнов", "Кузнецов"};
+
+    private static final String[] NAMES = {"Иван", "Петр", "Сергей", "Андрей"};
+
+    private static final Sort BY_YEAR = Sort.by("year", "id");
+
+    /**
+     * @param query   Проверяемый метод репозитория.
+     * @param call    Вызов метода; проверяется первый выполненный им запрос select.
+     * @param sql     Для запросов, план которых зависит от возможностей PostgreSQL: выражение, которое должно быть
+     *                в SQL (проверяется на H2); null - план проверяется на обеих базах.
+     * @param absent  Таблица (секция), которой не должно быть в плане; null - не проверяется.
+     * @param indexes Имена индексов (таблиц, секций), любое из которых должно встретиться в плане.
+     */
+    private record Check(String query, Consumer<Repositories> call, Pattern sql, Pattern absent, String... indexes) {
+
+        @Override
+        public String toString() {
+            return query;
+        }
+    }
+
+    private record Repositories(BookRepository books, PeopleRepository people, LoanEventRepository loanEvents,
+                                BookListVersionRepository bookListVersion) {
+    }
+
+    /**
+     * Запрос, выполненный через JDBC: SQL и вызовы set* с параметрами, которые повторяются для EXPLAIN.
+     */
+    private record Executed(String sql, List<Binding> bindings) {
+    }
+
+    private record Binding(Method method, Object[] arguments) {
+    }
+
+    private static final List<Executed> executed = new ArrayList<>();
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static boolean postgresql;
+
+    @BeforeAll
+    static void fillDatabase() throws SQLException {
+        postgresql = LibraryTestContext.postgresqlConfigured();
+        Map<String, Object> settings = new HashMap<>();
+        if (postgresql) {
+            LibraryTestContext.postgresqlSchema(SCHEMA);
+            String url = System.getProperty("test.postgresql.url");
+            settings.put("datasource.driver_class", "org.postgresql.Driver");
+            settings.put("datasource.url", url + (url.contains("?") ? "&" : "?") + "currentSchema=" + SCHEMA);
+            settings.put("datasource.username", System.getProperty("test.postgresql.username", "postgres"));
+            settings.put("datasource.password", System.getProperty("test.postgresql.password", ""));
+            settings.put("hibernate.dialect", "org.hibernate.dialect.PostgreSQLDialect");
+        }
+        context = LibraryTestContext.start(settings, StatementRecording.class);
+        try (Connection connection = context.getBean(DataSource.class).getConnection()) {
+            connection.setAutoCommit(false);
+            insertPeople(connection);
+            insertBooksAndEvents(connection);
+            connection.commit();
+            connection.setAutoCommit(true);
+            // без свежей статистики планировщик PostgreSQL может счесть таблицы пустыми
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("analyze");
+            }
+        }
+    }
+
+    @AfterAll
+    static void close() {
+        context.close();
+    }
+
+    static List<Check> checks() {
+        Date now = new Date();
+        Date overdueBefore = new Date(now.getTime() - TimeUnit.DAYS.toMillis(25));
+        Date yearAgo = new Date(now.getTime() - TimeUnit.DAYS.toMillis(365));
+        Date monthAgo = new Date(now.getTime() - TimeUnit.DAYS.toMillis(30));
+        return List.of(
+                new Check("BookRepository.findByTitleStartingWith",
+                        r -> r.books().findByTitleStartingWith("война мир", PageRequest.of(0, 50)),
+                        expression("lower\\(\\w+\\.title\\) like"), null, "book_title_lower_prefix_idx"),
+                new Check("PeopleRepository.findByFio",
+                        r -> r.people().findByFio("Иванов Иван 5"),
+                        null, null, "person_fio_idx"),
+                new Check("PeopleRepository.existsByFio",
+                        r -> r.people().existsByFio("Иванов Иван 5"),
+                        null, null, "person_fio_idx"),
+                new Check("BookRepository.findAllBy(Pageable), сортировка по году",
+                        r -> r.books().findAllBy(PageRequest.of(10, 20, BY_YEAR)),
+                        null, null, "book_year_id_idx"),
+                new Check("BookRepository.findVersionsBy (версии страницы списка), сортировка по году",
+                        r -> r.books().findVersionsBy(PageRequest.of(10, 20, BY_YEAR)),
+                        null, null, "book_year_id_idx"),
+                new Check("BookRepository.findNextByYear",
+                        r -> r.books().findNextByYear(1900, 100, PageRequest.of(0, 20, BY_YEAR)),
+                        null, null, "book_year_id_idx"),
+                new Check("BookRepository.findByIdGreaterThan",
+                        r -> r.books().findByIdGreaterThan(500, PageRequest.of(0, 20, Sort.by("id"))),
+                        null, null, "book_pkey", "primary_key"),
+                new Check("BookRepository.findWithReaderById",
+                        r -> r.books().findWithReaderById(7),
+                        null, null, "book_pkey", "primary_key"),
+                new Check("BookRepository.findPageVersionById (версии страницы книги)",
+                        r -> r.books().findPageVersionById(7),
+                        null, null, "book_pkey", "primary_key"),
+                new Check("BookRepository.findLoanedByPersonId (Person.books)",
+                        r -> r.books().findLoanedByPersonId(7, overdueBefore),
+                        null, null, "book_person_id_idx"),
+                new Check("PeopleRepository.findPageVersionById (версии страницы человека)",
+                        r -> r.people().findPageVersionById(7, overdueBefore),
+                        null, null, "book_person_id_idx"),
+                new Check("BookRepository.findOverdue",
+                        r -> r.books().findOverdue(overdueBefore, PageRequest.of(0, 50)),
+                        null, null, "book_taken_at_idx"),
+                // в таблице одна строка: важно, что таблица книг не читается
+                new Check("BookListVersionRepository.findById (ETag списка книг)",
+                        r -> r.bookListVersion().findById(BookListVersion.ID),
+                        null, expression("\\bbook\\b"), "book_list_version"),
+                new Check("PeopleRepository.findInactiveIds (очистка неактивных)",
+                        r -> r.people().findInactiveIds(yearAgo, 0, PageRequest.of(0, 500)),
+                        null, null, "loan_event_person_idx", "person_id_event_at_id_idx"),
+                new Check("PeopleRepository.findListAfterFio (количество книг на руках)",
+                        r -> r.people().findListAfterFio("иванов", 0, PageRequest.of(0, 50)),
+                        expression("order by lower\\(\\w+\\.fio\\)"), null, "person_fio_order_idx"),
+                new Check("PeopleRepository.findOptionsByFioPrefix",
+                        r -> r.people().findOptionsByFioPrefix("петров пет", PageRequest.of(0, 20)),
+                        expression("lower\\(\\w+\\.fio\\) like"), null, "person_fio_prefix_idx", "person_fio_order_idx"),
+                new Check("PeopleRepository.findListByPrefixAfterId (поиск по email)",
+                        r -> r.people().findListByPrefixAfterId("reader12", 0, PageRequest.of(0, 50)),
+                        expression("lower\\(\\w+\\.email\\) like"), null, "person_email_prefix_idx", "person_pkey"),
+                // индексы секций PostgreSQL называет по столбцам: loan_event_y2026m10_book_id_event_at_id_idx
+                new Check("LoanEventRepository.findBookHistory",
+                        r -> r.loanEvents().findBookHistory(6, yearAgo, now, Long.MAX_VALUE, PageRequest.of(0, 20)),
+                        null, null, "loan_event_book_idx", "book_id_event_at_id_idx"),
+                new Check("LoanEventRepository.findPersonHistory",
+                        r -> r.loanEvents().findPersonHistory(7, yearAgo, now, Long.MAX_VALUE, PageRequest.of(0, 20)),
+                        null, null, "loan_event_person_idx", "person_id_event_at_id_idx"),
+                // отчет читает только секции периода
+                new Check("LoanEventRepository.findMostBorrowed (отсечение секций)",
+                        r -> r.loanEvents().findMostBorrowed(monthAgo, now, PageRequest.of(0, 10)),
+                        expression("\\w+\\.event_at>=\\? and \\w+\\.event_at<\\?"),
+                        expression("loan_event_default"), partition(YearMonth.now()))
+        );
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("checks")
+    void queryUsesIndex(Check check) throws SQLException {
+        Executed query = capture(check);
+        if (check.sql() != null && !postgresql) {
+            assertTrue(check.sql().matcher(query.sql()).find(), "В SQL нет выражения " + check.sql() + ": " + query.sql());
+            return;
+        }
+        String plan = explain(query);
+        String lowerPlan = plan.toLowerCase(Locale.ROOT);
+        if (check.absent() != null)
+            assertFalse(check.absent().matcher(lowerPlan).find(), "В плане есть " + check.absent() + ":"
+                    + System.lineSeparator() + plan);
+        for (String index : check.indexes()) {
+            if (lowerPlan.contains(index))
+                return;
+        }
+        fail("В плане нет индекса " + String.join(" или ", check.indexes()) + ":" + System.lineSeparator()
+                + query.sql() + System.lineSeparator() + plan);
+    }
+
+    /**
+     * Вызывает метод репозитория в читающей транзакции с пустым кэшем второго уровня и возвращает
+     * первый выполненный им запрос select.
+     */
+    private static Executed capture(Check check) {
+        context.getBean(EntityManagerFactory.class).getCache().unwrap(org.hibernate.Cache.class).evictAllRegions();
+        Repositories repositories = new Repositories(context.getBean(BookRepository.class),
+                context.getBean(PeopleRepository.class), context.getBean(LoanEventRepository.class),
+                context.getBean(BookListVersionRepository.class));
+        TransactionTemplate transaction = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        transaction.setReadOnly(true);
+        synchronized (executed) {
+            executed.clear();
+        }
+        transaction.executeWithoutResult(status -> check.call().accept(repositories));
+        synchronized (executed) {
+            return executed.stream()
+                    .filter(query -> query.sql().stripLeading().toLowerCase(Locale.ROOT).startsWith("select"))
+                    .findFirst()
+                    .orElseThrow(() -> new AssertionError(check.query() + " не выполнил ни одного запроса select"));
+        }
+    }
+
+    private static String explain(Executed query) throws SQLException {
+        StringJoiner plan = new StringJoiner(System.lineSeparator());
+        try (Connection connection = context.getBean(DataSource.class).getConnection();
+             PreparedStatement statement = connection.prepareStatement("explain " + query.sql())) {
+            for (Binding binding : query.bindings())
+                invoke(binding.method(), statement, binding.arguments());
+            try (ResultSet rows = statement.executeQuery()) {
+                while (rows.next())
+                    plan.add(rows.getString(1));
+            }
+        }
+        return plan.toString();
+    }
+
+    private static Pattern expression(String regex) {
+        return Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+    }
+
+    private static String partition(YearMonth month) {
+        return String.format(Locale.ROOT, "loan_event_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+    private static void insertPeople(Connection connection) throws SQLException {
+        try (PreparedStatement insert = connection.prepareStatement(
+                "insert into person (id, fio, year_of_birth, email) values (?, ?, ?, ?)")) {
+            for (int id = 1; id <= PEOPLE; id++) {
+                insert.setInt(1, id);
+                insert.setString(2, SURNAMES[id % SURNAMES.length] + ' ' + NAMES[id / SURNAMES.length % NAMES.length] + ' ' + id);
+                insert.setInt(3, 1940 + id % 70);
+                insert.setString(4, "reader" + id + "@library.ru");
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+    }
+
+    /**
+     * Каждая третья книга выдана; по каждой выданной книге в журнале есть запись о выдаче.
+     */
+    private static void insertBooksAndEvents(Connection connection) throws SQLException {
+        long now = System.currentTimeMillis();
+        try (PreparedStatement book = connection.prepareStatement(
+                "insert into book (id, title, author, year, person_id, taken_at) values (?, ?, ?, ?, ?, ?)");
+             PreparedStatement event = connection.prepareStatement(
+                     "insert into loan_event (id, book_id, person_id, event_type, event_at) values (?, ?, ?, 'CHECKOUT', ?)")) {
+            for (int id = 1; id <= BOOKS; id++) {
+                book.setInt(1, id);
+                book.setString(2, TITLE_WORDS[id % TITLE_WORDS.length] + ' '
+                        + TITLE_WORDS[id / TITLE_WORDS.length % TITLE_WORDS.length] + ' ' + id);
+                book.setString(3, SURNAMES[id % SURNAMES.length] + ' ' + NAMES[id % NAMES.length]);
+                book.setInt(4, 1800 + id % 224);
+                if (id % 3 == 0) {
+                    int reader = 1 + id % PEOPLE;
+                    Timestamp takenAt = new Timestamp(now - TimeUnit.HOURS.toMillis(id % 720));
+                    book.setInt(5, reader);
+                    book.setTimestamp(6, takenAt);
+                    event.setLong(1, id);
+                    event.setInt(2, id);
+                    event.setInt(3, reader);
+                    event.setTimestamp(4, takenAt);
+                    event.addBatch();
+                } else {
+                    book.setNull(5, Types.INTEGER);
+                    book.setNull(6, Types.TIMESTAMP);
+                }
+                book.addBatch();
+                if (id % 1000 == 0) {
+                    book.executeBatch();
+                    event.executeBatch();
+                }
+            }
+            book.executeBatch();
+            event.executeBatch();
+        }
+    }
+
+    private static Object invoke(Method method, Object target, Object[] arguments) throws SQLException {
+        try {
+            return method.invoke(target, arguments);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException sqlException)
+                throw sqlException;
+            throw new IllegalStateException(e.getCause());
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Оборачивает источник данных приложения так, что каждый выполненный подготовленный запрос
+     * (SQL и параметры) попадает в {@link #executed}.
+     */
+    @Configuration
+    static class StatementRecording {
+
+        @Bean
+        static BeanPostProcessor statementRecorder() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!"dataSource".equals(beanName) || !(bean instanceof DataSource dataSource))
+                        return bean;
+                    return proxy(DataSource.class, dataSource, (target, method, arguments) -> {
+                        Object result = invoke(method, target, arguments);
+                        return result instanceof Connection connection ? recordingConnection(connection) : result;
+                    });
+                }
+            };
+        }
+
+        private static Connection recordingConnection(Connection connection) {
+            return proxy(Connection.class, connection, (target, method, arguments) -> {
+                Object result = invoke(method, target, arguments);
+                if (result instanceof PreparedStatement statement && method.getName().equals("prepareStatement"))
+                    return recordingStatement(statement, (String) arguments[0]);
+                return result;
+            });
+        }
+
+        private static PreparedStatement recordingStatement(PreparedStatement statement, String sql) {
+            List<Binding> bindings = new ArrayList<>();
+            return proxy(PreparedStatement.class, statement, (target, method, arguments) -> {
+                if (method.getName().startsWith("set") && arguments != null && arguments.length >= 2
+                        && method.getParameterTypes()[0] == int.class)
+                    bindings.add(new Binding(method, arguments.clone()));
+                else if (method.getName().startsWith("execute") && (arguments == null || arguments.length == 0)) {
+                    synchronized (executed) {
+                        executed.add(new Executed(sql, List.copyOf(bindings)));
+                    }
+                }
+                return invoke(method, target, arguments);
+            });
+        }
+
+        private interface Handler<T> {
+
+            Object handle(T target, Method method, Object[] arguments) throws Throwable;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <T> T proxy(Class<T> type, T target, Handler<T> handler) {
+            InvocationHandler invocationHandler = (proxy, method, arguments) -> handler.handle(target, method, arguments);
+            return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package ru.ruba.services;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.dto.LoanStatus;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Одновременная выдача и возврат одной книги из многих потоков: условные запросы UPDATE должны дать ровно
+ * одного победителя, а журнал выдач - ровно одну запись о нем.
+ */
+class BookCheckoutConcurrencyTest {
+
+    private static final int THREADS = 200;
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static BookService bookService;
+
+    private static JdbcTemplate jdbc;
+
+    private static final List<Person> readers = new ArrayList<>();
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start();
+        bookService = context.getBean(BookService.class);
+        jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+        PeopleService peopleService = context.getBean(PeopleService.class);
+        for (int i = 0; i < THREADS; i++) {
+            Person reader = new Person("Читатель " + i, 1990, "reader" + i + "@mail.ru");
+            peopleService.savePerson(reader);
+            readers.add(reader);
+        }
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    void assignAllHasExactlyOneWinner() throws Exception {
+        int bookId = newBook("Гонка массовой выдачи");
+
+        List<LoanStatus> statuses = race(i -> bookService.assignAll(List.of(bookId), readers.get(i)).get(bookId));
+
+        Map<LoanStatus, Integer> counts = count(statuses);
+        assertEquals(1, counts.getOrDefault(LoanStatus.ASSIGNED, 0));
+        assertEquals(THREADS - 1, counts.getOrDefault(LoanStatus.ALREADY_TAKEN, 0));
+        assertEquals(1, loanEvents(bookId, "CHECKOUT"));
+        assertEquals(winner(statuses, LoanStatus.ASSIGNED), holderOf(bookId));
+    }
+
+    /**
+     * Книга, которая уже у этого же читателя, не считается выданной повторно; если свободных книг в списке нет,
+     * версия каталога не меняется.
+     */
+    @Test
+    void assignAllReportsBooksAlreadyHeldBySameReader() {
+        int heldId = newBook("Уже у читателя");
+        int freeId = newBook("Свободная книга");
+        int missingId = freeId + 1_000_000;
+        Person reader = readers.get(0);
+        bookService.assign(heldId, reader);
+        CatalogueVersion catalogueVersion = context.getBean(CatalogueVersion.class);
+
+        long before = catalogueVersion.current();
+        Map<Integer, LoanStatus> nothingFree = bookService.assignAll(List.of(heldId, missingId), reader);
+        assertEquals(before, catalogueVersion.current());
+        assertEquals(Map.of(heldId, LoanStatus.ALREADY_TAKEN, missingId, LoanStatus.MISSING), nothingFree);
+
+        Map<Integer, LoanStatus> results = bookService.assignAll(List.of(heldId, freeId, missingId), reader);
+        assertEquals(List.of(LoanStatus.ALREADY_TAKEN, LoanStatus.ASSIGNED, LoanStatus.MISSING),
+                List.copyOf(results.values()));
+        assertEquals(1, loanEvents(heldId, "CHECKOUT"));
+        assertEquals(1, loanEvents(freeId, "CHECKOUT"));
+        assertEquals(reader.getId(), holderOf(freeId));
+    }
+
+    @Test
+    void assignHasExactlyOneWinner() throws Exception {
+        int bookId = newBook("Гонка выдачи");
+
+        List<Boolean> assigned = race(i -> bookService.assign(bookId, readers.get(i)));
+
+        assertEquals(1, Collections.frequency(assigned, true));
+        assertEquals(1, loanEvents(bookId, "CHECKOUT"));
+        assertEquals(winner(assigned, true), holderOf(bookId));
+    }
+
+    /**
+     * Если ни одной книги читателя в списке нет, ничего не освобождается и версия каталога не меняется.
+     */
+    @Test
+    void releaseAllWithoutHeldBooksChangesNothing() {
+        int heldId = newBook("У другого читателя");
+        int freeId = newBook("Никем не взята");
+        int missingId = freeId + 1_000_000;
+        bookService.assign(heldId, readers.get(1));
+        CatalogueVersion catalogueVersion = context.getBean(CatalogueVersion.class);
+
+        long before = catalogueVersion.current();
+        Map<Integer, LoanStatus> results = bookService.releaseAll(List.of(heldId, freeId, missingId),
+                readers.get(0).getId());
+
+        assertEquals(before, catalogueVersion.current());
+        assertEquals(List.of(LoanStatus.NOT_HELD, LoanStatus.NOT_HELD, LoanStatus.MISSING),
+                List.copyOf(results.values()));
+        assertEquals(readers.get(1).getId(), holderOf(heldId));
+        assertEquals(0, loanEvents(heldId, "RETURN"));
+    }
+
+    @Test
+    void releaseHasExactlyOneWinner() throws Exception {
+        int bookId = newBook("Гонка возврата");
+        bookService.assign(bookId, readers.get(0));
+
+        List<Boolean> released = race(i -> bookService.release(bookId));
+
+        assertEquals(1, Collections.frequency(released, true));
+        assertEquals(1, loanEvents(bookId, "RETURN"));
+        assertNull(holderOf(bookId));
+    }
+
+    private static int newBook(String title) {
+        Book book = new Book(title, "Автор", 2000);
+        bookService.saveBook(book);
+        return book.getId();
+    }
+
+    /**
+     * Запускает действие одновременно во всех потоках: потоки ждут общего сигнала после старта.
+     *
+     * @return Результаты по номерам потоков.
+     */
+    private static <T> List<T> race(ThreadAction<T> action) throws Exception {
+        CountDownLatch ready = new CountDownLatch(THREADS);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<T>> futures = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int i = 0; i < THREADS; i++) {
+                int thread = i;
+                futures.add(executor.submit((Callable<T>) () -> {
+                    ready.countDown();
+                    go.await();
+                    return action.run(thread);
+                }));
+            }
+            ready.await();
+            go.countDown();
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : futures)
+                results.add(future.get());
+            return results;
+        }
+    }
+
+    private static <T> Map<T, Integer> count(List<T> values) {
+        Map<T, Integer> counts = new HashMap<>();
+        values.forEach(value -> counts.merge(value, 1, Integer::sum));
+        return counts;
+    }
+
+    private static <T> Integer winner(List<T> results, T winning) {
+        return readers.get(results.indexOf(winning)).getId();
+    }
+
+    private static Integer holderOf(int bookId) {
+        return jdbc.queryForObject("select person_id from book where id = ?", Integer.class, bookId);
+    }
+
+    private static int loanEvents(int bookId, String type) {
+        Integer events = jdbc.queryForObject("select count(*) from loan_event where book_id = ? and event_type = ?",
+                Integer.class, bookId, type);
+        return events == null ? 0 : events;
+    }
+
+    @FunctionalInterface
+    private interface ThreadAction<T> {
+        T run(int thread) throws Exception;
+    }
+}
@@ -0,0 +1,181 @@
+package ru.ruba.services;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.SessionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.models.Person;
+import ru.ruba.repositories.PeopleRepository;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Удаление читателей: удаление читателя с книгами на руках освобождает книги, пишет возвраты в журнал выдач
+ * и сбрасывает кэшированный список книг читателя, а удаление неактивных читателей порциями не удаляет читателя,
+ * взявшего книгу между выборкой порции и ее удалением.
+ */
+class PeopleDeletionTest {
+
+    private static final String BOOKS_ROLE = Person.class.getName() + ".books";
+
+    /**
+     * Выполняется один раз сразу после выборки порции кандидатов на удаление, до ее удаления.
+     */
+    private static volatile Consumer<List<Integer>> afterInactiveIds;
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static PeopleService peopleService;
+
+    private static BookService bookService;
+
+    private static JdbcTemplate jdbc;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start(Map.of(), CandidateHook.class);
+        peopleService = context.getBean(PeopleService.class);
+        bookService = context.getBean(BookService.class);
+        jdbc = new JdbcTemplate(context.getBean(DataSource.class));
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    @Test
+    void deletePersonReleasesBooksAndEvictsCachedBooks() {
+        Person reader = newReader("Удаляемый Читатель");
+        int first = newBook("Первая книга удаляемого");
+        int second = newBook("Вторая книга удаляемого");
+        bookService.assign(first, reader);
+        bookService.assign(second, reader);
+        EntityManagerFactory entityManagerFactory = context.getBean(EntityManagerFactory.class);
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            assertEquals(2, entityManager.find(Person.class, reader.getId()).getBooks().size());
+        } finally {
+            entityManager.close();
+        }
+        org.hibernate.Cache cache = entityManagerFactory.unwrap(SessionFactory.class).getCache();
+        assertTrue(cache.containsCollection(BOOKS_ROLE, reader.getId()));
+
+        assertTrue(peopleService.deletePerson(reader.getId()));
+
+        assertNull(holderOf(first));
+        assertNull(holderOf(second));
+        assertNull(jdbc.queryForObject("select taken_at from book where id = ?", Timestamp.class, first));
+        assertEquals(1, loanEvents(first, "RETURN"));
+        assertEquals(1, loanEvents(second, "RETURN"));
+        assertFalse(cache.containsCollection(BOOKS_ROLE, reader.getId()));
+        assertEquals(0, count("select count(*) from person where id = " + reader.getId()));
+    }
+
+    /**
+     * Оба читателя неактивны, когда выбирается порция, но первый берет и сразу возвращает книгу до удаления порции:
+     * повторная проверка условия в DELETE видит свежую запись журнала выдач, и удаляется только второй.
+     */
+    @Test
+    void deleteInactivePeopleSkipsReaderWhoBorrowedAfterSelection() {
+        Person borrower = newReader("Неактивный Заемщик");
+        Person idle = newReader("Неактивный Читатель");
+        int bookId = newBook("Книга после выборки");
+        jdbc.update("update person set updated_at = ? where id in (?, ?)",
+                new Timestamp(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(60)),
+                borrower.getId(), idle.getId());
+        afterInactiveIds = ids -> {
+            assertTrue(ids.contains(borrower.getId()) && ids.contains(idle.getId()), ids::toString);
+            bookService.assign(bookId, borrower);
+            bookService.release(bookId);
+        };
+
+        peopleService.deleteInactivePeople(30);
+
+        assertNull(afterInactiveIds, "порция кандидатов не выбиралась");
+        assertEquals(1, count("select count(*) from person where id = " + borrower.getId()));
+        assertEquals(0, count("select count(*) from person where id = " + idle.getId()));
+    }
+
+    private static Person newReader(String fio) {
+        Person reader = new Person(fio, 1980, fio.replace(' ', '.') + "@mail.ru");
+        peopleService.savePerson(reader);
+        return reader;
+    }
+
+    private static int newBook(String title) {
+        Book book = new Book(title, "Автор", 2000);
+        bookService.saveBook(book);
+        return book.getId();
+    }
+
+    private static Integer holderOf(int bookId) {
+        return jdbc.queryForObject("select person_id from book where id = ?", Integer.class, bookId);
+    }
+
+    private static int loanEvents(int bookId, String type) {
+        return count("select count(*) from loan_event where book_id = " + bookId + " and event_type = '" + type + "'");
+    }
+
+    private static int count(String sql) {
+        Integer count = jdbc.queryForObject(sql, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Оборачивает репозиторий людей так, чтобы после {@link PeopleRepository#findInactiveIds} выполнялся
+     * {@link #afterInactiveIds}.
+     */
+    @Configuration
+    static class CandidateHook {
+
+        @Bean
+        static BeanPostProcessor inactiveIdsHook() {
+            return new BeanPostProcessor() {
+                @Override
+                public Object postProcessAfterInitialization(Object bean, String beanName) {
+                    if (!(bean instanceof PeopleRepository repository))
+                        return bean;
+                    return Proxy.newProxyInstance(PeopleRepository.class.getClassLoader(),
+                            new Class<?>[]{PeopleRepository.class}, (proxy, method, arguments) -> {
+                                Object result;
+                                try {
+                                    result = method.invoke(repository, arguments);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                                Consumer<List<Integer>> hook = afterInactiveIds;
+                                if (hook != null && method.getName().equals("findInactiveIds")) {
+                                    afterInactiveIds = null;
+                                    @SuppressWarnings("unchecked")
+                                    List<Integer> ids = (List<Integer>) result;
+                                    hook.accept(ids);
+                                }
+                                return result;
+                            });
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ru.ruba.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import ru.ruba.LibraryTestContext;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Обслуживание секций журнала выдач. Секционирование есть только в PostgreSQL: эти проверки выполняются, если задано
+ * системное свойство test.postgresql.url (см. {@link LibraryTestContext#postgresqlSchema}), и работают в отдельной
+ * схеме, которая создается заново для каждого теста. На H2 проверяется удаление записей старше срока хранения.
+ */
+class LoanHistoryPartitionsTest {
+
+    private static final String SCHEMA = "loan_history_partitions_test";
+
+    private final AtomicLong ids = new AtomicLong();
+
+    @Test
+    void h2DeletesRowsOlderThanRetention() {
+        DataSource dataSource = new DriverManagerDataSource(LibraryTestContext.h2Url("loan-history-partitions"), "sa", "");
+        new SchemaMigrator(dataSource, "db/migration", true).migrate();
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        YearMonth current = YearMonth.now();
+        insertEvents(jdbc, current.minusMonths(13), 2);
+        insertEvents(jdbc, current.minusMonths(11), 1);
+
+        new LoanHistoryPartitions(dataSource, 2, 12, 24).maintain();
+
+        assertEquals(1, count(jdbc, "loan_event"));
+    }
+
+    /**
+     * Записи за месяц без секции попадают в секцию по умолчанию и переносятся в созданную для них секцию;
+     * секции создаются с прошлого месяца на monthsAhead месяцев вперед.
+     */
+    @Test
+    void movesDefaultRowsAndCreatesPartitions() {
+        JdbcTemplate jdbc = postgresql();
+        YearMonth current = YearMonth.now();
+        YearMonth old = current.minusMonths(5);
+        insertEvents(jdbc, old, 3);
+        assertEquals(3, count(jdbc, "loan_event_default"));
+
+        new LoanHistoryPartitions(jdbc.getDataSource(), 2, 0, 24).maintain();
+
+        List<String> partitions = partitions(jdbc);
+        for (YearMonth month : List.of(old, current.minusMonths(1), current, current.plusMonths(1), current.plusMonths(2)))
+            assertTrue(partitions.contains(name(month)), name(month) + " в " + partitions);
+        assertEquals(0, count(jdbc, "loan_event_default"));
+        assertEquals(3, count(jdbc, name(old)));
+        assertEquals(3, count(jdbc, "loan_event"));
+    }
+
+    /**
+     * Секция старше срока хранения отсоединяется и переименовывается в архив. Если тот же месяц снова собран
+     * из секции по умолчанию, второй архив получает свободное имя, а секция не остается отсоединенной
+     * под прежним именем.
+     */
+    @Test
+    void archivesOldPartitionsWithoutNameCollision() {
+        JdbcTemplate jdbc = postgresql();
+        YearMonth old = YearMonth.now().minusMonths(14);
+        String archive = name(old).replace("loan_event_", "loan_event_archive_");
+        LoanHistoryPartitions partitions = new LoanHistoryPartitions(jdbc.getDataSource(), 2, 12, 24);
+        insertEvents(jdbc, old, 1);
+
+        partitions.maintain();
+
+        assertFalse(partitions(jdbc).contains(name(old)));
+        assertEquals(1, count(jdbc, archive));
+        assertEquals(0, count(jdbc, "loan_event"));
+
+        insertEvents(jdbc, old, 2);
+        partitions.maintain();
+
+        assertEquals(1, count(jdbc, archive));
+        assertEquals(2, count(jdbc, archive + "_2"));
+        assertNull(jdbc.queryForObject("select to_regclass(?)::text", String.class, name(old)));
+        assertEquals(0, count(jdbc, "loan_event"));
+
+        // повторное обслуживание ничего не меняет
+        partitions.maintain();
+        assertEquals(0, count(jdbc, "loan_event_default"));
+    }
+
+    private static JdbcTemplate postgresql() {
+        assumeTrue(LibraryTestContext.postgresqlConfigured(), "test.postgresql.url не задан");
+        DataSource dataSource = LibraryTestContext.postgresqlSchema(SCHEMA);
+        new SchemaMigrator(dataSource, "db/migration", true).migrate();
+        return new JdbcTemplate(dataSource);
+    }
+
+    private void insertEvents(JdbcTemplate jdbc, YearMonth month, int events) {
+        for (int i = 0; i < events; i++) {
+            jdbc.update("insert into loan_event (id, book_id, person_id, event_type, event_at) values (?, ?, ?, ?, ?)",
+                    ids.incrementAndGet(), 1, 1, "CHECKOUT", Timestamp.valueOf(month.atDay(10 + i).atStartOfDay()));
+        }
+    }
+
+    private static List<String> partitions(JdbcTemplate jdbc) {
+        return jdbc.queryForList("select c.relname from pg_inherits i join pg_class c on c.oid = i.inhrelid " +
+                "where i.inhparent = 'loan_event'::regclass", String.class);
+    }
+
+    private static int count(JdbcTemplate jdbc, String table) {
+        Integer count = jdbc.queryForObject("select count(*) from " + table, Integer.class);
+        return count == null ? 0 : count;
+    }
+
+    private static String name(YearMonth month) {
+        return String.format(Locale.ROOT, "loan_event_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+}
@@ -0,0 +1,158 @@
+package ru.ruba.util;
+
+import jakarta.persistence.EntityManagerFactory;
+import jakarta.servlet.http.Cookie;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.web.context.support.AnnotationConfigWebApplicationContext;
+import ru.ruba.LibraryTestContext;
+import ru.ruba.models.Book;
+import ru.ruba.services.BookService;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+
+/**
+ * Маршрутизация между двумя встроенными базами H2: основной и репликой. Реплика - копия основной базы, после
+ * копирования название книги в ней изменено, поэтому по названию видно, из какой базы прочитана книга.
+ */
+class ReplicaRoutingTest {
+
+    private static final String PRIMARY_TITLE = "Из основной базы";
+
+    private static final String REPLICA_TITLE = "Из реплики";
+
+    private static final String PRIMARY_URL = LibraryTestContext.h2Url("routing-primary");
+
+    private static final String REPLICA_URL = LibraryTestContext.h2Url("routing-replica");
+
+    private static AnnotationConfigWebApplicationContext context;
+
+    private static BookService bookService;
+
+    private static ReplicaRoutingDataSource routing;
+
+    private static JdbcTemplate primary;
+
+    private static JdbcTemplate replica;
+
+    private static MockMvc mvc;
+
+    private int bookId;
+
+    @BeforeAll
+    static void startContext() {
+        context = LibraryTestContext.start(Map.of(
+                "datasource.url", PRIMARY_URL,
+                "datasource.replicas", "replica1",
+                "datasource.replica.replica1.url", REPLICA_URL,
+                "view.fragment_cache.enabled", "false"));
+        bookService = context.getBean(BookService.class);
+        routing = context.getBean(ReplicaRoutingDataSource.class);
+        primary = new JdbcTemplate(new DriverManagerDataSource(PRIMARY_URL, "sa", ""));
+        replica = new JdbcTemplate(new DriverManagerDataSource(REPLICA_URL, "sa", ""));
+        mvc = LibraryTestContext.mockMvc(context);
+    }
+
+    @AfterAll
+    static void closeContext() {
+        context.close();
+    }
+
+    /**
+     * Записывает книгу в основную базу и копирует основную базу в реплику.
+     */
+    @BeforeEach
+    void copyPrimaryToReplica(@TempDir Path dir) {
+        Book book = new Book(PRIMARY_TITLE, "Автор", 2000);
+        bookService.saveBook(book);
+        bookId = book.getId();
+        String script = dir.resolve("primary.sql").toString().replace('\\', '/');
+        primary.execute("script to '" + script + "'");
+        replica.execute("drop all objects");
+        replica.execute("runscript from '" + script + "'");
+        replica.update("update book set title = ? where id = ?", REPLICA_TITLE, bookId);
+        evictCaches();
+    }
+
+    @AfterEach
+    void clearReadYourWrites() {
+        ReadYourWrites.clear();
+    }
+
+    @Test
+    void readOnlyTransactionReadsReplica() {
+        long replicaRoutes = routing.getReplicas().get(0).getRoutes();
+
+        assertEquals(REPLICA_TITLE, bookService.findBookWithReader(bookId).getTitle());
+        assertTrue(routing.getReplicas().get(0).getRoutes() > replicaRoutes);
+    }
+
+    @Test
+    void writeTransactionGoesToPrimary() {
+        Book changed = new Book("Изменена", "Автор", 2000);
+
+        assertTrue(bookService.updateBook(bookId, changed));
+        assertEquals("Изменена", primary.queryForObject("select title from book where id = ?", String.class, bookId));
+        assertEquals(REPLICA_TITLE, replica.queryForObject("select title from book where id = ?", String.class, bookId));
+    }
+
+    @Test
+    void readAfterWriteWindowReadsPrimary() {
+        ReadYourWrites.begin(System.currentTimeMillis() + 60_000);
+
+        assertEquals(PRIMARY_TITLE, bookService.findBookWithReader(bookId).getTitle());
+    }
+
+    @Test
+    void replicaReadsDoNotFillSecondLevelCache() {
+        assertEquals(REPLICA_TITLE, bookService.findOneBook(bookId).getTitle());
+        assertFalse(context.getBean(EntityManagerFactory.class).getCache().contains(Book.class, bookId));
+
+        ReadYourWrites.begin(System.currentTimeMillis() + 60_000);
+        assertEquals(PRIMARY_TITLE, bookService.findOneBook(bookId).getTitle());
+        assertTrue(context.getBean(EntityManagerFactory.class).getCache().contains(Book.class, bookId));
+    }
+
+    @Test
+    void cookieAfterWritePinsPageReadsToPrimary() throws Exception {
+        assertTrue(page(null).contains(REPLICA_TITLE));
+
+        MockHttpServletResponse write = mvc.perform(patch("/book/" + bookId)
+                .param("title", "Изменена").param("author", "Автор").param("year", "2000")).andReturn().getResponse();
+        Cookie pin = write.getCookie(ReadYourWritesInterceptor.COOKIE_NAME);
+        assertNotNull(pin);
+
+        evictCaches();
+        assertTrue(page(pin).contains("Изменена"));
+        evictCaches();
+        assertTrue(page(null).contains(REPLICA_TITLE));
+    }
+
+    private String page(Cookie cookie) throws Exception {
+        MockHttpServletRequestBuilder request = get("/book/" + bookId);
+        if (cookie != null)
+            request.cookie(cookie);
+        return mvc.perform(request).andReturn().getResponse().getContentAsString();
+    }
+
+    private static void evictCaches() {
+        context.getBean(EntityManagerFactory.class).getCache().evictAll();
+    }
+}
@@ -0,0 +1,108 @@
+package ru.ruba.util;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import ru.ruba.LibraryTestContext;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Миграции схемы на встроенной базе H2 и, если задано системное свойство test.postgresql.url, на PostgreSQL
+ * (в отдельной схеме, которая создается заново).
+ */
+class SchemaMigratorTest {
+
+    private static final int H2_SCRIPTS = 3;
+
+    private static final int POSTGRESQL_SCRIPTS = 5;
+
+    private static final String SCHEMA = "schema_migrator_test";
+
+    /**
+     * Экземпляры, запущенные одновременно на пустой базе, применяют каждый скрипт ровно один раз.
+     */
+    @Test
+    void concurrentMigrationsApplyEachScriptOnce() throws Exception {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                LibraryTestContext.h2Url("schema-migrator-test"), "sa", "");
+        int instances = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(instances);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < instances; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return new SchemaMigrator(dataSource, "db/migration", true).migrate();
+                }));
+            }
+            start.countDown();
+            int applied = 0;
+            for (Future<Integer> result : results)
+                applied += result.get();
+            assertEquals(H2_SCRIPTS, applied);
+        } finally {
+            executor.shutdownNow();
+        }
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        assertEquals(H2_SCRIPTS, jdbc.queryForObject("select count(*) from schema_version", Integer.class));
+        // повторный запуск ничего не применяет
+        assertEquals(0, new SchemaMigrator(dataSource, "db/migration", true).migrate());
+    }
+
+    /**
+     * Пока рекомендательную блокировку миграций держит другой экземпляр приложения, миграции ждут и ничего не
+     * создают; CREATE INDEX CONCURRENTLY у владельца блокировки в это время не приводит к взаимоблокировке
+     * с ожидающим экземпляром. После освобождения блокировки все скрипты применяются.
+     */
+    @Test
+    void postgresqlWaitsForAdvisoryLock() throws Exception {
+        assumeTrue(LibraryTestContext.postgresqlConfigured(), "test.postgresql.url не задан");
+        DataSource dataSource = LibraryTestContext.postgresqlSchema(SCHEMA);
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (Connection holder = dataSource.getConnection()) {
+            advisoryLock(holder, "pg_advisory_lock");
+            Future<Integer> migration = executor.submit(() ->
+                    new SchemaMigrator(dataSource, "db/migration", true).migrate());
+            Thread.sleep(1000);
+            try (Statement statement = holder.createStatement()) {
+                statement.execute("create table concurrent_index_probe (id integer)");
+                statement.execute("create index concurrently concurrent_index_probe_idx on concurrent_index_probe (id)");
+            }
+
+            assertFalse(migration.isDone());
+            assertNull(jdbc.queryForObject("select to_regclass('schema_version')::text", String.class));
+
+            advisoryLock(holder, "pg_advisory_unlock");
+            assertEquals(POSTGRESQL_SCRIPTS, migration.get(1, TimeUnit.MINUTES));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(POSTGRESQL_SCRIPTS, jdbc.queryForObject("select count(*) from schema_version", Integer.class));
+        assertEquals(0, new SchemaMigrator(dataSource, "db/migration", true).migrate());
+    }
+
+    private static void advisoryLock(Connection connection, String function) throws Exception {
+        try (PreparedStatement statement = connection.prepareStatement("select " + function + "(?)")) {
+            statement.setLong(1, SchemaMigrator.LOCK_KEY);
+            statement.execute();
+        }
+    }
+}